@@ -0,0 +1,174 @@
+package java_cup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates parsers in process, e.g. from a build tool or an application that
+ * generates the parsers of many grammars at once. Each call runs the generator
+ * in a GeneratorContext of its own, so calls don't see each other's grammars
+ * and any number of threads may generate parsers at the same time.
+ *
+ * <pre>
+ * CupGenerator.Result r = CupGenerator.generate(
+ *     new CupGenerator.Options().dest_dir(dir).package_name("calc").parser_name("CalcParser"), reader);
+ * if (!r.succeeded())
+ *   System.err.print(r.messages());
+ * </pre>
+ *
+ * @see java_cup.GeneratorContext
+ */
+public class CupGenerator {
+
+  /*-----------------------------------------------------------*/
+  /*--- Static Methods ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Generate a parser.
+   *
+   * @param options the options to generate it with.
+   * @param spec    the specification, or null to read the file named by the
+   *                options.
+   * @return the outcome of the run.
+   */
+  public static Result generate(Options options, Reader spec) throws Exception {
+    var text = new ByteArrayOutputStream();
+    GeneratorContext context;
+    int status;
+    try (var messages = new PrintStream(text, true)) {
+      context = new GeneratorContext(messages);
+      status = new Main(context).run(options.to_args(), spec);
+    }
+    var errors = context.error_manager();
+    return new Result(status, errors.getErrorCount(), errors.getWarningCount(), text.toString());
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- Nested Classes ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * The options of a run, as the command line arguments of Main. The setters
+   * for the common options return the options, to set them in a chain; any
+   * other option is added with option().
+   */
+  public static class Options {
+
+    /** The arguments so far. */
+    protected final List<String> _args = new ArrayList<>();
+
+    /** Constructor for the default options. */
+    public Options() {
+    }
+
+    /** Constructor for options given as command line arguments. */
+    public Options(String... args) {
+      _args.addAll(Arrays.asList(args));
+    }
+
+    /** Add a command line option, with its arguments if any. */
+    public Options option(String... args) {
+      _args.addAll(Arrays.asList(args));
+      return this;
+    }
+
+    /** Set the directory to write the generated files to. */
+    public Options dest_dir(File dir) {
+      return option("-destdir", dir.getPath());
+    }
+
+    /** Set the package of the generated classes. */
+    public Options package_name(String name) {
+      return option("-package", name);
+    }
+
+    /** Set the name of the parser class. */
+    public Options parser_name(String name) {
+      return option("-parser", name);
+    }
+
+    /** Set the name of the symbol constant class. */
+    public Options symbols_name(String name) {
+      return option("-symbols", name);
+    }
+
+    /** Set the number of conflicts expected. */
+    public Options expect(int conflicts) {
+      return option("-expect", Integer.toString(conflicts));
+    }
+
+    /** Set the number of threads to build the parse states and tables on. */
+    public Options threads(int threads) {
+      return option("-threads", Integer.toString(threads));
+    }
+
+    /** Set the directory of the generation cache. */
+    public Options cache(File dir) {
+      return option("-cache", dir.getPath());
+    }
+
+    /** The options as command line arguments. */
+    public String[] to_args() {
+      return _args.toArray(new String[0]);
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The outcome of a run. */
+  public static class Result {
+
+    /** Constructor for the outcome of a run. */
+    public Result(int status, int errors, int warnings, String messages) {
+      _status = status;
+      _errors = errors;
+      _warnings = warnings;
+      _messages = messages;
+    }
+
+    /** The status the generator would have exited with, see Main.run(). */
+    protected final int _status;
+
+    /** The status the generator would have exited with, see Main.run(). */
+    public int status() {
+      return _status;
+    }
+
+    /** The number of errors reported. */
+    protected final int _errors;
+
+    /** The number of errors reported. */
+    public int errors() {
+      return _errors;
+    }
+
+    /** The number of warnings reported. */
+    protected final int _warnings;
+
+    /** The number of warnings reported. */
+    public int warnings() {
+      return _warnings;
+    }
+
+    /** The messages, warnings and errors printed. */
+    protected final String _messages;
+
+    /** The messages, warnings and errors printed. */
+    public String messages() {
+      return _messages;
+    }
+
+    /** Was the parser generated without errors. */
+    public boolean succeeded() {
+      return _status == 0;
+    }
+  }
+
+  /*-----------------------------------------------------------*/
+}
@@ -3,19 +3,24 @@ package java_cup;
 import java_cup.runtime.Symbol;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.io.PrintStream;
+import java.util.List;
 public class ErrorManager{
-    private static ErrorManager errorManager;
+    private final PrintStream out;
+    private List<String> recorded;
     private int errors = 0;
     private int warnings = 0;
     private int fatals = 0;
     public int getFatalCount() { return fatals; }
     public int getErrorCount() { return errors; }
     public int getWarningCount() { return warnings; }
-    public static void clear() {
-        errorManager = new ErrorManager();
+    /** Also keep the warnings emitted from now on in a list, until given null. */
+    public void recordWarnings(List<String> into) {
+        recorded = into;
     }
-    public static ErrorManager getManager() { return errorManager; }
-    private ErrorManager(){
+    /** Constructor for the manager of a run, printing the messages to out. */
+    public ErrorManager(PrintStream out){
+        this.out = out;
     }
 
     //TODO: migrate to java.util.logging
@@ -25,30 +30,32 @@ public class ErrorManager{
      * ERRORLEVEL : MESSAGE
      **/
     public void emit_fatal(String message){
-        System.err.println("Fatal : "+message);
+        out.println("Fatal : "+message);
         fatals++;
     }
     public void emit_fatal(String message, Symbol sym){
         //System.err.println("Fatal at ("+sym.left+"/"+sym.right+")@"+convSymbol(sym)+" : "+message);
-        System.err.println("Fatal: "+message+" @ "+sym);
+        out.println("Fatal: "+message+" @ "+sym);
         fatals++;
     }
     public void emit_warning(String message){
-        System.err.println("Warning : " + message);
+        out.println("Warning : " + message);
+        if (recorded != null)
+            recorded.add(message);
         warnings++;	
     }
     public void emit_warning(String message, Symbol sym){
-//        System.err.println("Warning at ("+sym.left+"/"+sym.right+")@"+convSymbol(sym)+" : "+message);
-        System.err.println("Fatal: "+message+" @ "+sym);
+//        out.println("Warning at ("+sym.left+"/"+sym.right+")@"+convSymbol(sym)+" : "+message);
+        out.println("Fatal: "+message+" @ "+sym);
         warnings++;
     }
     public void emit_error(String message){
-        System.err.println("Error : " + message);
+        out.println("Error : " + message);
         errors++;
     }
     public void emit_error(String message, Symbol sym){
-//        System.err.println("Error at ("+sym.left+"/"+sym.right+")@"+convSymbol(sym)+" : "+message);
-        System.err.println("Error: "+message+" @ "+sym);
+//        out.println("Error at ("+sym.left+"/"+sym.right+")@"+convSymbol(sym)+" : "+message);
+        out.println("Error: "+message+" @ "+sym);
         errors++;
     }
     private static String convSymbol(Symbol symbol){
@@ -0,0 +1,172 @@
+package java_cup;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of one run of the generator: the symbols, productions and parse
+ * states of the grammar, the emitter with the options and counts of the run,
+ * and the ErrorManager the run reports to. Every object of the grammar belongs
+ * to the context it was created in, and finds the rest of the grammar through
+ * it, so runs in different contexts don't see each other, and can run at the
+ * same time on different threads.
+ * <p>
+ *
+ * A context is good for one run; make a new context for each grammar.
+ *
+ * @see java_cup.Main
+ * @see java_cup.CupGenerator
+ */
+public class GeneratorContext {
+
+  /*-----------------------------------------------------------*/
+  /*--- Constructor(s) ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Constructor for a new context, with the special terminals and the start
+   * non terminal.
+   *
+   * @param messages where to print messages, warnings and errors.
+   */
+  public GeneratorContext(PrintStream messages) {
+    _messages = messages;
+    _error_manager = new ErrorManager(messages);
+    _emit = new emit(this);
+    _EOF = new terminal(this, "EOF");
+    _error = new terminal(this, "error");
+    _START_nt = new non_terminal(this);
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- (Access to) Instance Variables ------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** Where messages, warnings and errors go. */
+  protected final PrintStream _messages;
+
+  /** Where messages, warnings and errors go. */
+  public PrintStream messages() {
+    return _messages;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The error manager that counts the warnings and errors of the run. */
+  protected final ErrorManager _error_manager;
+
+  /** The error manager that counts the warnings and errors of the run. */
+  public ErrorManager error_manager() {
+    return _error_manager;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The emitter, with the code parts, options and counts of the run. */
+  protected final emit _emit;
+
+  /** The emitter, with the code parts, options and counts of the run. */
+  public emit emit() {
+    return _emit;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Has a run been started in this context. */
+  protected boolean _used = false;
+
+  /*-----------------------------------------------------------*/
+  /*--- Symbols -----------------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** Table of all terminals, by name (see terminal). */
+  protected final Map<String, terminal> _terminals = new HashMap<>();
+
+  /** Table of all terminals, by index. */
+  protected final MonotonicIntObjectArrayMap<terminal> _terminals_by_index = new MonotonicIntObjectArrayMap<>();
+
+  /** Counter to assign unique terminal indexes. */
+  protected int _next_terminal = 0;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Special terminal for end of input. */
+  protected final terminal _EOF;
+
+  /** Special terminal for end of input. */
+  public terminal EOF() {
+    return _EOF;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Special terminal used for error recovery. */
+  protected final terminal _error;
+
+  /** Special terminal used for error recovery. */
+  public terminal error() {
+    return _error;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Table of all non terminals, by name (see non_terminal). */
+  protected final Map<String, non_terminal> _non_terminals = new HashMap<>();
+
+  /** Table of all non terminals, by index. */
+  protected final MonotonicIntObjectArrayMap<non_terminal> _non_terminals_by_index = new MonotonicIntObjectArrayMap<>();
+
+  /** Counter to assign unique non terminal indexes. */
+  protected int _next_non_terminal = 0;
+
+  /** Counter for creating unique names of hidden non terminals. */
+  protected int _next_nt = 0;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Special non terminal for the start symbol. */
+  protected final non_terminal _START_nt;
+
+  /** Special non terminal for the start symbol. */
+  public non_terminal START_nt() {
+    return _START_nt;
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- Productions and States --------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** Table of all productions, by index (see production). */
+  protected final MonotonicIntObjectArrayMap<production> _productions = new MonotonicIntObjectArrayMap<>();
+
+  /** Counter to assign unique production indexes. */
+  protected int _next_production = 0;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The number of the first item core of each production, by production index
+   * (see lr_item_core.index_cores()).
+   */
+  protected int[] _core_base = new int[0];
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Collection of all states, in the order of their indexes (see lalr_state). */
+  protected final List<lalr_state> _states = new ArrayList<>();
+
+  /**
+   * Table to find states by their kernels, entered concurrently when the
+   * machine is built by several threads.
+   */
+  protected final Map<lalr_state.kernel_key, lalr_state> _kernels = new ConcurrentHashMap<>();
+
+  /** Counter to assign unique state indexes. */
+  protected int _next_state = 0;
+
+  /*-----------------------------------------------------------*/
+}
@@ -2,6 +2,7 @@
 package java_cup;
 
 import java.io.*;
+import java.util.ArrayList;
 import java_cup.runtime.*;
 
 /**
@@ -35,6 +36,28 @@ import java_cup.runtime.*;
  * <dd>number of conflicts expected/allowed [default 0]
  * <dt>-compact_red
  * <dd>compact tables by defaulting to most frequent reduce
+ * <dt>-comb_tables
+ * <dd>emit row-displacement tables for constant time table lookups
+ * <dt>-table_resource
+ * <dd>write the parse tables to a binary class path resource
+ * <dt>-value_stack
+ * <dd>parse on a value stack instead of a stack of Symbol objects
+ * <dt>-lazy_lookahead
+ * <dd>reduce in consistent states without fetching the lookahead
+ * <dt>-collapse_units
+ * <dd>skip reductions by unit productions without action code
+ * <dt>-expected_sets
+ * <dd>emit the terminals every state has an action for, for expected_token_ids()
+ * <dt>-codegen mode
+ * <dd>emit a table driven (<tt>table</tt>) or a directly coded
+ * (<tt>direct</tt>) parse loop [default table]
+ * <dt>-direct_limit #
+ * <dd>most parse states to code directly [default 500]
+ * <dt>-threads #
+ * <dd>number of threads to build the parse states and tables on [default 1]
+ * <dt>-cache dir
+ * <dd>keep the parse tables in dir, to reuse them while only the action code
+ * changes
  * <dt>-nowarn
  * <dd>don't warn about useless productions, etc.
  * <dt>-nosummary
@@ -74,89 +97,143 @@ public class Main {
   /*--- Constructor(s) ----------------------------------------*/
   /*-----------------------------------------------------------*/
   /**
-   * Only constructor is private, so we do not allocate any instances of this
-   * class.
+   * Constructor for a run of the generator in a context.
+   * 
+   * @param context the context to run in; it is good for one run.
    */
-  private Main() {
+  public Main(GeneratorContext context) {
+    this.context = context;
+    messages = context.messages();
+    emit = context.emit();
   }
 
+  /*-----------------------------------------------------------*/
+  /*--- The Context of the Run --------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** The context of the run, with the grammar and the error manager. */
+  protected final GeneratorContext context;
+
+  /** Where messages, warnings and errors go. */
+  protected final PrintStream messages;
+
+  /** The emitter of the run, with the code parts and options to emit. */
+  protected final emit emit;
+
   /*-------------------------*/
   /* Options set by the user */
   /*-------------------------*/
   /** User option -- do we print progress messages. */
-  protected static boolean print_progress = false;
+  protected boolean print_progress = false;
   /** User option -- do we produce a dump of the state machine */
-  protected static boolean opt_dump_states = false;
+  protected boolean opt_dump_states = false;
   /** User option -- do we produce a dump of the parse tables */
-  protected static boolean opt_dump_tables = false;
+  protected boolean opt_dump_tables = false;
   /** User option -- do we produce a dump of the grammar */
-  protected static boolean opt_dump_grammar = false;
+  protected boolean opt_dump_grammar = false;
   /** User option -- do we show timing information as a part of the summary */
-  protected static boolean opt_show_timing = false;
+  protected boolean opt_show_timing = false;
   /** User option -- do we run produce extra debugging messages */
-  protected static boolean opt_do_debug = false;
+  protected boolean opt_do_debug = false;
   /** User option -- do eclipse debug symbols */
-  protected static boolean opt_do_debugsymbols = false;
+  protected boolean opt_do_debugsymbols = false;
   /**
    * User option -- do we compact tables by making most common reduce the default
    * action
    */
-  protected static boolean opt_compact_red = false;
+  protected boolean opt_compact_red = false;
+  /**
+   * User option -- do we emit the parse tables in row-displacement form
+   */
+  protected boolean opt_comb_tables = false;
+  /**
+   * User option -- do we write the parse tables to a binary resource rather
+   * than into the parser class
+   */
+  protected boolean opt_table_resource = false;
+  /**
+   * User option -- do the actions work on a value stack rather than on a stack
+   * of Symbol objects
+   */
+  protected boolean opt_value_stack = false;
+  /**
+   * User option -- do we reduce in consistent states without fetching the
+   * lookahead
+   */
+  protected boolean opt_lazy_lookahead = false;
+  /**
+   * User option -- do gotos skip reductions by unit productions without action
+   * code
+   */
+  protected boolean opt_collapse_units = false;
+  /**
+   * User option -- do we emit the terminals every state has an action for,
+   * for expected_token_ids()
+   */
+  protected boolean opt_expected_sets = false;
+  /** User option -- do we code the parse loop directly */
+  protected boolean opt_direct_code = false;
+  /** User option -- most parse states to code directly */
+  protected int direct_limit = java_cup.emit.DEFAULT_DIRECT_LIMIT;
   /**
    * User option -- should we include non terminal symbol numbers in the symbol
    * constant class.
    */
-  protected static boolean include_non_terms = false;
+  protected boolean include_non_terms = false;
   /** User option -- do not print a summary. */
-  protected static boolean no_summary = false;
+  protected boolean no_summary = false;
   /** User option -- number of conflicts to expect */
-  protected static int expect_conflicts = 0;
+  protected int expect_conflicts = 0;
+  /** User option -- number of threads to build the states and tables on */
+  protected int threads = 1;
+  /** User option -- directory of the generation cache, or null for none */
+  protected File cache_dir = null;
 
   /* frankf added this 6/18/96 */
   /** User option -- should generator generate code for left/right values? */
-  protected static boolean lr_values = true;
-  protected static boolean locations = false;
-  protected static boolean xmlactions = false;
-  protected static boolean genericlabels = false;
+  protected boolean lr_values = true;
+  protected boolean locations = false;
+  protected boolean xmlactions = false;
+  protected boolean genericlabels = false;
 
   /** User option -- should symbols be put in a class or an interface? [CSA] */
-  protected static boolean sym_interface = false;
+  protected boolean sym_interface = false;
 
   /**
    * User option -- should generator suppress references to
    * java_cup.runtime.Scanner for compatibility with old runtimes?
    */
-  protected static boolean suppress_scanner = false;
+  protected boolean suppress_scanner = false;
 
   /*----------------------------------------------------------------------*/
   /* Timing data (not all of these time intervals are mutually exclusive) */
   /*----------------------------------------------------------------------*/
   /** Timing data -- when did we start */
-  protected static long start_time = 0;
+  protected long start_time = 0;
   /** Timing data -- when did we end preliminaries */
-  protected static long prelim_end = 0;
+  protected long prelim_end = 0;
   /** Timing data -- when did we end parsing */
-  protected static long parse_end = 0;
+  protected long parse_end = 0;
   /** Timing data -- when did we end checking */
-  protected static long check_end = 0;
+  protected long check_end = 0;
   /** Timing data -- when did we end dumping */
-  protected static long dump_end = 0;
+  protected long dump_end = 0;
   /** Timing data -- when did we end state and table building */
-  protected static long build_end = 0;
+  protected long build_end = 0;
   /** Timing data -- when did we end nullability calculation */
-  protected static long nullability_end = 0;
+  protected long nullability_end = 0;
   /** Timing data -- when did we end first set calculation */
-  protected static long first_end = 0;
+  protected long first_end = 0;
   /** Timing data -- when did we end state machine construction */
-  protected static long machine_end = 0;
+  protected long machine_end = 0;
   /** Timing data -- when did we end table construction */
-  protected static long table_end = 0;
+  protected long table_end = 0;
   /** Timing data -- when did we end checking for non-reduced productions */
-  protected static long reduce_check_end = 0;
+  protected long reduce_check_end = 0;
   /** Timing data -- when did we finish emitting code */
-  protected static long emit_end = 0;
+  protected long emit_end = 0;
   /** Timing data -- when were we completely done */
-  protected static long final_time = 0;
+  protected long final_time = 0;
 
   /* Additional timing information is also collected in emit */
 
@@ -170,21 +247,68 @@ public class Main {
    * @param argv an array of strings containing command line arguments.
    */
   public static void main(String[] argv) throws java.lang.Exception {
+    /*
+     * If there were errors during the run, exit with non-zero status
+     * (makefile-friendliness). --CSA
+     */
+    int status = run(argv, null, System.err);
+    if (status != 0)
+      System.exit(status);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Run the system once, in a new context. Rather than exit, this returns the
+   * status main() exits with, so the generator can be run in process, any
+   * number of times, and on several threads at once.
+   * 
+   * @param argv     an array of strings containing command line arguments.
+   * @param spec     the specification to parse, or null to read it from the file
+   *                 named by the last argument, or else from standard input.
+   * @param messages where to print messages, warnings and errors.
+   * @return 0 on success, 100 if there were errors, 1 after a usage message or
+   *         the version, 3 or 4 if an output file couldn't be opened.
+   */
+  public static int run(String[] argv, Reader spec, PrintStream messages) throws java.lang.Exception {
+    return new Main(new GeneratorContext(messages)).run(argv, spec);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Run the system in the context of this Main, see run(String[], Reader,
+   * PrintStream).
+   * 
+   * @param argv an array of strings containing command line arguments.
+   * @param spec the specification to parse, or null.
+   * @return the status main() would exit with.
+   */
+  public int run(String[] argv, Reader spec) throws java.lang.Exception {
+    if (context._used)
+      throw new IllegalStateException("A generator context can only be run once");
+    context._used = true;
+    input_file = spec;
+    try {
+      return run(argv);
+    } catch (abort e) {
+      if (e.error != null) {
+        context.error_manager().emit_fatal("JavaCUP Internal Error Detected: " + e.error.getMessage());
+        e.error.printStackTrace(messages);
+      }
+      close_files();
+      return e.status;
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Run the system once, see run(String[], Reader). */
+  protected int run(String[] argv) throws java.lang.Exception {
     boolean did_output = false;
 
     start_time = System.currentTimeMillis();
 
-    /* clean all static members, that contain remaining stuff from earlier calls */
-    terminal.clear();
-    production.clear();
-    action_production.clear();
-    emit.clear();
-    non_terminal.clear();
-    parse_reduce_row.clear();
-    parse_action_row.clear();
-    lalr_state.clear();
-    ErrorManager.clear();
-
     /* process user options and arguments */
     parse_args(argv);
 
@@ -195,44 +319,58 @@ public class Main {
     emit.set_locations(locations);
     emit.set_xmlactions(xmlactions);
     emit.set_genericlabels(genericlabels);
+    emit.set_comb_tables(opt_comb_tables);
+    emit.set_table_resource(opt_table_resource);
+    emit.set_value_stack(opt_value_stack);
+    emit.set_lazy_lookahead(opt_lazy_lookahead);
+    emit.set_collapse_units(opt_collapse_units);
+    emit.set_expected_sets(opt_expected_sets);
+    emit.set_direct_code(opt_direct_code);
+    emit.set_direct_limit(direct_limit);
     /* open output set_xmlactionsfiles */
     if (print_progress)
-      System.err.println("Opening files...");
-    /* use a buffered version of standard input */
-    input_file = new BufferedInputStream(System.in);
+      messages.println("Opening files...");
+    /* use a buffered version of standard input, unless given a spec */
+    if (input_file == null)
+      input_file = new BufferedReader(new InputStreamReader(System.in));
 
     prelim_end = System.currentTimeMillis();
 
     /* parse spec into internal data structures */
     if (print_progress)
-      System.err.println("Parsing specification from standard input...");
+      messages.println("Parsing specification from standard input...");
     parse_grammar_spec();
 
     parse_end = System.currentTimeMillis();
 
     /* don't proceed unless we are error free */
-    if (ErrorManager.getManager().getErrorCount() == 0) {
+    if (context.error_manager().getErrorCount() == 0) {
       /* check for unused bits */
       if (print_progress)
-        System.err.println("Checking specification...");
+        messages.println("Checking specification...");
       check_unused();
 
       check_end = System.currentTimeMillis();
 
-      /* build the state machine and parse tables */
-      if (print_progress)
-        System.err.println("Building parse tables...");
-      build_parser();
+      /* build the state machine and parse tables, unless they are cached */
+      generation = null;
+      if (cache_dir != null && !opt_dump_states)
+        generation = new generation_cache(context, cache_dir);
+      if (generation == null || !restore_parser()) {
+        if (print_progress)
+          messages.println("Building parse tables...");
+        build_parser();
+      }
 
       build_end = System.currentTimeMillis();
 
       /* output the generated code, if # of conflicts permits */
-      if (ErrorManager.getManager().getErrorCount() != 0) {
+      if (context.error_manager().getErrorCount() != 0) {
         // conflicts! don't emit code, don't dump tables.
         opt_dump_tables = false;
       } else { // everything's okay, emit parser.
         if (print_progress)
-          System.err.println("Writing parser...");
+          messages.println("Writing parser...");
         open_files();
         emit_parser();
         did_output = true;
@@ -253,19 +391,41 @@ public class Main {
 
     /* close input/output files */
     if (print_progress)
-      System.err.println("Closing files...");
+      messages.println("Closing files...");
     close_files();
 
     /* produce a summary if desired */
     if (!no_summary)
       emit_summary(did_output);
 
-    /*
-     * If there were errors during the run, exit with non-zero status
-     * (makefile-friendliness). --CSA
-     */
-    if (ErrorManager.getManager().getErrorCount() != 0)
-      System.exit(100);
+    return context.error_manager().getErrorCount() != 0 ? 100 : 0;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Thrown to end a run early, with the status to exit with. Exiting the JVM
+   * right away would also end the build tool or application running the
+   * generator.
+   */
+  static final class abort extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /** The status to exit with. */
+    final int status;
+
+    /** The internal error that ended the run, or null. */
+    final internal_error error;
+
+    abort(int status) {
+      this(status, null);
+    }
+
+    abort(int status, internal_error error) {
+      super("exit status " + status, null, false, false);
+      this.status = status;
+      this.error = error;
+    }
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -276,11 +436,11 @@ public class Main {
    * 
    * @param message a specific error message to preface the usage message by.
    */
-  protected static void usage(String message) {
-    System.err.println();
-    System.err.println(message);
-    System.err.println();
-    System.err.println(version.title_str + "\n" + "Usage: " + version.program_name + " [options] [filename]\n"
+  protected void usage(String message) {
+    messages.println();
+    messages.println(message);
+    messages.println();
+    messages.println(version.title_str + "\n" + "Usage: " + version.program_name + " [options] [filename]\n"
         + "  and expects a specification file on standard input if no filename is given.\n"
         + "  Legal options include:\n" + "    -package name  specify package generated classes go in [default none]\n"
         + "    -destdir name  specify the destination directory, to store the generated files in\n"
@@ -291,6 +451,16 @@ public class Main {
         + "    -nonterms      put non terminals in symbol constant class\n"
         + "    -expect #      number of conflicts expected/allowed [default 0]\n"
         + "    -compact_red   compact tables by defaulting to most frequent reduce\n"
+        + "    -comb_tables   emit row-displacement tables for constant time table lookups\n"
+        + "    -table_resource write the parse tables to a binary class path resource\n"
+        + "    -value_stack   parse on a value stack instead of a stack of Symbol objects\n"
+        + "    -lazy_lookahead reduce in consistent states without fetching the lookahead\n"
+        + "    -collapse_units skip reductions by unit productions without action code\n"
+        + "    -expected_sets emit the terminals of every state for expected_token_ids()\n"
+        + "    -codegen mode  emit a table driven or directly coded parse loop (table, direct)\n"
+        + "    -direct_limit # most parse states to code directly [default 500]\n"
+        + "    -threads #     number of threads to build the parse states and tables on [default 1]\n"
+        + "    -cache dir     keep the parse tables in dir, to reuse while only action code changes\n"
         + "    -nowarn        don't warn about useless productions, etc.\n"
         + "    -nosummary     don't print the usual summary of parse states, etc.\n"
         + "    -nopositions   don't propagate the left and right token position values\n"
@@ -305,7 +475,7 @@ public class Main {
         + "    -dump_tables   produce a dump of the parse tables\n"
         + "    -dump          produce a dump of all of the above\n"
         + "    -version       print the version information for CUP and exit\n");
-    System.exit(1);
+    throw new abort(1);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -316,7 +486,7 @@ public class Main {
    * 
    * @param argv the command line arguments to be parsed.
    */
-  protected static void parse_args(String[] argv) {
+  protected void parse_args(String[] argv) {
     int len = argv.length;
     int i;
 
@@ -335,7 +505,7 @@ public class Main {
         if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
           usage("-destdir must have a name argument");
         /* record the name */
-        Main.dest_dir = new java.io.File(argv[i]);
+        dest_dir = new java.io.File(argv[i]);
       } else if (argv[i].equals("-parser")) {
         /* must have an arg */
         if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
@@ -363,8 +533,63 @@ public class Main {
         } catch (NumberFormatException e) {
           usage("-expect must be followed by a decimal integer");
         }
+      } else if (argv[i].equals("-codegen")) {
+        /* must have an arg */
+        if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
+          usage("-codegen must have a name argument");
+
+        /* record the mode */
+        if (argv[i].equals("direct"))
+          opt_direct_code = true;
+        else if (argv[i].equals("table"))
+          opt_direct_code = false;
+        else
+          usage("-codegen must be followed by table or direct");
+      } else if (argv[i].equals("-direct_limit")) {
+        /* must have an arg */
+        if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
+          usage("-direct_limit must have a number argument");
+
+        /* record the number */
+        try {
+          direct_limit = Integer.parseInt(argv[i]);
+        } catch (NumberFormatException e) {
+          usage("-direct_limit must be followed by a decimal integer");
+        }
+      } else if (argv[i].equals("-threads")) {
+        /* must have an arg */
+        if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
+          usage("-threads must have a number argument");
+
+        /* record the number */
+        try {
+          threads = Integer.parseInt(argv[i]);
+        } catch (NumberFormatException e) {
+          usage("-threads must be followed by a decimal integer");
+        }
+        if (threads < 1)
+          usage("-threads must be at least 1");
+      } else if (argv[i].equals("-cache")) {
+        /* must have an arg */
+        if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
+          usage("-cache must have a name argument");
+
+        /* record the directory */
+        cache_dir = new File(argv[i]);
       } else if (argv[i].equals("-compact_red"))
         opt_compact_red = true;
+      else if (argv[i].equals("-comb_tables"))
+        opt_comb_tables = true;
+      else if (argv[i].equals("-table_resource"))
+        opt_table_resource = true;
+      else if (argv[i].equals("-value_stack"))
+        opt_value_stack = true;
+      else if (argv[i].equals("-lazy_lookahead"))
+        opt_lazy_lookahead = true;
+      else if (argv[i].equals("-collapse_units"))
+        opt_collapse_units = true;
+      else if (argv[i].equals("-expected_sets"))
+        opt_expected_sets = true;
       else if (argv[i].equals("-nosummary"))
         no_summary = true;
       else if (argv[i].equals("-nowarn"))
@@ -402,8 +627,8 @@ public class Main {
         suppress_scanner = true;
       /* CSA 23-Jul-1999 */
       else if (argv[i].equals("-version")) {
-        System.out.println(version.title_str);
-        System.exit(1);
+        messages.println(version.title_str);
+        throw new abort(1);
       }
       /* TUM changes; suggested by Henning Niss 20050628 */
       else if (argv[i].equals("-typearg")) {
@@ -416,9 +641,10 @@ public class Main {
 
       /* CSA 24-Jul-1999; suggestion by Jean Vaucher */
       else if (!argv[i].startsWith("-") && i == len - 1) {
-        /* use input from file. */
+        /* use input from file, unless given a spec */
         try {
-          System.setIn(new FileInputStream(argv[i]));
+          if (input_file == null)
+            input_file = new BufferedReader(new FileReader(argv[i]));
         } catch (java.io.FileNotFoundException e) {
           usage("Unable to open \"" + argv[i] + "\" for input");
         }
@@ -426,6 +652,13 @@ public class Main {
         usage("Unrecognized option \"" + argv[i] + "\"");
       }
     }
+
+    /* the value stack holds no Symbols to take Locations or XML trees from */
+    if (opt_value_stack && (locations || xmlactions))
+      usage("-value_stack cannot be combined with -locations or -xmlactions");
+    /* the directly coded loop works on the Symbol stack */
+    if (opt_value_stack && opt_direct_code)
+      usage("-value_stack cannot be combined with -codegen direct");
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -434,21 +667,24 @@ public class Main {
   /* Files */
   /*-------*/
 
-  /** Input file. This is a buffered version of System.in. */
-  protected static BufferedInputStream input_file;
+  /** Input file. This is the spec given to run(), or a buffered version of the file or System.in. */
+  protected Reader input_file;
 
   /** Output file for the parser class. */
-  protected static PrintWriter parser_class_file;
+  protected PrintWriter parser_class_file;
 
   /** Output file for the symbol constant class. */
-  protected static PrintWriter symbol_class_file;
+  protected PrintWriter symbol_class_file;
+
+  /** Output file for the binary parse table resource. */
+  protected OutputStream table_resource_file;
 
   /** Output directory. */
-  protected static File dest_dir = null;
+  protected File dest_dir = null;
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Open various files used by the system. */
-  protected static void open_files() {
+  protected void open_files() {
     File fil;
     String out_name;
 
@@ -460,8 +696,8 @@ public class Main {
     try {
       parser_class_file = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fil), 4096));
     } catch (Exception e) {
-      System.err.println("Can't open \"" + out_name + "\" for output");
-      System.exit(3);
+      messages.println("Can't open \"" + out_name + "\" for output");
+      throw new abort(3);
     }
 
     /* symbol constants class */
@@ -470,50 +706,67 @@ public class Main {
     try {
       symbol_class_file = new PrintWriter(new BufferedOutputStream(new FileOutputStream(fil), 4096));
     } catch (Exception e) {
-      System.err.println("Can't open \"" + out_name + "\" for output");
-      System.exit(4);
+      messages.println("Can't open \"" + out_name + "\" for output");
+      throw new abort(4);
+    }
+
+    /* parse table resource */
+    if (opt_table_resource) {
+      out_name = emit.parser_class_name + TableResource.SUFFIX;
+      fil = new File(dest_dir, out_name);
+      try {
+        table_resource_file = new BufferedOutputStream(new FileOutputStream(fil), 4096);
+      } catch (Exception e) {
+        messages.println("Can't open \"" + out_name + "\" for output");
+        throw new abort(3);
+      }
     }
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Close various files used by the system. */
-  protected static void close_files() throws java.io.IOException {
+  protected void close_files() throws java.io.IOException {
     if (input_file != null)
       input_file.close();
+    input_file = null;
     if (parser_class_file != null)
       parser_class_file.close();
     if (symbol_class_file != null)
       symbol_class_file.close();
+    if (table_resource_file != null)
+      table_resource_file.close();
+    table_resource_file = null;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
    * Parse the grammar specification from standard input. This produces sets of
-   * terminal, non-terminals, and productions which can be accessed via static
-   * variables of the respective classes, as well as the setting of various
-   * variables (mostly in the emit class) for small user supplied items such as
-   * the code to scan with.
+   * terminal, non-terminals, and productions which can be accessed through the
+   * context of the run, as well as the setting of various variables (mostly in
+   * the emitter) for small user supplied items such as the code to scan with.
    */
-  protected static void parse_grammar_spec() throws java.lang.Exception {
+  protected void parse_grammar_spec() throws java.lang.Exception {
     parser parser_obj;
 
     /* create a parser and parse with it */
     ComplexSymbolFactory csf = new ComplexSymbolFactory();
-    parser_obj = new parser(new Lexer(csf), csf);
+    parser_obj = new parser(new Lexer(input_file, csf, context.error_manager()), csf, context);
     parser_obj.setDebugSymbols(opt_do_debugsymbols);
     try {
       if (opt_do_debug)
         parser_obj.debug_parse();
       else
         parser_obj.parse();
+    } catch (abort e) {
+      throw e;
     } catch (Exception e) {
       /*
        * something threw an exception. catch it and emit a message so we have a line
        * number to work with, then re-throw it
        */
-      ErrorManager.getManager().emit_error("Internal error: Unexpected exception");
+      context.error_manager().emit_error("Internal error: Unexpected exception");
       throw e;
     }
   }
@@ -524,16 +777,16 @@ public class Main {
    * Check for unused symbols. Unreduced productions get checked when tables are
    * created.
    */
-  protected static void check_unused() {
+  protected void check_unused() {
 
     /* check for unused terminals */
-    for (var term : terminal.all()) {
+    for (var term : terminal.all(context)) {
       /* don't issue a message for EOF */
-      if (term == terminal.EOF)
+      if (term == context.EOF())
         continue;
 
       /* or error */
-      if (term == terminal.error)
+      if (term == context.error())
         continue;
 
       /* is this one unused */
@@ -541,19 +794,19 @@ public class Main {
         /* count it and warn if we are doing warnings */
         emit.unused_term++;
         if (!emit.nowarn) {
-          ErrorManager.getManager().emit_warning("Terminal \"" + term.name() + "\" was declared but never used");
+          context.error_manager().emit_warning("Terminal \"" + term.name() + "\" was declared but never used");
         }
       }
     }
 
     /* check for unused non terminals */
-    for (var nt:non_terminal.all()){
+    for (var nt:non_terminal.all(context)){
       /* is this one unused */
       if (nt.use_count() == 0) {
         /* count and warn if we are doing warnings */
         emit.unused_term++;
         if (!emit.nowarn) {
-          ErrorManager.getManager().emit_warning("Non terminal \"" + nt.name() + "\" was declared but never used");
+          context.error_manager().emit_warning("Non terminal \"" + nt.name() + "\" was declared but never used");
         }
       }
     }
@@ -565,13 +818,16 @@ public class Main {
   /* . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Start state in the overall state machine. */
-  protected static lalr_state start_state;
+  protected lalr_state start_state;
 
   /** Resulting parse action table. */
-  protected static parse_action_table action_table;
+  protected parse_action_table action_table;
 
   /** Resulting reduce-goto table. */
-  protected static parse_reduce_table reduce_table;
+  protected parse_reduce_table reduce_table;
+
+  /** The cache entry of the grammar, or null if not caching. */
+  protected generation_cache generation;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
@@ -586,49 +842,98 @@ public class Main {
    * <li>Checking for unreduced productions.
    * </ul>
    */
-  protected static void build_parser() throws internal_error {
+  protected void build_parser() throws internal_error {
     /* compute nullability of all non terminals */
     if (opt_do_debug || print_progress)
-      System.err.println("  Computing non-terminal nullability...");
-    non_terminal.compute_nullability();
+      messages.println("  Computing non-terminal nullability...");
+    non_terminal.compute_nullability(context);
 
     nullability_end = System.currentTimeMillis();
 
     /* compute first sets of all non terminals */
     if (opt_do_debug || print_progress)
-      System.err.println("  Computing first sets...");
-    non_terminal.compute_first_sets();
+      messages.println("  Computing first sets...");
+    non_terminal.compute_first_sets(context);
 
     first_end = System.currentTimeMillis();
 
     /* build the LR viable prefix recognition machine */
     if (opt_do_debug || print_progress)
-      System.err.println("  Building state machine...");
-    start_state = lalr_state.build_machine(emit.start_production);
+      messages.println("  Building state machine...");
+    start_state = lalr_state.build_machine(emit.start_production, threads);
 
     machine_end = System.currentTimeMillis();
 
     /* build the LR parser action and reduce-goto tables */
     if (opt_do_debug || print_progress)
-      System.err.println("  Filling in tables...");
-    action_table = new parse_action_table();
-    reduce_table = new parse_reduce_table();
-    for (var lst:lalr_state.all_states()){
-      lst.build_table_entries(action_table, reduce_table);
+      messages.println("  Filling in tables...");
+    action_table = new parse_action_table(context);
+    reduce_table = new parse_reduce_table(context);
+    var conflicts = new ArrayList<String>();
+    context.error_manager().recordWarnings(conflicts);
+    try {
+      lalr_state.build_all_table_entries(context, action_table, reduce_table, threads);
+    } finally {
+      context.error_manager().recordWarnings(null);
+    }
+
+    table_end = System.currentTimeMillis();
+
+    /* keep the tables for the next run */
+    if (generation != null) {
+      try {
+        generation.store(start_state, action_table, reduce_table, conflicts);
+      } catch (IOException e) {
+        context.error_manager().emit_warning("Can't write generation cache: " + e.getMessage());
+      }
+    }
+
+    check_tables();
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Restore the state machine and parse tables from the generation cache,
+   * instead of building them, and report the conflicts found when they were
+   * built.
+   * 
+   * @return false if the cache has no entry for the grammar.
+   */
+  protected boolean restore_parser() throws internal_error {
+    nullability_end = first_end = machine_end = System.currentTimeMillis();
+    if (!generation.restore())
+      return false;
+    if (print_progress)
+      messages.println("Restored parse tables from " + generation.file());
+    start_state = generation.start_state();
+    action_table = generation.action_table();
+    reduce_table = generation.reduce_table();
+    for (String conflict : generation.conflicts()) {
+      emit.num_conflicts++;
+      context.error_manager().emit_warning(conflict);
     }
 
     table_end = System.currentTimeMillis();
 
+    check_tables();
+    return true;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Check the parse tables, built or restored, and the number of conflicts. */
+  protected void check_tables() throws internal_error {
     /* check and warn for non-reduced productions */
     if (opt_do_debug || print_progress)
-      System.err.println("  Checking for non-reduced productions...");
+      messages.println("  Checking for non-reduced productions...");
     action_table.check_reductions();
 
     reduce_check_end = System.currentTimeMillis();
 
     /* if we have more conflicts than we expected issue a message and die */
     if (emit.num_conflicts > expect_conflicts) {
-      ErrorManager.getManager()
+      context.error_manager()
           .emit_error("*** More conflicts encountered than expected " + "-- parser generation aborted");
       // indicate the problem.
       // we'll die on return, after clean up.
@@ -638,10 +943,17 @@ public class Main {
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Call the emit routines necessary to write out the generated parser. */
-  protected static void emit_parser() throws internal_error {
+  protected void emit_parser() throws internal_error {
     emit.symbols(symbol_class_file, include_non_terms, sym_interface);
     emit.parser(parser_class_file, action_table, reduce_table, start_state.index(), emit.start_production,
         opt_compact_red, suppress_scanner);
+    if (table_resource_file != null) {
+      try {
+        emit.table_resource(table_resource_file);
+      } catch (IOException e) {
+        context.error_manager().emit_error("Can't write parse table resource: " + e.getMessage());
+      }
+    }
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -651,7 +963,7 @@ public class Main {
    * 
    * @param val the numerical value determining plurality.
    */
-  protected static String plural(int val) {
+  protected String plural(int val) {
     if (val == 1)
       return "";
     else
@@ -661,98 +973,100 @@ public class Main {
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
-   * Emit a long summary message to standard error (System.err) which summarizes
+   * Emit a long summary message to standard error (messages) which summarizes
    * what was found in the specification, how many states were produced, how many
    * conflicts were found, etc. A detailed timing summary is also produced if it
    * was requested by the user.
    * 
    * @param output_produced did the system get far enough to generate code.
    */
-  protected static void emit_summary(boolean output_produced) {
+  protected void emit_summary(boolean output_produced) {
     final_time = System.currentTimeMillis();
 
     if (no_summary)
       return;
 
-    System.err.println("------- " + version.title_str + " Parser Generation Summary -------");
+    messages.println("------- " + version.title_str + " Parser Generation Summary -------");
 
     /* error and warning count */
-    System.err.println("  " + ErrorManager.getManager().getErrorCount() + " error"
-        + plural(ErrorManager.getManager().getErrorCount()) + " and " + ErrorManager.getManager().getWarningCount()
-        + " warning" + plural(ErrorManager.getManager().getWarningCount()));
+    messages.println("  " + context.error_manager().getErrorCount() + " error"
+        + plural(context.error_manager().getErrorCount()) + " and " + context.error_manager().getWarningCount()
+        + " warning" + plural(context.error_manager().getWarningCount()));
 
     /* basic stats */
-    System.err.print("  " + terminal.number() + " terminal" + plural(terminal.number()) + ", ");
-    System.err.print(non_terminal.number() + " non-terminal" + plural(non_terminal.number()) + ", and ");
-    System.err.println(production.number() + " production" + plural(production.number()) + " declared, ");
-    System.err.println("  producing " + lalr_state.number() + " unique parse states.");
+    messages.print("  " + terminal.number(context) + " terminal" + plural(terminal.number(context)) + ", ");
+    messages.print(non_terminal.number(context) + " non-terminal" + plural(non_terminal.number(context)) + ", and ");
+    messages.println(production.number(context) + " production" + plural(production.number(context)) + " declared, ");
+    messages.println("  producing " + lalr_state.number(context) + " unique parse states.");
 
     /* unused symbols */
-    System.err.println("  " + emit.unused_term + " terminal" + plural(emit.unused_term) + " declared but not used.");
-    System.err
+    messages.println("  " + emit.unused_term + " terminal" + plural(emit.unused_term) + " declared but not used.");
+    messages
         .println("  " + emit.unused_non_term + " non-terminal" + plural(emit.unused_term) + " declared but not used.");
 
     /* productions that didn't reduce */
-    System.err.println("  " + emit.not_reduced + " production" + plural(emit.not_reduced) + " never reduced.");
+    messages.println("  " + emit.not_reduced + " production" + plural(emit.not_reduced) + " never reduced.");
 
     /* conflicts */
-    System.err.println("  " + emit.num_conflicts + " conflict" + plural(emit.num_conflicts) + " detected" + " ("
+    messages.println("  " + emit.num_conflicts + " conflict" + plural(emit.num_conflicts) + " detected" + " ("
         + expect_conflicts + " expected).");
 
     /* code location */
     if (output_produced)
-      System.err.println("  Code written to \"" + emit.parser_class_name + ".java\", and \""
+      messages.println("  Code written to \"" + emit.parser_class_name + ".java\", and \""
           + emit.symbol_const_class_name + ".java\".");
     else
-      System.err.println("  No code produced.");
+      messages.println("  No code produced.");
 
     if (opt_show_timing)
       show_times();
 
-    System.err.println("---------------------------------------------------- (" + version.title_str + ")");
+    messages.println("---------------------------------------------------- (" + version.title_str + ")");
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Produce the optional timing summary as part of an overall summary. */
-  protected static void show_times() {
+  protected void show_times() {
     long total_time = final_time - start_time;
 
-    System.err.println(". . . . . . . . . . . . . . . . . . . . . . . . . ");
-    System.err.println("  Timing Summary");
-    System.err.println("    Total time       " + timestr(final_time - start_time, total_time));
-    System.err.println("      Startup        " + timestr(prelim_end - start_time, total_time));
-    System.err.println("      Parse          " + timestr(parse_end - prelim_end, total_time));
+    messages.println(". . . . . . . . . . . . . . . . . . . . . . . . . ");
+    messages.println("  Timing Summary");
+    messages.println("    Total time       " + timestr(final_time - start_time, total_time));
+    messages.println("      Startup        " + timestr(prelim_end - start_time, total_time));
+    messages.println("      Parse          " + timestr(parse_end - prelim_end, total_time));
     if (check_end != 0)
-      System.err.println("      Checking       " + timestr(check_end - parse_end, total_time));
+      messages.println("      Checking       " + timestr(check_end - parse_end, total_time));
     if (check_end != 0 && build_end != 0)
-      System.err.println("      Parser Build   " + timestr(build_end - check_end, total_time));
+      messages.println("      Parser Build   " + timestr(build_end - check_end, total_time));
     if (nullability_end != 0 && check_end != 0)
-      System.err.println("        Nullability  " + timestr(nullability_end - check_end, total_time));
+      messages.println("        Nullability  " + timestr(nullability_end - check_end, total_time));
     if (first_end != 0 && nullability_end != 0)
-      System.err.println("        First sets   " + timestr(first_end - nullability_end, total_time));
+      messages.println("        First sets   " + timestr(first_end - nullability_end, total_time));
     if (machine_end != 0 && first_end != 0)
-      System.err.println("        State build  " + timestr(machine_end - first_end, total_time));
+      messages.println("        State build  " + timestr(machine_end - first_end, total_time));
     if (table_end != 0 && machine_end != 0)
-      System.err.println("        Table build  " + timestr(table_end - machine_end, total_time));
+      messages.println("        Table build  " + timestr(table_end - machine_end, total_time));
     if (reduce_check_end != 0 && table_end != 0)
-      System.err.println("        Checking     " + timestr(reduce_check_end - table_end, total_time));
+      messages.println("        Checking     " + timestr(reduce_check_end - table_end, total_time));
     if (emit_end != 0 && build_end != 0)
-      System.err.println("      Code Output    " + timestr(emit_end - build_end, total_time));
+      messages.println("      Code Output    " + timestr(emit_end - build_end, total_time));
     if (emit.symbols_time != 0)
-      System.err.println("        Symbols      " + timestr(emit.symbols_time, total_time));
+      messages.println("        Symbols      " + timestr(emit.symbols_time, total_time));
     if (emit.parser_time != 0)
-      System.err.println("        Parser class " + timestr(emit.parser_time, total_time));
+      messages.println("        Parser class " + timestr(emit.parser_time, total_time));
     if (emit.action_code_time != 0)
-      System.err.println("          Actions    " + timestr(emit.action_code_time, total_time));
+      messages.println("          Actions    " + timestr(emit.action_code_time, total_time));
     if (emit.production_table_time != 0)
-      System.err.println("          Prod table " + timestr(emit.production_table_time, total_time));
+      messages.println("          Prod table " + timestr(emit.production_table_time, total_time));
     if (emit.action_table_time != 0)
-      System.err.println("          Action tab " + timestr(emit.action_table_time, total_time));
+      messages.println("          Action tab " + timestr(emit.action_table_time, total_time));
     if (emit.goto_table_time != 0)
-      System.err.println("          Reduce tab " + timestr(emit.goto_table_time, total_time));
+      messages.println("          Reduce tab " + timestr(emit.goto_table_time, total_time));
+    if (emit.direct_time != 0)
+      messages.println("          Direct     " + timestr(emit.direct_time, total_time));
 
-    System.err.println("      Dump Output    " + timestr(dump_end - emit_end, total_time));
+    messages.println("      Dump Output    " + timestr(dump_end - emit_end, total_time));
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -766,7 +1080,7 @@ public class Main {
    * @param time_val   the value being formatted (in ms).
    * @param total_time total time percentages are calculated against (in ms).
    */
-  protected static String timestr(long time_val, long total_time) {
+  protected String timestr(long time_val, long total_time) {
     boolean neg;
     long ms;
     long sec;
@@ -803,37 +1117,37 @@ public class Main {
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Produce a human readable dump of the grammar. */
-  public static void dump_grammar() throws internal_error {
-    System.err.println("===== Terminals =====");
-    for (int tidx = 0, cnt = 0; tidx < terminal.number(); tidx++, cnt++) {
-      System.err.print("[" + tidx + "]" + terminal.find(tidx).name() + " ");
+  public void dump_grammar() throws internal_error {
+    messages.println("===== Terminals =====");
+    for (int tidx = 0, cnt = 0; tidx < terminal.number(context); tidx++, cnt++) {
+      messages.print("[" + tidx + "]" + terminal.find(context, tidx).name() + " ");
       if ((cnt + 1) % 5 == 0)
-        System.err.println();
+        messages.println();
     }
-    System.err.println();
-    System.err.println();
+    messages.println();
+    messages.println();
 
-    System.err.println("===== Non terminals =====");
-    for (int nidx = 0, cnt = 0; nidx < non_terminal.number(); nidx++, cnt++) {
-      System.err.print("[" + nidx + "]" + non_terminal.find(nidx).name() + " ");
+    messages.println("===== Non terminals =====");
+    for (int nidx = 0, cnt = 0; nidx < non_terminal.number(context); nidx++, cnt++) {
+      messages.print("[" + nidx + "]" + non_terminal.find(context, nidx).name() + " ");
       if ((cnt + 1) % 5 == 0)
-        System.err.println();
+        messages.println();
     }
-    System.err.println();
-    System.err.println();
+    messages.println();
+    messages.println();
 
-    System.err.println("===== Productions =====");
-    for (int pidx = 0; pidx < production.number(); pidx++) {
-      production prod = production.find(pidx);
-      System.err.print("[" + pidx + "] " + prod.lhs().the_symbol().name() + " ::= ");
+    messages.println("===== Productions =====");
+    for (int pidx = 0; pidx < production.number(context); pidx++) {
+      production prod = production.find(context, pidx);
+      messages.print("[" + pidx + "] " + prod.lhs().the_symbol().name() + " ::= ");
       for (int i = 0; i < prod.rhs_length(); i++)
         if (prod.rhs(i).is_action())
-          System.err.print("{action} ");
+          messages.print("{action} ");
         else
-          System.err.print(((symbol_part) prod.rhs(i)).the_symbol().name() + " ");
-      System.err.println();
+          messages.print(((symbol_part) prod.rhs(i)).the_symbol().name() + " ");
+      messages.println();
     }
-    System.err.println();
+    messages.println();
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -842,29 +1156,29 @@ public class Main {
    * Produce a (semi-) human readable dump of the complete viable prefix
    * recognition state machine.
    */
-  public static void dump_machine() {
-    lalr_state[] ordered = new lalr_state[lalr_state.number()];
+  public void dump_machine() {
+    lalr_state[] ordered = new lalr_state[lalr_state.number(context)];
 
     /* put the states in sorted order for a nicer display */
-    for (var st : lalr_state.all_states()){
+    for (var st : lalr_state.all_states(context)){
       ordered[st.index()] = st;
     }
 
-    System.err.println("===== Viable Prefix Recognizer =====");
-    for (int i = 0; i < lalr_state.number(); i++) {
+    messages.println("===== Viable Prefix Recognizer =====");
+    for (int i = 0; i < lalr_state.number(context); i++) {
       if (ordered[i] == start_state)
-        System.err.print("START ");
-      System.err.println(ordered[i]);
-      System.err.println("-------------------");
+        messages.print("START ");
+      messages.println(ordered[i]);
+      messages.println("-------------------");
     }
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Produce a (semi-) human readable dumps of the parse tables */
-  public static void dump_tables() {
-    System.err.println(action_table);
-    System.err.println(reduce_table);
+  public void dump_tables() {
+    messages.println(action_table);
+    messages.println(reduce_table);
   }
 
   /*-----------------------------------------------------------*/
@@ -31,6 +31,7 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 
+import java_cup.CupGenerator;
 import java_cup.version;
 
 public class CUPTask extends Task {
@@ -43,6 +44,16 @@ public class CUPTask extends Task {
     private boolean nonterms = false;
     private String expect = null;
     private boolean compact_red = false;
+    private boolean comb_tables = false;
+    private boolean table_resource = false;
+    private boolean value_stack = false;
+    private boolean lazy_lookahead = false;
+    private boolean collapse_units = false;
+    private boolean expected_sets = false;
+    private String codegen = null;
+    private String direct_limit = null;
+    private String threads = null;
+    private String cache = null;
     private boolean nowarn = false;
     private boolean nosummary = false;
     private boolean progress = false;
@@ -96,6 +107,40 @@ public class CUPTask extends Task {
         if (compact_red) {
             sc.add("-compact_red");
         }
+        if (comb_tables) {
+            sc.add("-comb_tables");
+        }
+        if (table_resource) {
+            sc.add("-table_resource");
+        }
+        if (value_stack) {
+            sc.add("-value_stack");
+        }
+        if (lazy_lookahead) {
+            sc.add("-lazy_lookahead");
+        }
+        if (collapse_units) {
+            sc.add("-collapse_units");
+        }
+        if (expected_sets) {
+            sc.add("-expected_sets");
+        }
+        if (codegen != null) {
+            sc.add("-codegen");
+            sc.add(codegen);
+        }
+        if (direct_limit != null) {
+            sc.add("-direct_limit");
+            sc.add(direct_limit);
+        }
+        if (threads != null) {
+            sc.add("-threads");
+            sc.add(threads);
+        }
+        if (cache != null) {
+            sc.add("-cache");
+            sc.add(cache);
+        }
         if (nowarn) {
             sc.add("-nowarn");
         }
@@ -225,11 +270,17 @@ public class CUPTask extends Task {
         for (int i = 0; i < args.length; i++)
             args[i] = sc.get(i);
 
+        // run CUP in process, without letting it exit Ant's JVM
+        CupGenerator.Result result;
         try {
-            java_cup.Main.main(args);
+            result = CupGenerator.generate(new CupGenerator.Options(args), null);
         } catch (Exception e) {
-            log("CUP error occured int CUP task: " + e);
+            throw new BuildException("CUP error occurred in CUP task: " + e, e);
         }
+        if (!result.messages().isEmpty())
+            log(result.messages().stripTrailing());
+        if (!result.succeeded())
+            throw new BuildException("CUP failed on " + srcfile + " with exit status " + result.status());
 
     }
 
@@ -457,6 +508,186 @@ public class CUPTask extends Task {
         this.compact_red = argCompact_red;
     }
 
+    /**
+     * Gets the value of comb_tables
+     *
+     * @return the value of comb_tables
+     */
+    public boolean isComb_tables() {
+        return this.comb_tables;
+    }
+
+    /**
+     * Sets the value of comb_tables
+     *
+     * @param argComb_tables Value to assign to this.comb_tables
+     */
+    public void setComb_tables(boolean argComb_tables) {
+        this.comb_tables = argComb_tables;
+    }
+
+    /**
+     * Gets the value of table_resource
+     *
+     * @return the value of table_resource
+     */
+    public boolean isTable_resource() {
+        return this.table_resource;
+    }
+
+    /**
+     * Sets the value of table_resource
+     *
+     * @param argTable_resource Value to assign to this.table_resource
+     */
+    public void setTable_resource(boolean argTable_resource) {
+        this.table_resource = argTable_resource;
+    }
+
+    /**
+     * Gets the value of value_stack
+     *
+     * @return the value of value_stack
+     */
+    public boolean isValue_stack() {
+        return this.value_stack;
+    }
+
+    /**
+     * Sets the value of value_stack
+     *
+     * @param argValue_stack Value to assign to this.value_stack
+     */
+    public void setValue_stack(boolean argValue_stack) {
+        this.value_stack = argValue_stack;
+    }
+
+    /**
+     * Gets the value of lazy_lookahead
+     *
+     * @return the value of lazy_lookahead
+     */
+    public boolean isLazy_lookahead() {
+        return this.lazy_lookahead;
+    }
+
+    /**
+     * Sets the value of lazy_lookahead
+     *
+     * @param argLazy_lookahead Value to assign to this.lazy_lookahead
+     */
+    public void setLazy_lookahead(boolean argLazy_lookahead) {
+        this.lazy_lookahead = argLazy_lookahead;
+    }
+
+    /**
+     * Gets the value of collapse_units
+     *
+     * @return the value of collapse_units
+     */
+    public boolean isCollapse_units() {
+        return this.collapse_units;
+    }
+
+    /**
+     * Sets the value of collapse_units
+     *
+     * @param argCollapse_units Value to assign to this.collapse_units
+     */
+    public void setCollapse_units(boolean argCollapse_units) {
+        this.collapse_units = argCollapse_units;
+    }
+
+    /**
+     * Gets the value of expected_sets
+     *
+     * @return the value of expected_sets
+     */
+    public boolean isExpected_sets() {
+        return this.expected_sets;
+    }
+
+    /**
+     * Sets the value of expected_sets
+     *
+     * @param argExpected_sets Value to assign to this.expected_sets
+     */
+    public void setExpected_sets(boolean argExpected_sets) {
+        this.expected_sets = argExpected_sets;
+    }
+
+    /**
+     * Gets the value of codegen
+     *
+     * @return the value of codegen
+     */
+    public String getCodegen() {
+        return this.codegen;
+    }
+
+    /**
+     * Sets the value of codegen
+     *
+     * @param argCodegen Value to assign to this.codegen
+     */
+    public void setCodegen(String argCodegen) {
+        this.codegen = argCodegen;
+    }
+
+    /**
+     * Gets the value of direct_limit
+     *
+     * @return the value of direct_limit
+     */
+    public String getDirect_limit() {
+        return this.direct_limit;
+    }
+
+    /**
+     * Sets the value of direct_limit
+     *
+     * @param argDirect_limit Value to assign to this.direct_limit
+     */
+    public void setDirect_limit(String argDirect_limit) {
+        this.direct_limit = argDirect_limit;
+    }
+
+    /**
+     * Gets the value of threads
+     *
+     * @return the value of threads
+     */
+    public String getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Sets the value of threads
+     *
+     * @param argThreads Value to assign to this.threads
+     */
+    public void setThreads(String argThreads) {
+        this.threads = argThreads;
+    }
+
+    /**
+     * Gets the value of cache
+     *
+     * @return the value of cache
+     */
+    public String getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets the value of cache
+     *
+     * @param argCache Value to assign to this.cache
+     */
+    public void setCache(String argCache) {
+        this.cache = argCache;
+    }
+
     /**
      * Gets the value of nowarn
      *
@@ -1,7 +1,16 @@
 package java_cup;
 
 import java_cup.runtime.ArrayStack;
+import java_cup.runtime.TableResource;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * This class handles emitting generated code for the resulting parser. The
@@ -47,7 +56,8 @@ import java.io.PrintWriter;
  * detected (see the source code and public variables below for more details).
  * <p>
  *
- * This class is "static" (contains only static data and methods).
+ * Every run of the generator has an emitter of its own, in its
+ * GeneratorContext.
  * <p>
  *
  * @see java_cup.Main
@@ -64,6 +74,7 @@ import java.io.PrintWriter;
  * user's actions emit_production_table - emit declaration and init for the
  * production table do_action_table - emit declaration and init for the action
  * table do_reduce_table - emit declaration and init for the reduce-goto table
+ * emit_direct_parse - emit the directly coded parse loop
  * 
  * Finally, this class uses a number of public instance variables to communicate
  * optional parameters and flags used to control how code is generated, as well
@@ -94,31 +105,41 @@ public class emit {
   /*--- Constructor(s) ----------------------------------------*/
   /*-----------------------------------------------------------*/
 
-  /** Only constructor is private so no instances can be created. */
-  private emit() {
+  /**
+   * Constructor for the emitter of a run.
+   * 
+   * @param context the context of the run.
+   */
+  protected emit(GeneratorContext context) {
+    _context = context;
   }
 
   /*-----------------------------------------------------------*/
-  /*--- Static (Class) Variables ------------------------------*/
+  /*--- Instance Variables ------------------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** The context of the run. */
+  protected final GeneratorContext _context;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** The prefix placed on names that pollute someone else's name space. */
-  public static String prefix = "CUP$";
+  public String prefix = "CUP$";
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Package that the resulting code goes into (null is used for unnamed). */
-  public static String package_name = null;
+  public String package_name = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Name of the generated class for symbol constants. */
-  public static String symbol_const_class_name = "sym";
+  public String symbol_const_class_name = "sym";
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Name of the generated parser class. */
-  public static String parser_class_name = "parser";
+  public String parser_class_name = "parser";
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
@@ -126,113 +147,213 @@ public class emit {
    * TUM changes; proposed by Henning Niss 20050628: Type arguments for class
    * declaration
    */
-  public static String class_type_argument = null;
+  public String class_type_argument = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** User declarations for direct inclusion in user action class. */
-  public static String action_code = null;
+  public String action_code = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** User declarations for direct inclusion in parser class. */
-  public static String parser_code = null;
+  public String parser_code = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** User code for user_init() which is called during parser initialization. */
-  public static String init_code = null;
+  public String init_code = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** User code for scan() which is called to get the next Symbol. */
-  public static String scan_code = null;
+  public String scan_code = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** The start production of the grammar. */
-  public static production start_production = null;
+  public production start_production = null;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** List of imports (Strings containing class names) to go with actions. */
-  public static ArrayStack<String> import_list = new ArrayStack<>();
+  public ArrayStack<String> import_list = new ArrayStack<>();
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Number of conflict found while building tables. */
-  public static int num_conflicts = 0;
+  public int num_conflicts = 0;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Do we skip warnings? */
-  public static boolean nowarn = false;
+  public boolean nowarn = false;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Count of the number on non-reduced productions found. */
-  public static int not_reduced = 0;
+  public int not_reduced = 0;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Count of unused terminals. */
-  public static int unused_term = 0;
+  public int unused_term = 0;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** Count of unused non terminals. */
-  public static int unused_non_term = 0;
+  public int unused_non_term = 0;
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /* Timing values used to produce timing report in main. */
 
   /** Time to produce symbol constant class. */
-  public static long symbols_time = 0;
+  public long symbols_time = 0;
 
   /** Time to produce parser class. */
-  public static long parser_time = 0;
+  public long parser_time = 0;
 
   /** Time to produce action code class. */
-  public static long action_code_time = 0;
+  public long action_code_time = 0;
 
   /** Time to produce the production table. */
-  public static long production_table_time = 0;
+  public long production_table_time = 0;
 
   /** Time to produce the action table. */
-  public static long action_table_time = 0;
+  public long action_table_time = 0;
 
   /** Time to produce the reduce-goto table. */
-  public static long goto_table_time = 0;
+  public long goto_table_time = 0;
+
+  /** Time to produce the directly coded parse loop. */
+  public long direct_time = 0;
 
   /* frankf 6/18/96 */
-  protected static boolean _lr_values;
-  protected static boolean _locations;
-  protected static boolean _xmlactions;
-  protected static boolean _genericlabels;
+  protected boolean _lr_values = true;
+  protected boolean _locations;
+  protected boolean _xmlactions;
+  protected boolean _genericlabels;
+  protected boolean _comb_tables;
+  protected boolean _table_resource;
+  protected boolean _value_stack;
+  protected boolean _lazy_lookahead;
+  protected boolean _collapse_units;
+  protected boolean _direct_code;
+  protected boolean _expected_sets;
+
+  /**
+   * Default for the largest number of states coded directly. The dispatch over
+   * the states of a bigger parser would grow beyond the size of methods the
+   * HotSpot JIT compiles.
+   */
+  public static final int DEFAULT_DIRECT_LIMIT = 500;
+
+  protected int _direct_limit = DEFAULT_DIRECT_LIMIT;
+
+  /** Tables queued for the binary table resource. */
+  protected ArrayStack<short[][]> resource_tables = new ArrayStack<>();
+
+  /**
+   * Declarations of the table fields, which go into a nested holder class when
+   * the tables come from a table resource (see emit_parse_tables()).
+   */
+  protected StringWriter table_fields = new StringWriter();
 
   /** whether or not to emit code for left and right values */
-  public static boolean lr_values() {
+  public boolean lr_values() {
     return _lr_values;
   }
 
-  public static boolean locations() {
+  public boolean locations() {
     return _locations;
   }
 
-  protected static void set_lr_values(boolean b) {
+  protected void set_lr_values(boolean b) {
     _lr_values = b;
   }
 
-  protected static void set_locations(boolean b) {
+  protected void set_locations(boolean b) {
     _locations = b;
   }
 
-  protected static void set_genericlabels(boolean b) {
+  protected void set_genericlabels(boolean b) {
     _genericlabels = b;
   }
 
-  protected static void set_xmlactions(boolean b) {
+  /** whether or not to emit the parse tables in row-displacement form */
+  public boolean comb_tables() {
+    return _comb_tables;
+  }
+
+  protected void set_comb_tables(boolean b) {
+    _comb_tables = b;
+  }
+
+  /** whether or not to put the parse tables into a binary class path resource */
+  public boolean table_resource() {
+    return _table_resource;
+  }
+
+  protected void set_table_resource(boolean b) {
+    _table_resource = b;
+  }
+
+  /** whether or not the actions work on the value stack rather than on Symbols */
+  public boolean value_stack() {
+    return _value_stack;
+  }
+
+  protected void set_value_stack(boolean b) {
+    _value_stack = b;
+  }
+
+  /** whether or not consistent states reduce without fetching the lookahead */
+  public boolean lazy_lookahead() {
+    return _lazy_lookahead;
+  }
+
+  protected void set_lazy_lookahead(boolean b) {
+    _lazy_lookahead = b;
+  }
+
+  /** whether or not gotos skip reductions by unit productions without action code */
+  public boolean collapse_units() {
+    return _collapse_units;
+  }
+
+  protected void set_collapse_units(boolean b) {
+    _collapse_units = b;
+  }
+
+  /** whether or not to emit the terminals every state has an action for */
+  public boolean expected_sets() {
+    return _expected_sets;
+  }
+
+  protected void set_expected_sets(boolean b) {
+    _expected_sets = b;
+  }
+
+  /** whether or not the parse loop is coded directly instead of driven by tables */
+  public boolean direct_code() {
+    return _direct_code;
+  }
+
+  protected void set_direct_code(boolean b) {
+    _direct_code = b;
+  }
+
+  /** the largest number of states for which the parse loop is coded directly */
+  public int direct_limit() {
+    return _direct_limit;
+  }
+
+  protected void set_direct_limit(int limit) {
+    _direct_limit = limit;
+  }
+
+  protected void set_xmlactions(boolean b) {
     _xmlactions = b;
     if (!b)
       return;
@@ -240,27 +361,6 @@ public class emit {
     _lr_values = true;
   }
 
-  // Hm Added clear to clear all static fields
-  public static void clear() {
-    _genericlabels = false;
-    _xmlactions = false;
-    _locations = false;
-    _lr_values = true;
-    action_code = null;
-    import_list = new ArrayStack<>();
-    init_code = null;
-    not_reduced = 0;
-    num_conflicts = 0;
-    package_name = null;
-    parser_class_name = "parser";
-    parser_code = null;
-    scan_code = null;
-    start_production = null;
-    symbol_const_class_name = "sym";
-    unused_non_term = 0;
-    unused_term = 0;
-  }
-
   /*-----------------------------------------------------------*/
   /*--- General Methods ---------------------------------------*/
   /*-----------------------------------------------------------*/
@@ -270,15 +370,49 @@ public class emit {
    * 
    * @param str string to prefix.
    */
-  protected static String pre(String str) {
+  protected String pre(String str) {
     return prefix + parser_class_name + "$" + str;
   }
 
+  /**
+   * The stream to declare a table field on: the parser class itself, or the
+   * holder class of the tables when they come from a table resource.
+   *
+   * @param out stream of the parser class.
+   */
+  protected PrintWriter table_out(PrintWriter out) {
+    return _table_resource ? new PrintWriter(table_fields, true) : out;
+  }
+
+  /**
+   * Build the expression for a table field in the methods of the parser class.
+   *
+   * @param field the name of the field.
+   */
+  protected String table_ref(String field) {
+    return _table_resource ? pre("tables") + "." + field : field;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Build the expression for the value of a parse stack element in action code.
+   *
+   * @param stack_type the type of the value.
+   * @param offset     the distance of the element from the top of the stack.
+   */
+  protected String stack_value(String stack_type, int offset) {
+    if (_value_stack)
+      return "(" + stack_type + ") " + pre("values") + "[" + pre("top") + (offset == 0 ? "" : "-" + offset) + "]";
+    return pre("stack") + ((offset == 0) ? ".peek()" : (".elementAt(" + pre("top") + "-" + offset + ")")) + ".<"
+        + stack_type + ">value()";
+  }
+
   /**
    * TUM changes; proposed by Henning Niss 20050628 Build a string with the
    * specified type arguments, if present, otherwise an empty string.
    */
-  protected static String typeArgument() {
+  protected String typeArgument() {
     return class_type_argument == null ? "" : "<" + class_type_argument + ">";
   }
 
@@ -289,7 +423,7 @@ public class emit {
    * 
    * @param out stream to produce output on.
    */
-  protected static void emit_package(PrintWriter out) {
+  protected void emit_package(PrintWriter out) {
     /* generate a package spec if we have a name for one */
     if (package_name != null) {
       out.println("package " + package_name + ";");
@@ -307,7 +441,7 @@ public class emit {
    * @param emit_non_terms do we emit constants for non terminals?
    * @param sym_interface  should we emit an interface, rather than a class?
    */
-  public static void symbols(PrintWriter out, boolean emit_non_terms, boolean sym_interface) {
+  public void symbols(PrintWriter out, boolean emit_non_terms, boolean sym_interface) {
     String class_or_interface = sym_interface ? "interface" : "class";
 
     long start_time = System.currentTimeMillis();
@@ -327,18 +461,18 @@ public class emit {
     out.println("  /* terminals */");
 
     /* walk over the terminals */ /* later might sort these */
-    for (terminal term : terminal.all()) {
+    for (terminal term : terminal.all(_context)) {
       /* output a constant decl for the terminal */
       out.println("  public static final int " + term.name() + " = " + term.index() + ";");
     }
 
     /* Emit names of terminals */
     out.println("  public static final String[] terminalNames = new String[] {");
-    for (int i = 0; i < terminal.number(); i++) {
+    for (int i = 0; i < terminal.number(_context); i++) {
       out.print("  \"");
-      out.print(terminal.find(i).name());
+      out.print(terminal.find(_context, i).name());
       out.print("\"");
-      if (i < terminal.number() - 1) {
+      if (i < terminal.number(_context) - 1) {
         out.print(",");
       }
       out.println();
@@ -351,7 +485,7 @@ public class emit {
       out.println("  /* non terminals */");
 
       /* walk over the non terminals */ /* later might sort these */
-      for (non_terminal nt : non_terminal.all()) {
+      for (non_terminal nt : non_terminal.all(_context)) {
 
         // ****
         // TUM Comment: here we could add a typesafe enumeration
@@ -373,13 +507,44 @@ public class emit {
 
   static final int UPPERLIMIT = 300;
 
+  /** Return type of the generated action methods. */
+  protected String action_result_type() {
+    return _value_stack ? "Object" : "java_cup.runtime.Symbol";
+  }
+
+  /** Emit the parameter list of the generated action methods. */
+  protected void emit_action_params(PrintWriter out) {
+    out.println("    int                        " + pre("act_num,"));
+    out.println("    java_cup.runtime.lr_parser " + pre("parser,"));
+    if (_value_stack) {
+      out.println("    Object[]                   " + pre("values,"));
+      out.println("    int[]                      " + pre("lefts,"));
+      out.println("    int[]                      " + pre("rights,"));
+    } else
+      out.println("    java_cup.runtime.ArrayStack<java_cup.runtime.Symbol>    " + pre("stack,"));
+    out.println("    int                        " + pre("top)"));
+  }
+
+  /** Emit the argument list passed on between the generated action methods. */
+  protected void emit_action_args(PrintWriter out) {
+    out.println("                               " + pre("act_num,"));
+    out.println("                               " + pre("parser,"));
+    if (_value_stack) {
+      out.println("                               " + pre("values,"));
+      out.println("                               " + pre("lefts,"));
+      out.println("                               " + pre("rights,"));
+    } else
+      out.println("                               " + pre("stack,"));
+    out.println("                               " + pre("top);"));
+  }
+
   /**
    * Emit code for the non-public class holding the actual action code.
    * 
    * @param out        stream to produce output on.
    * @param start_prod the start production of the grammar.
    */
-  protected static void emit_action_code(PrintWriter out, production start_prod) throws internal_error {
+  protected void emit_action_code(PrintWriter out, production start_prod) throws internal_error {
     production prod;
 
     long start_time = System.currentTimeMillis();
@@ -408,19 +573,23 @@ public class emit {
     out.println("  }");
 
     out.println();
-    for (int instancecounter = 0; instancecounter <= production.number() / UPPERLIMIT; instancecounter++) {
+    for (int instancecounter = 0; instancecounter <= production.number(_context) / UPPERLIMIT; instancecounter++) {
       out.println("  /** Method " + instancecounter + " with the actual generated action code for actions "
           + (instancecounter * UPPERLIMIT) + " to " + ((instancecounter + 1) * UPPERLIMIT) + ". */");
-      out.println("  public final java_cup.runtime.Symbol " + pre("do_action_part")
+      if (_value_stack)
+        out.println("  @SuppressWarnings(\"unchecked\")");
+      out.println("  public final " + action_result_type() + " " + pre("do_action_part")
           + String.format("%08d", instancecounter) + "(");
-      out.println("    int                        " + pre("act_num,"));
-      out.println("    java_cup.runtime.lr_parser " + pre("parser,"));
-      out.println("    java_cup.runtime.ArrayStack<java_cup.runtime.Symbol>    " + pre("stack,"));
-      out.println("    int                        " + pre("top)"));
+      emit_action_params(out);
       out.println("    throws java.lang.Exception");
       out.println("    {");
-      out.println("      /* Symbol object for return from actions */");
-      out.println("      java_cup.runtime.Symbol " + pre("result") + ";");
+      if (_value_stack) {
+        out.println("      /* value of the left hand side for return from actions */");
+        out.println("      Object " + pre("result") + ";");
+      } else {
+        out.println("      /* Symbol object for return from actions */");
+        out.println("      java_cup.runtime.Symbol " + pre("result") + ";");
+      }
       out.println();
       out.println("      /* select the action based on the action number */");
       out.println("      switch (" + pre("act_num") + ")");
@@ -428,9 +597,9 @@ public class emit {
       // START Switch
       /* emit action code for each production as a separate case */
       int proditeration = instancecounter * UPPERLIMIT;
-      prod = production.find(proditeration);
+      prod = production.find(_context, proditeration);
       for (; proditeration < Math.min((instancecounter + 1) * UPPERLIMIT,
-          production.number()); prod = production.find(++proditeration)) {
+          production.number(_context)); prod = production.find(_context, ++proditeration)) {
         /* case label */
         out.println("          /*. . . . . . . . . . . . . . . . . . . .*/");
         out.println("          case " + prod.index() + ": // " + prod.to_simple_string());
@@ -445,8 +614,7 @@ public class emit {
         if (prod instanceof action_production) {
           int lastResult = ((action_production) prod).getIndexOfIntermediateResult();
           if (lastResult != -1) {
-            result = emit.pre("stack") +((lastResult == 1) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + (lastResult - 1) + ")"))
-                + ".<"+prod.lhs().the_symbol().stack_type()+">value()";
+            result = stack_value(prod.lhs().the_symbol().stack_type(), lastResult - 1);
           }
         }
 
@@ -478,17 +646,15 @@ public class emit {
           out.println("              " + "// propagate RESULT from " + s.name());
           // // look out, whether the intermediate result is null or not
           // out.println(" " + "if ( " +
-          // "((java_cup.runtime.Symbol) " + emit.pre("stack") +
+          // "((java_cup.runtime.Symbol) " + pre("stack") +
           // // TUM 20050917
-          // ((index==0)?".peek()":(".elementAt(" + emit.pre("top") + "-" + index + ")"))+
+          // ((index==0)?".peek()":(".elementAt(" + pre("top") + "-" + index + ")"))+
           // ").value != null )");
 
           // TUM 20060608: even when its null: who cares?
 
           // store the intermediate result into RESULT
-          out.println("                " + "RESULT = " + emit.pre("stack") +
-              ((index == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + index + ")")) + 
-              ".<"+prod.lhs().the_symbol().stack_type()+">value();");
+          out.println("                " + "RESULT = " + stack_value(prod.lhs().the_symbol().stack_type(), index) + ";");
           break;
         }
 
@@ -505,15 +671,18 @@ public class emit {
          * Create the code that assigns the left and right values of the new Symbol that
          * the production is reducing to
          */
-        if (emit.lr_values()) {
+        if (_value_stack) {
+          /* the runtime takes care of the positions */
+          out.println("              " + pre("result") + " = RESULT;");
+        } else if (lr_values()) {
           int loffset;
           String leftstring, rightstring;
-          rightstring = emit.pre("stack") + ".peek()" ;
+          rightstring = pre("stack") + ".peek()" ;
           if (prod.rhs_length() == 0)
             leftstring = rightstring;
           else {
             loffset = prod.rhs_length() - 1;
-            leftstring = emit.pre("stack") + ((loffset == 0) ? (".peek()") : (".elementAt(" + emit.pre("top") + "-" + loffset + ")"));
+            leftstring = pre("stack") + ((loffset == 0) ? (".peek()") : (".elementAt(" + pre("top") + "-" + loffset + ")"));
           }
           out.println("              " + pre("result") + " = parser.getSymbolFactory().newSymbol(" + "\""
               + prod.lhs().the_symbol().name() + "\"," + prod.lhs().the_symbol().index() + ", " + leftstring
@@ -551,20 +720,14 @@ public class emit {
     /* action method head */
     out.println();
     out.println("  /** Method splitting the generated action code into several parts. */");
-    out.println("  public final java_cup.runtime.Symbol " + pre("do_action") + "(");
-    out.println("    int                        " + pre("act_num,"));
-    out.println("    java_cup.runtime.lr_parser " + pre("parser,"));
-    out.println("    java_cup.runtime.ArrayStack<java_cup.runtime.Symbol>     " + pre("stack,"));
-    out.println("    int                        " + pre("top)"));
+    out.println("  public final " + action_result_type() + " " + pre("do_action") + "(");
+    emit_action_params(out);
     out.println("    throws java.lang.Exception");
     out.println("    {");
 
-    if (production.number() < UPPERLIMIT) { // Make it simple for the optimizer to inline!
+    if (production.number(_context) < UPPERLIMIT) { // Make it simple for the optimizer to inline!
       out.println("              return " + pre("do_action_part") + String.format("%08d", 0) + "(");
-      out.println("                               " + pre("act_num,"));
-      out.println("                               " + pre("parser,"));
-      out.println("                               " + pre("stack,"));
-      out.println("                               " + pre("top);"));
+      emit_action_args(out);
       out.println("    }");
 
       /* end of class */
@@ -581,17 +744,14 @@ public class emit {
     out.println("        {");
 
     /* emit action code for each production as a separate case */
-    for (int instancecounter = 0; instancecounter <= production.number() / UPPERLIMIT; instancecounter++) {
+    for (int instancecounter = 0; instancecounter <= production.number(_context) / UPPERLIMIT; instancecounter++) {
       /* case label */
       out.println("          /*. . . . . . . . " + (instancecounter * UPPERLIMIT) + " < #action < "
           + ((instancecounter + 1) * UPPERLIMIT) + ". . . . . . . . . . . .*/");
       out.println("          case " + instancecounter + ": ");
       out.println("              return " + pre("do_action_part")
           + String.format("%08d", instancecounter) + "(");
-      out.println("                               " + pre("act_num,"));
-      out.println("                               " + pre("parser,"));
-      out.println("                               " + pre("stack,"));
-      out.println("                               " + pre("top);"));
+      emit_action_args(out);
     }
 
     out.println("          /* . . . no valid action number: . . .*/");
@@ -617,38 +777,39 @@ public class emit {
    * 
    * @param out stream to produce output on.
    */
-  protected static void emit_production_table(PrintWriter out) {
+  protected void emit_production_table(PrintWriter out) {
     production[] all_prods;
 
     long start_time = System.currentTimeMillis();
 
     /* collect up the productions in order */
-    all_prods = new production[production.number()];
-    for (var prod:production.all()){
+    all_prods = new production[production.number(_context)];
+    for (var prod:production.all(_context)){
       all_prods[prod.index()] = prod;
     }
 
     // make short[][]
-    short[][] prod_table = new short[production.number()][2];
-    for (int i = 0; i < production.number(); i++) {
+    short[][] prod_table = new short[production.number(_context)][2];
+    for (int i = 0; i < production.number(_context); i++) {
       var prod = all_prods[i];
       // { lhs symbol , rhs size }
       prod_table[i][0] = (short) prod.lhs().the_symbol().index();
       prod_table[i][1] = (short) prod.rhs_length();
     }
     /* do the top of the table */
-    out.println();
-    out.println("  /** Production table. */");
-    out.println("  protected static final short _production_table[][] = ");
-    out.print("    unpackFromStrings(");
-    do_table_as_string(out, prod_table);
-    out.println(");");
+    PrintWriter decl = table_out(out);
+    decl.println();
+    decl.println("  /** Production table. */");
+    decl.println("  protected static final short _production_table[][] = ");
+    decl.print("    ");
+    do_table_init(decl, prod_table);
+    decl.println(";");
 
     /* do the public accessor method */
     out.println();
     out.println("  /** Access to production table. */");
     out.println("  @Override");
-    out.println("  public short[][] production_table() " + "{return _production_table;}");
+    out.println("  public short[][] production_table() " + "{return " + table_ref("_production_table") + ";}");
 
     production_table_time = System.currentTimeMillis() - start_time;
   }
@@ -662,7 +823,7 @@ public class emit {
    * @param act_tab         the internal representation of the action table.
    * @param compact_reduces do we use the most frequent reduce as default?
    */
-  protected static void do_action_table(PrintWriter out, parse_action_table act_tab, boolean compact_reduces)
+  protected short[][] do_action_table(PrintWriter out, parse_action_table act_tab, boolean compact_reduces)
       throws internal_error {
     parse_action_row row;
     parse_action act;
@@ -672,28 +833,43 @@ public class emit {
 
     /* collect values for the action table */
     short[][] action_table = new short[act_tab.num_states()][];
+    /* and the reduce actions of the consistent states */
+    short[] consistent = new short[act_tab.num_states()];
+    /* and the terminals every state has an action for */
+    short[][] expected = _expected_sets ? new short[act_tab.num_states()][(terminal.number(_context) + 15) / 16]
+        : null;
+    /* and a count per production, for the defaults of the rows */
+    int[] reduction_count = new int[production.number(_context)];
     /* do each state (row) of the action table */
     for (int i = 0; i < act_tab.num_states(); i++) {
       /* get the row */
       row = act_tab.under_state[i];
 
+      /* does the state have nothing to do but a single reduce? */
+      red = consistent_reduce(row);
+      if (red != -1)
+        consistent[i] = (short) -(red + 1);
+
       /* determine the default for the row */
       if (compact_reduces)
-        row.compute_default();
+        row.compute_default(reduction_count);
       else
         row.default_reduce = -1;
 
       /* make temporary table for the row. */
-      short[] temp_table = new short[2 * parse_action_row.size()];
+      short[] temp_table = new short[2 * terminal.number(_context)];
       int nentries = 0;
 
       /* do each column */
-      for (int j = 0; j < parse_action_row.size(); j++) {
+      for (int j = 0; j < terminal.number(_context); j++) {
         /* extract the action from the table */
         act = row.under_term[j];
 
         /* skip error entries these are all defaulted out */
         if (act.kind() != parse_action.ERROR) {
+          if (expected != null && act.kind() != parse_action.NONASSOC)
+            expected[i][j >> 4] |= 1 << (j & 15);
+
           /* first put in the symbol index, then the actual entry */
 
           /* shifts get positive entries of state number + 1 */
@@ -733,21 +909,153 @@ public class emit {
         action_table[i][nentries] = 0;
     }
 
-    /* finish off the init of the table */
-    out.println();
-    out.println("  /** Parse-action table. */");
-    out.println("  protected static final short[][] _action_table = ");
-    out.print("    unpackFromStrings(");
-    do_table_as_string(out, action_table);
-    out.println(");");
+    PrintWriter decl = table_out(out);
+    if (_lazy_lookahead) {
+      decl.println();
+      decl.println("  /** Reduce actions of the consistent states, taken without lookahead. */");
+      decl.println("  protected static final short[][] _consistent_table = ");
+      decl.print("    ");
+      do_table_init(decl, new short[][] { consistent });
+      decl.println(";");
+    }
 
-    /* do the public accessor method */
-    out.println();
-    out.println("  /** Access to parse-action table. */");
-    out.println("  @Override");
-    out.println("  public short[][] action_table() {return _action_table;}");
+    if (_expected_sets) {
+      decl.println();
+      decl.println("  /** Terminals every state has an action for, as bit sets for expected_token_ids(). */");
+      decl.println("  protected static final short[][] _expected_table = ");
+      decl.print("    ");
+      do_table_init(decl, expected);
+      decl.println(";");
+    }
+
+    if (_comb_tables) {
+      /* overlay the rows and emit the row-displacement form instead */
+      decl.println();
+      decl.println("  /** Parse-action table in row-displacement form. */");
+      decl.println("  protected static final java_cup.runtime.CombTable _action_comb = ");
+      decl.print("    new java_cup.runtime.CombTable(");
+      do_table_init(decl, comb_from_rows(action_table, terminal.number(_context)));
+      decl.println(");");
+
+      /* do the public accessor methods */
+      out.println();
+      out.println("  /** Access to parse-action table (rebuilt from the row-displacement form). */");
+      out.println("  @Override");
+      out.println("  public short[][] action_table() {return parse_tables().action_rows();}");
+      out.println();
+      out.println("  /** Access to row-displacement parse-action table. */");
+      out.println("  @Override");
+      out.println("  public java_cup.runtime.CombTable action_comb_table() {return " + table_ref("_action_comb") + ";}");
+    } else {
+      /* finish off the init of the table */
+      decl.println();
+      decl.println("  /** Parse-action table. */");
+      decl.println("  protected static final short[][] _action_table = ");
+      decl.print("    ");
+      do_table_init(decl, action_table);
+      decl.println(";");
+
+      /* do the public accessor method */
+      out.println();
+      out.println("  /** Access to parse-action table. */");
+      out.println("  @Override");
+      out.println("  public short[][] action_table() {return " + table_ref("_action_table") + ";}");
+    }
 
     action_table_time = System.currentTimeMillis() - start_time;
+    return action_table;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Determine whether a state is consistent, i.e. whether the only thing it can
+   * do (besides signaling an error) is to reduce by a single production. The
+   * parser can take that reduce without looking at the lookahead at all. On an
+   * erroneous lookahead this just delays the detection of the error to the
+   * state reached by the reduce, as with the defaults of <tt>-compact_red</tt>.
+   *
+   * @param row the action table row of the state.
+   * @return the index of the production to reduce by, or -1 if the state is not
+   *         consistent.
+   */
+  protected int consistent_reduce(parse_action_row row) {
+    int red = -1;
+    for (parse_action act : row.under_term) {
+      if (act.kind() == parse_action.ERROR)
+        continue;
+      /* shifts and nonassoc errors need the lookahead */
+      if (act.kind() != parse_action.REDUCE)
+        return -1;
+      int prod = ((reduce_action) act).reduce_with().index();
+      if (red != -1 && red != prod)
+        return -1;
+      red = prod;
+    }
+    return red;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Find the unit production a state reduces by if it is consistent (see
+   * consistent_reduce()) and the production has no action code. Such a
+   * reduction just turns the Symbol on top of the stack into one for the lhs of
+   * the production, with a null RESULT and the positions of the rhs.
+   *
+   * @param row the action table row of the state.
+   * @return the unit production, or null if the state does anything else.
+   */
+  protected production collapsible_unit(parse_action_row row) throws internal_error {
+    /* every production builds a tree node with -xmlactions */
+    if (_xmlactions)
+      return null;
+    int red = consistent_reduce(row);
+    if (red == -1)
+      return null;
+    production prod = production.find(_context, red);
+    if (prod == start_production || prod.rhs_length() != 1 || prod.has_action_code()
+        || !(prod.rhs(0) instanceof symbol_part))
+      return null;
+    /* the RESULT of an embedded action is propagated, see emit_action_code() */
+    symbol rhs = ((symbol_part) prod.rhs(0)).the_symbol();
+    if (!(rhs instanceof non_terminal) || ((non_terminal) rhs).is_embedded_action)
+      return null;
+    return prod;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Follow a goto through the chain of states that do nothing but reduce by a
+   * collapsible unit production, and return the state at the end of the chain.
+   * Every state of the chain is left through a goto from the same state the
+   * original goto starts in, since a unit reduction pops just the Symbol that
+   * was pushed by the goto.
+   *
+   * @param row     the reduce-goto row of the state the goto starts in.
+   * @param target  the state the goto leads to.
+   * @param act_tab the action table.
+   * @param lhs     records the lhs of the last unit production of a chain.
+   * @return the state the chain ends in.
+   */
+  protected lalr_state skip_unit_chain(parse_reduce_row row, lalr_state target, parse_action_table act_tab,
+      boolean[] lhs) throws internal_error {
+    int last = -1;
+    /* a cyclic grammar could chain forever, no chain is longer than that */
+    for (int n = 0; n < act_tab.num_states(); n++) {
+      production unit = collapsible_unit(act_tab.under_state[target.index()]);
+      if (unit == null)
+        break;
+      lalr_state next = row.under_non_term[unit.lhs().the_symbol().index()];
+      if (next == null)
+        break;
+      last = unit.lhs().the_symbol().index();
+      target = next;
+    }
+    if (last != -1)
+      lhs[last] = true;
+    return target;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -757,26 +1065,38 @@ public class emit {
    * 
    * @param out     stream to produce output on.
    * @param red_tab the internal representation of the reduce-goto table.
+   * @param act_tab the internal representation of the action table.
    */
-  protected static void do_reduce_table(PrintWriter out, parse_reduce_table red_tab) {
+  protected short[][] do_reduce_table(PrintWriter out, parse_reduce_table red_tab,
+      parse_action_table act_tab) throws internal_error {
     lalr_state goto_st;
 
     long start_time = System.currentTimeMillis();
 
+    /* the symbol every state is entered on, -1 for terminals */
+    short[] entry_syms = new short[red_tab.num_states()];
+    Arrays.fill(entry_syms, (short) -1);
+    /* the non terminals that chains of unit reductions end in */
+    boolean[] unit_lhs = new boolean[non_terminal.number(_context)];
+
     /* collect values for reduce-goto table */
     short[][] reduce_goto_table = new short[red_tab.num_states()][];
     /* do each row of the reduce-goto table */
     for (int i = 0; i < red_tab.num_states(); i++) {
       /* make temporary table for the row. */
-      short[] temp_table = new short[2 * parse_reduce_row.size()];
+      short[] temp_table = new short[2 * non_terminal.number(_context)];
       int nentries = 0;
       /* do each entry in the row */
-      for (int j = 0; j < parse_reduce_row.size(); j++) {
+      for (int j = 0; j < non_terminal.number(_context); j++) {
         /* get the entry */
         goto_st = red_tab.under_state[i].under_non_term[j];
 
         /* if we have none, skip it */
         if (goto_st != null) {
+          entry_syms[goto_st.index()] = (short) j;
+          if (_collapse_units)
+            goto_st = skip_unit_chain(red_tab.under_state[i], goto_st, act_tab, unit_lhs);
+
           /* make entries for the index and the value */
           temp_table[nentries++] = (short) j;
           temp_table[nentries++] = (short) goto_st.index();
@@ -791,26 +1111,383 @@ public class emit {
       reduce_goto_table[i][nentries] = -1;
     }
 
-    /* emit the table. */
+    PrintWriter decl = table_out(out);
+    if (_collapse_units) {
+      decl.println();
+      decl.println("  /** Symbol every state is entered on, which tells collapsed unit reductions. */");
+      decl.println("  protected static final short[][] _entry_table = ");
+      decl.print("    ");
+      do_table_init(decl, new short[][] { entry_syms });
+      decl.println(";");
+
+      out.println();
+      out.println("  /** Create the Symbol of a non terminal reached by collapsed unit reductions. */");
+      out.println("  @Override");
+      out.println("  public java_cup.runtime.Symbol unit_symbol(int lhs, java_cup.runtime.Symbol rhs) {");
+      out.println("    switch (lhs) {");
+      for (int j = 0; j < unit_lhs.length; j++) {
+        if (!unit_lhs[j])
+          continue;
+        /* the same Symbol the action code of the production would create */
+        String name = non_terminal.find(_context, j).name();
+        if (lr_values())
+          out.println("      case " + j + ": return getSymbolFactory().newSymbol(\"" + name + "\", " + j
+              + ", rhs, rhs, null);");
+        else
+          out.println("      case " + j + ": return getSymbolFactory().newSymbol(\"" + name + "\", " + j
+              + ", null);");
+      }
+      out.println("      default: return super.unit_symbol(lhs, rhs);");
+      out.println("    }");
+      out.println("  }");
+    }
+
+    if (_comb_tables) {
+      /* overlay the rows and emit the row-displacement form instead */
+      decl.println();
+      decl.println("  /** <code>reduce_goto</code> table in row-displacement form. */");
+      decl.println("  protected static final java_cup.runtime.CombTable _reduce_comb = ");
+      decl.print("    new java_cup.runtime.CombTable(");
+      do_table_init(decl, comb_from_rows(reduce_goto_table, non_terminal.number(_context)));
+      decl.println(");");
+
+      /* do the public accessor methods */
+      out.println();
+      out.println("  /** Access to <code>reduce_goto</code> table (rebuilt from the row-displacement form). */");
+      out.println("  @Override");
+      out.println("  public short[][] reduce_table() {return parse_tables().reduce_rows();}");
+      out.println();
+      out.println("  /** Access to row-displacement <code>reduce_goto</code> table. */");
+      out.println("  @Override");
+      out.println("  public java_cup.runtime.CombTable reduce_comb_table() {return " + table_ref("_reduce_comb") + ";}");
+      out.println();
+    } else {
+      /* emit the table. */
+      decl.println();
+      decl.println("  /** <code>reduce_goto</code> table. */");
+      decl.println("  protected static final short[][] _reduce_table = ");
+      decl.print("    ");
+      do_table_init(decl, reduce_goto_table);
+      decl.println(";");
+
+      /* do the public accessor method */
+      out.println();
+      out.println("  /** Access to <code>reduce_goto</code> table. */");
+      out.println("  @Override");
+      out.println("  public short[][] reduce_table() {return " + table_ref("_reduce_table") + ";}");
+      out.println();
+    }
+
+    goto_table_time = System.currentTimeMillis() - start_time;
+    return reduce_goto_table;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Emit the directly coded parse loop. Every state becomes a method that
+   * switches over the lookahead and shifts or reduces right there, and every
+   * non terminal a method that switches over the state uncovered by a reduce to
+   * find its goto. The runtime calls the loop from parse() and falls back to the
+   * tables only to recover from errors, so the code is generated from the same
+   * rows as the tables and behaves exactly like them.
+   *
+   * @param out         stream to produce output on.
+   * @param act_tab     the internal representation of the action table.
+   * @param action_rows the rows of the action table, as emitted.
+   * @param goto_rows   the rows of the reduce-goto table, as emitted.
+   */
+  protected void emit_direct_parse(PrintWriter out, parse_action_table act_tab, short[][] action_rows,
+      short[][] goto_rows) throws internal_error {
+    long start_time = System.currentTimeMillis();
+
+    out.println("  /** Indicates that the parse loop is coded directly. */");
+    out.println("  @Override");
+    out.println("  public boolean uses_direct_code() {return true;}");
     out.println();
-    out.println("  /** <code>reduce_goto</code> table. */");
-    out.println("  protected static final short[][] _reduce_table = ");
-    out.print("    unpackFromStrings(");
-    do_table_as_string(out, reduce_goto_table);
-    out.println(");");
+
+    /* the dispatch over the states */
+    out.println("  /** Directly coded parse loop. */");
+    out.println("  @Override");
+    out.println("  protected boolean direct_parse() throws java.lang.Exception {");
+    out.println("    int state = stack.peek().parse_state;");
+    out.println("    while (!_done_parsing) {");
+    out.println("      switch (state) {");
+    for (int i = 0; i < action_rows.length; i++)
+      out.println("        case " + i + ": state = " + pre("state_" + i) + "(); break;");
+    out.println("        default: return false;");
+    out.println("      }");
+    out.println("    }");
+    out.println("    return true;");
+    out.println("  }");
+    out.println();
+
+    /* one method for every state */
+    for (int i = 0; i < action_rows.length; i++) {
+      short[] row = action_rows[i];
+      out.println("  /** State " + i + ". */");
+      out.println("  private int " + pre("state_" + i) + "() throws java.lang.Exception {");
+
+      /* consistent states don't look at the lookahead, see do_action_table() */
+      int red = _lazy_lookahead ? consistent_reduce(act_tab.under_state[i]) : -1;
+      if (red != -1) {
+        out.println("    return " + direct_action((short) -(red + 1)) + ";");
+        out.println("  }");
+        out.println();
+        continue;
+      }
+
+      /* group the lookaheads by their action */
+      Map<Short, List<Short>> cases = new LinkedHashMap<>();
+      int probe;
+      for (probe = 0; row[probe] != -1; probe += 2)
+        cases.computeIfAbsent(row[probe + 1], a -> new ArrayList<>()).add(row[probe]);
+      out.println("    switch (direct_lookahead()) {");
+      for (Map.Entry<Short, List<Short>> c : cases.entrySet()) {
+        for (short sym : c.getValue())
+          out.println("      case " + sym + ":");
+        out.println("        return " + direct_action(c.getKey()) + ";");
+      }
+      out.println("      default:");
+      out.println("        return " + direct_action(row[probe + 1]) + ";");
+      out.println("    }");
+      out.println("  }");
+      out.println();
+    }
+
+    /* one method for the gotos of every non terminal */
+    boolean[] reduced = new boolean[non_terminal.number(_context)];
+    for (production prod : production.all(_context))
+      reduced[prod.lhs().the_symbol().index()] = true;
+    int start_lhs = start_production.lhs().the_symbol().index();
+    for (int nt = 0; nt < reduced.length; nt++) {
+      if (!reduced[nt])
+        continue;
+
+      /* collect the gotos on the non terminal, grouped by target */
+      Map<Short, List<Integer>> cases = new LinkedHashMap<>();
+      for (int i = 0; i < goto_rows.length; i++)
+        for (int probe = 0; goto_rows[i][probe] != -1; probe += 2)
+          if (goto_rows[i][probe] == nt)
+            cases.computeIfAbsent(goto_rows[i][probe + 1], t -> new ArrayList<>()).add(i);
+
+      /*
+       * the most common target is the default, since any other state never
+       * occurs; the start production has no goto but the one for accept
+       */
+      short deflt = -1;
+      if (nt != start_lhs) {
+        int most = 0;
+        for (Map.Entry<Short, List<Integer>> c : cases.entrySet())
+          if (c.getValue().size() > most) {
+            most = c.getValue().size();
+            deflt = c.getKey();
+          }
+        cases.remove(deflt);
+      }
+
+      out.println("  /** Gotos on non terminal " + nt + ". */");
+      out.println("  private static int " + pre("goto_" + nt) + "(int state) {");
+      if (cases.isEmpty()) {
+        out.println("    return " + deflt + ";");
+      } else {
+        out.println("    switch (state) {");
+        for (Map.Entry<Short, List<Integer>> c : cases.entrySet()) {
+          for (int state : c.getValue())
+            out.println("      case " + state + ":");
+          out.println("        return " + c.getKey() + ";");
+        }
+        out.println("      default:");
+        out.println("        return " + deflt + ";");
+        out.println("    }");
+      }
+      out.println("  }");
+      out.println();
+    }
+
+    direct_time = System.currentTimeMillis() - start_time;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Produce the code taking an action of the directly coded parse loop. It
+   * evaluates to the state the parser moves to, or -1 on a syntax error.
+   *
+   * @param act the action, encoded as in the action table.
+   */
+  protected String direct_action(short act) throws internal_error {
+    if (act > 0)
+      return "direct_shift(" + (act - 1) + ")";
+    if (act == 0)
+      return "-1";
+    production prod = production.find(_context, -act - 1);
+    int lhs = prod.lhs().the_symbol().index();
+    return "direct_goto(" + lhs + ", " + pre("goto_" + lhs) + "(direct_reduce(" + prod.index() + ", "
+        + prod.rhs_length() + ")))";
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Emit the parse tables object shared by all instances of the parser. It is
+   * registered for the parser class and handed to the runtime through
+   * parse_tables(), so the individual tables are only collected once. When the
+   * tables come from a table resource, they are declared in a nested holder
+   * class, so the resource is only read when the first parse asks for them, not
+   * when the parser class is initialized.
+   *
+   * @param out stream to produce output on.
+   */
+  protected void emit_parse_tables(PrintWriter out) {
+    PrintWriter decl = table_out(out);
+    if (_table_resource)
+      decl.println();
+    decl.println("  /** Parse tables shared by all instances of this parser. */");
+    decl.println("  protected static final java_cup.runtime.ParseTables _parse_tables = ");
+    decl.println("    java_cup.runtime.ParseTables.register(" + parser_class_name
+        + ".class, new java_cup.runtime.ParseTables.Builder()");
+    decl.println("      .production_table(_production_table)");
+    if (_comb_tables) {
+      decl.println("      .action_comb_table(_action_comb)");
+      decl.println("      .reduce_comb_table(_reduce_comb)");
+    } else {
+      decl.println("      .action_table(_action_table)");
+      decl.println("      .reduce_table(_reduce_table)");
+    }
+    if (_lazy_lookahead)
+      decl.println("      .consistent_reduces(_consistent_table[0])");
+    if (_collapse_units)
+      decl.println("      .entry_symbols(_entry_table[0])");
+    if (_expected_sets)
+      decl.println("      .expected_terminals(_expected_table)");
+    decl.println("      .build());");
+
+    if (_table_resource) {
+      out.println("  /** Tables of the parser, read from its table resource on first use. */");
+      out.println("  protected static final class " + pre("tables") + " {");
+      /* the declarations, indented one more level */
+      for (String line : table_fields.toString().split("\\R"))
+        out.println(line.isEmpty() ? line : "  " + line);
+      out.println("  }");
+    }
 
     /* do the public accessor method */
     out.println();
-    out.println("  /** Access to <code>reduce_goto</code> table. */");
+    out.println("  /** Access to the shared parse tables. */");
     out.println("  @Override");
-    out.println("  public short[][] reduce_table() {return _reduce_table;}");
+    out.println("  public java_cup.runtime.ParseTables parse_tables() {return " + table_ref("_parse_tables") + ";}");
     out.println();
+  }
 
-    goto_table_time = System.currentTimeMillis() - start_time;
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Overlay the rows of a parse table into row-displacement ("comb") form. The
+   * rows are given in the usual compacted form (index, value pairs terminated by
+   * a -1 tagged default entry). Rows are placed densest first, each at the
+   * lowest base offset where all of its entries land in free slots. The result
+   * is in the packed form read by <code>java_cup.runtime.CombTable</code>.
+   *
+   * @param rows  the compacted rows of the table, one per state.
+   * @param width the number of columns (symbols) of the table.
+   */
+  protected short[][] comb_from_rows(short[][] rows, int width) {
+    int nstates = rows.length;
+
+    /* place the rows with the most entries first, they are the hardest to fit */
+    Integer[] order = new Integer[nstates];
+    for (int i = 0; i < nstates; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> rows[b].length - rows[a].length);
+
+    int[] base = new int[nstates];
+    short[] deflt = new short[nstates];
+    short[] check = new short[2 * width];
+    short[] next = new short[2 * width];
+    Arrays.fill(check, (short) -1);
+    int first_free = 0, size = width;
+
+    for (int state : order) {
+      short[] row = rows[state];
+      int nentries = row.length - 2;
+      deflt[state] = row[nentries + 1];
+      if (nentries == 0)
+        continue;
+
+      /* find the first base where every entry of the row hits a free slot */
+      int b = Math.max(0, first_free - row[0]);
+      for (;; b++) {
+        if (b + width > check.length) {
+          int old_len = check.length;
+          check = Arrays.copyOf(check, Math.max(2 * old_len, b + width));
+          next = Arrays.copyOf(next, check.length);
+          Arrays.fill(check, old_len, check.length, (short) -1);
+        }
+        boolean fits = true;
+        for (int k = 0; k < nentries && fits; k += 2)
+          fits = check[b + row[k]] == -1;
+        if (fits)
+          break;
+      }
+
+      /* claim the slots */
+      base[state] = b;
+      for (int k = 0; k < nentries; k += 2) {
+        check[b + row[k]] = (short) state;
+        next[b + row[k]] = row[k + 1];
+      }
+      size = Math.max(size, b + width);
+      while (first_free < check.length && check[first_free] != -1)
+        first_free++;
+    }
+
+    /* split the bases into 16 bit halves so they survive the string encoding */
+    short[] hi = new short[nstates], lo = new short[nstates];
+    for (int i = 0; i < nstates; i++) {
+      hi[i] = (short) (base[i] >> 16);
+      lo[i] = (short) base[i];
+    }
+    return new short[][] { hi, lo, deflt, Arrays.copyOf(check, size), Arrays.copyOf(next, size),
+        { (short) width } };
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Emit the initializer expression of a table. The table is either packed into
+   * string literals right here, or (with a table resource) queued for
+   * table_resource() and fetched from the resource by the parser at runtime.
+   *
+   * @param out   stream to produce output on.
+   * @param table the table to emit.
+   */
+  protected void do_table_init(PrintWriter out, short[][] table) {
+    if (_table_resource) {
+      out.print("java_cup.runtime.TableResource.tables(" + parser_class_name + ".class)[" + resource_tables.size()
+          + "]");
+      resource_tables.add(table);
+    } else {
+      out.print("unpackFromStrings(");
+      do_table_as_string(out, table);
+      out.print(")");
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Write the binary table resource holding the tables queued while emitting the
+   * parser (see the <tt>-table_resource</tt> option).
+   *
+   * @param out stream to write the resource to.
+   */
+  public void table_resource(OutputStream out) throws IOException {
+    TableResource.write(out, resource_tables);
   }
 
   // print a string array encoding the given short[][] array.
-  protected static void do_table_as_string(PrintWriter out, short[][] sa) {
+  protected void do_table_as_string(PrintWriter out, short[][] sa) {
     out.println("new String[] {");
     out.print("    \"");
     int nchar = 0, nbytes = 0;
@@ -834,7 +1511,7 @@ public class emit {
   }
 
   // split string if it is very long; start new line occasionally for neatness
-  protected static int do_newline(PrintWriter out, int nchar, int nbytes) {
+  protected int do_newline(PrintWriter out, int nchar, int nbytes) {
     if (nbytes > 65500) {
       out.println("\", ");
       out.print("    \"");
@@ -847,7 +1524,7 @@ public class emit {
   }
 
   // output an escape sequence for the given character code.
-  protected static int do_escaped(PrintWriter out, char c) {
+  protected int do_escaped(PrintWriter out, char c) {
     StringBuilder escape = new StringBuilder();
     if (c <= 0xFF) {
       escape.append(Integer.toOctalString(c));
@@ -885,7 +1562,7 @@ public class emit {
    * @param compact_reduces  do we use most frequent reduce as default?
    * @param suppress_scanner should scanner be suppressed for compatibility?
    */
-  public static void parser(PrintWriter out, parse_action_table action_table, parse_reduce_table reduce_table,
+  public void parser(PrintWriter out, parse_action_table action_table, parse_reduce_table reduce_table,
       int start_st, production start_prod, boolean compact_reduces, boolean suppress_scanner) throws internal_error {
     long start_time = System.currentTimeMillis();
 
@@ -938,8 +1615,18 @@ public class emit {
 
     /* emit the various tables */
     emit_production_table(out);
-    do_action_table(out, action_table, compact_reduces);
-    do_reduce_table(out, reduce_table);
+    short[][] action_rows = do_action_table(out, action_table, compact_reduces);
+    short[][] goto_rows = do_reduce_table(out, reduce_table, action_table);
+    emit_parse_tables(out);
+
+    /* the tables stay around for error recovery */
+    if (_direct_code) {
+      if (action_rows.length <= _direct_limit)
+        emit_direct_parse(out, action_table, action_rows, goto_rows);
+      else
+        _context.error_manager().emit_warning("The parser has " + action_rows.length
+            + " states, more than the -direct_limit of " + _direct_limit + ", emitting a table driven parser");
+    }
 
     /* instance of the action encapsulation class */
     out.println("  /** Instance of action encapsulation class. */");
@@ -966,11 +1653,38 @@ public class emit {
     out.println("    int                        top)");
     out.println("    throws java.lang.Exception");
     out.println("  {");
-    out.println("    /* call code in generated class */");
-    out.println("    return action_obj." + pre("do_action(") + "act_num, parser, stack, top);");
+    if (_value_stack) {
+      out.println("    /* run the value stack action on a copy of the Symbol stack */");
+      out.println("    return do_action_on_values(act_num, stack, top);");
+    } else {
+      out.println("    /* call code in generated class */");
+      out.println("    return action_obj." + pre("do_action(") + "act_num, parser, stack, top);");
+    }
     out.println("  }");
     out.println("");
 
+    if (_value_stack) {
+      out.println("  /** Invoke a user supplied parse action on the value stack. */");
+      out.println("  @Override");
+      out.println("  public Object do_value_action(");
+      out.println("    int                        act_num,");
+      out.println("    java_cup.runtime.lr_parser parser,");
+      out.println("    Object[]                   values,");
+      out.println("    int[]                      lefts,");
+      out.println("    int[]                      rights,");
+      out.println("    int                        top)");
+      out.println("    throws java.lang.Exception");
+      out.println("  {");
+      out.println("    /* call code in generated class */");
+      out.println("    return action_obj." + pre("do_action(") + "act_num, parser, values, lefts, rights, top);");
+      out.println("  }");
+      out.println("");
+      out.println("  /** Indicates that the actions work on the value stack. */");
+      out.println("  @Override");
+      out.println("  public boolean uses_value_stack() {return true;}");
+      out.println("");
+    }
+
     /* method to tell the parser about the start state */
     out.println("  /** Indicates start state. */");
     out.println("  @Override");
@@ -985,11 +1699,11 @@ public class emit {
     /* methods to indicate EOF and error symbol indexes */
     out.println("  /** <code>EOF</code> Symbol index. */");
     out.println("  @Override");
-    out.println("  public int EOF_sym() {return " + terminal.EOF.index() + ";}");
+    out.println("  public int EOF_sym() {return " + _context.EOF().index() + ";}");
     out.println();
     out.println("  /** <code>error</code> Symbol index. */");
     out.println("  @Override");
-    out.println("  public int error_sym() {return " + terminal.error.index() + ";}");
+    out.println("  public int error_sym() {return " + _context.error().index() + ";}");
     out.println();
 
     /* user supplied code for user_init() */
@@ -1038,7 +1752,7 @@ public class emit {
    * @param out        stream to produce output on.
    * @param start_prod the start production of the grammar.
    */
-  protected static void emit_xmlaction_code(PrintWriter out, production start_prod) throws internal_error {
+  protected void emit_xmlaction_code(PrintWriter out, production start_prod) throws internal_error {
     production prod;
 
     long start_time = System.currentTimeMillis();
@@ -1064,7 +1778,7 @@ public class emit {
     out.println("  }");
 
     out.println();
-    for (int instancecounter = 0; instancecounter <= production.number() / UPPERLIMIT; instancecounter++) {
+    for (int instancecounter = 0; instancecounter <= production.number(_context) / UPPERLIMIT; instancecounter++) {
       out.println("  /** Method " + instancecounter + " with the actual generated action code for actions "
           + (instancecounter * UPPERLIMIT) + " to " + ((instancecounter + 1) * UPPERLIMIT) + ". */");
       out.println("  public final java_cup.runtime.Symbol " + pre("do_action_part")
@@ -1084,9 +1798,9 @@ public class emit {
       // START Switch
       /* emit action code for each production as a separate case */
       int proditeration = instancecounter * UPPERLIMIT;
-      prod = production.find(proditeration);
+      prod = production.find(_context, proditeration);
       for (; proditeration < Math.min((instancecounter + 1) * UPPERLIMIT,
-          production.number()); prod = production.find(++proditeration)) {
+          production.number(_context)); prod = production.find(_context, ++proditeration)) {
         /* case label */
         out.println("          /*. . . . . . . . . . . . . . . . . . . .*/");
         out.println("          case " + prod.index() + ": // " + prod.to_simple_string());
@@ -1128,7 +1842,7 @@ public class emit {
         // determine the variant:
         int variant = 0;
         for (int i = 0; i < proditeration; i++)
-          if (production.find(i).lhs().equals(prod.lhs()))
+          if (production.find(_context, i).lhs().equals(prod.lhs()))
             variant++;
 
         String lhsname = prod.lhs().the_symbol().name().replace('$', '_');
@@ -1139,16 +1853,16 @@ public class emit {
          * Create the code that assigns the left and right values of the new Symbol that
          * the production is reducing to
          */
-        if (emit.lr_values()) {
+        if (lr_values()) {
           int loffset;
           String leftstring, rightstring;
-          rightstring = emit.pre("stack") + ".peek()";
+          rightstring = pre("stack") + ".peek()";
           if (prod.rhs_length() == 0)
             leftstring = rightstring;
           else {
             loffset = prod.rhs_length() - 1;
-            leftstring = emit.pre("stack")
-                + ((loffset == 0) ? (".peek()") : (".elementAt(" + emit.pre("top") + "-" + loffset + ")"));
+            leftstring = pre("stack")
+                + ((loffset == 0) ? (".peek()") : (".elementAt(" + pre("top") + "-" + loffset + ")"));
           }
           out.println("              " + pre("result") + " = parser.getSymbolFactory().newSymbol(" + "\""
               + prod.lhs().the_symbol().name() + "\"," + prod.lhs().the_symbol().index() + ", " + leftstring + ", "
@@ -1194,7 +1908,7 @@ public class emit {
     out.println("    throws java.lang.Exception");
     out.println("    {");
 
-    if (production.number() < UPPERLIMIT) { // Make it simple for the optimizer to inline!
+    if (production.number(_context) < UPPERLIMIT) { // Make it simple for the optimizer to inline!
       out.println("              return " + pre("do_action_part") + String.format("%08d", 0) + "(");
       out.println("                               " + pre("act_num,"));
       out.println("                               " + pre("parser,"));
@@ -1216,7 +1930,7 @@ public class emit {
     out.println("        {");
 
     /* emit action code for each production as a separate case */
-    for (int instancecounter = 0; instancecounter <= production.number() / UPPERLIMIT; instancecounter++) {
+    for (int instancecounter = 0; instancecounter <= production.number(_context) / UPPERLIMIT; instancecounter++) {
       /* case label */
       out.println("          /*. . . . . . . . " + (instancecounter * UPPERLIMIT) + " < #action < "
           + ((instancecounter + 1) * UPPERLIMIT) + ". . . . . . . . . . . .*/");
@@ -0,0 +1,321 @@
+package java_cup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An on-disk cache of the parse tables built for a grammar, so that a grammar
+ * whose tables were built before is turned into a parser without building its
+ * state machine again. An entry holds what emit needs of the machine -- the
+ * number of states, the start state and the action and reduce-goto tables --
+ * and the conflicts reported while filling in the tables.
+ * <p>
+ *
+ * Entries are kept in a directory, in a file named after a hash of the grammar
+ * with the action code left out: the symbols with their indexes and
+ * precedences, and the productions with their right hand sides and
+ * precedences. Changes to the action code, to the code parts of the
+ * specification or to the types of symbols leave the hash and the tables as
+ * they were; any other change to the grammar, or a new version of CUP, gets an
+ * entry of its own. The options only matter through the grammar they produce.
+ * <p>
+ *
+ * Restored states have no items, so they can't be dumped with -dump_states.
+ *
+ * @see java_cup.Main#build_parser
+ */
+public class generation_cache {
+
+  /*-----------------------------------------------------------*/
+  /*--- Constructor(s) ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Constructor for the entry of the grammar of a context. All of the symbols
+   * and productions must have been created.
+   *
+   * @param context the context of the grammar.
+   * @param dir     the directory the entries are kept in.
+   */
+  public generation_cache(GeneratorContext context, File dir) throws internal_error {
+    _context = context;
+    _key = grammar_key();
+    _file = new File(dir, _key + SUFFIX);
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- (Access to) Static (Class) Variables ------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** The suffix of the files of the entries. */
+  public static final String SUFFIX = ".cupcache";
+
+  /** The first int of an entry, changed with the layout of entries. */
+  protected static final int MAGIC = 0x43555001;
+
+  /*-----------------------------------------------------------*/
+  /*--- (Access to) Instance Variables ------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** The context of the grammar. */
+  protected final GeneratorContext _context;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The hash of the grammar, in hex. */
+  protected final String _key;
+
+  /** The hash of the grammar, in hex. */
+  public String key() {
+    return _key;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The file of the entry. */
+  protected final File _file;
+
+  /** The file of the entry. */
+  public File file() {
+    return _file;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The start state restored. */
+  protected lalr_state _start_state;
+
+  /** The start state restored. */
+  public lalr_state start_state() {
+    return _start_state;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The action table restored. */
+  protected parse_action_table _action_table;
+
+  /** The action table restored. */
+  public parse_action_table action_table() {
+    return _action_table;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The reduce-goto table restored. */
+  protected parse_reduce_table _reduce_table;
+
+  /** The reduce-goto table restored. */
+  public parse_reduce_table reduce_table() {
+    return _reduce_table;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The conflict messages restored, in the order they were reported. */
+  protected List<String> _conflicts;
+
+  /** The conflict messages restored, in the order they were reported. */
+  public List<String> conflicts() {
+    return _conflicts;
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- General Methods ---------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Restore the states and tables of the entry, if there is one. The states are
+   * created (without items) in the order of their indexes, so there must not be
+   * any yet.
+   *
+   * @return false if there is no entry, or it can't be read.
+   */
+  public boolean restore() throws internal_error {
+    if (!_file.isFile())
+      return false;
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(_file.toPath())))) {
+      if (in.readInt() != MAGIC || !in.readUTF().equals(_key))
+        return false;
+      int num_states = in.readInt();
+      int start = in.readInt();
+      if (in.readInt() != terminal.number(_context) || in.readInt() != non_terminal.number(_context)
+          || in.readInt() != production.number(_context) || start < 0 || start >= num_states || lalr_state.number(_context) != 0)
+        return false;
+
+      /* the states, then the tables to fill in */
+      var states = new lalr_state[num_states];
+      for (int i = 0; i < num_states; i++)
+        states[i] = new lalr_state(_context, new lalr_item_set());
+      var act = new parse_action_table(_context);
+      var red = new parse_reduce_table(_context);
+
+      var nonassoc = new nonassoc_action();
+      for (int st = 0; st < num_states; st++) {
+        var row = act.under_state[st].under_term;
+        for (int n = in.readInt(); n > 0; n--) {
+          int term = in.readInt();
+          int kind = in.readByte();
+          int target = in.readInt();
+          if (kind == parse_action.SHIFT)
+            row[term] = new shift_action(states[target]);
+          else if (kind == parse_action.REDUCE)
+            row[term] = new reduce_action(production.find(_context, target));
+          else
+            row[term] = nonassoc;
+        }
+      }
+      for (int st = 0; st < num_states; st++) {
+        var row = red.under_state[st].under_non_term;
+        for (int n = in.readInt(); n > 0; n--) {
+          int nt = in.readInt();
+          row[nt] = states[in.readInt()];
+        }
+      }
+
+      var conflicts = new ArrayList<String>();
+      for (int n = in.readInt(); n > 0; n--)
+        conflicts.add(in.readUTF());
+
+      _start_state = states[start];
+      _action_table = act;
+      _reduce_table = red;
+      _conflicts = conflicts;
+      return true;
+    } catch (IOException | RuntimeException e) {
+      /* a damaged entry: forget the states and build them again */
+      lalr_state.clear(_context);
+      return false;
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Store the states and tables of the current grammar as its entry. The file
+   * is written under another name first and then renamed, so that concurrent
+   * runs never see half an entry.
+   *
+   * @param start     the start state.
+   * @param act       the action table.
+   * @param red       the reduce-goto table.
+   * @param conflicts the conflict messages reported while filling the tables.
+   */
+  public void store(lalr_state start, parse_action_table act, parse_reduce_table red, List<String> conflicts)
+      throws IOException {
+    File dir = _file.getAbsoluteFile().getParentFile();
+    dir.mkdirs();
+    File tmp = File.createTempFile(_key, ".tmp", dir);
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+        out.writeInt(MAGIC);
+        out.writeUTF(_key);
+        out.writeInt(act.num_states());
+        out.writeInt(start.index());
+        out.writeInt(terminal.number(_context));
+        out.writeInt(non_terminal.number(_context));
+        out.writeInt(production.number(_context));
+
+        for (var row : act.under_state) {
+          int n = 0;
+          for (var a : row.under_term)
+            if (a.kind() != parse_action.ERROR)
+              n++;
+          out.writeInt(n);
+          for (int term = 0; term < row.under_term.length; term++) {
+            var a = row.under_term[term];
+            if (a.kind() == parse_action.ERROR)
+              continue;
+            out.writeInt(term);
+            out.writeByte(a.kind());
+            if (a.kind() == parse_action.SHIFT)
+              out.writeInt(((shift_action) a).shift_to().index());
+            else if (a.kind() == parse_action.REDUCE)
+              out.writeInt(((reduce_action) a).reduce_with().index());
+            else
+              out.writeInt(-1);
+          }
+        }
+        for (var row : red.under_state) {
+          int n = 0;
+          for (var st : row.under_non_term)
+            if (st != null)
+              n++;
+          out.writeInt(n);
+          for (int nt = 0; nt < row.under_non_term.length; nt++)
+            if (row.under_non_term[nt] != null) {
+              out.writeInt(nt);
+              out.writeInt(row.under_non_term[nt].index());
+            }
+        }
+
+        out.writeInt(conflicts.size());
+        for (var c : conflicts)
+          out.writeUTF(c);
+      }
+      try {
+        Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Compute the hash of the grammar, leaving out its action code.
+   *
+   * @return the SHA-256 hash of the grammar, in hex.
+   */
+  protected String grammar_key() throws internal_error {
+    var text = new StringBuilder();
+    text.append(version.title_str).append('\n');
+    text.append(MAGIC).append('\n');
+
+    for (int i = 0; i < terminal.number(_context); i++) {
+      var term = terminal.find(_context, i);
+      text.append("terminal ").append(i).append(' ').append(term.name()).append(' ');
+      text.append(term.precedence_num()).append(' ').append(term.precedence_side()).append('\n');
+    }
+    for (int i = 0; i < non_terminal.number(_context); i++)
+      text.append("non terminal ").append(i).append(' ').append(non_terminal.find(_context, i).name()).append('\n');
+    for (int i = 0; i < production.number(_context); i++) {
+      var prod = production.find(_context, i);
+      text.append("production ").append(i).append(' ').append(prod.lhs().the_symbol().name()).append(" ::=");
+      for (int pos = 0; pos < prod.rhs_length(); pos++) {
+        var part = prod.rhs(pos);
+        if (!part.is_action())
+          text.append(' ').append(((symbol_part) part).the_symbol().name());
+      }
+      text.append(" %prec ").append(prod.precedence_num()).append(' ').append(prod.precedence_side()).append('\n');
+    }
+    text.append("start ").append(_context.emit().start_production.index()).append('\n');
+
+    try {
+      var hash = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+      var hex = new StringBuilder();
+      for (byte b : hash)
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new internal_error("No SHA-256 to hash the grammar with: " + e.getMessage());
+    }
+  }
+
+  /*-----------------------------------------------------------*/
+}
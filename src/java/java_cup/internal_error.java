@@ -12,11 +12,10 @@ public class internal_error extends Exception {
 
   /**
    * Method called to do a forced error exit on an internal error for cases when
-   * we can't actually throw the exception.
+   * we can't actually throw the exception. The run reports the error as it
+   * ends (see Main.run()).
    */
   public void crash() {
-    ErrorManager.getManager().emit_fatal("JavaCUP Internal Error Detected: " + getMessage());
-    printStackTrace();
-    System.exit(-1);
+    throw new Main.abort(-1, this);
   }
 }
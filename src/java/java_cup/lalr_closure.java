@@ -0,0 +1,173 @@
+package java_cup;
+
+import java_cup.runtime.ArrayStack;
+
+/**
+ * Computes the closure of the kernels of LALR states, using the closure rules
+ * described at lalr_item_set.compute_closure(). What an item adds to a closure
+ * -- the lookahead it hands to the productions of the non terminal after its
+ * dot, and whether its own lookahead is propagated to them -- only depends on
+ * the core of the item. So it is worked out once per core, when the closure is
+ * created, and reused for every state. The closure items are found by
+ * production index in an array, rather than by hashing items.
+ * <p>
+ *
+ * Unlike compute_closure(), the lookahead of an item is not copied into the
+ * items it produces when it is visible there; the propagation links set up for
+ * it carry it over when lookaheads are propagated through the machine, with
+ * the same result.
+ *
+ * @see java_cup.lalr_item_set#compute_closure
+ * @see java_cup.lalr_state#build_machine
+ */
+public class lalr_closure {
+
+  /*-----------------------------------------------------------*/
+  /*--- Constructor(s) ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Constructor for the closure of the grammar of a context. The cores of all
+   * productions must have been numbered with lr_item_core.index_cores(), and
+   * nullability and first sets must have been computed for all non terminals.
+   *
+   * @param context   the context of the grammar.
+   * @param num_cores the number of cores.
+   */
+  public lalr_closure(GeneratorContext context, int num_cores) throws internal_error {
+    _first_after = new terminal_set[num_cores];
+    _visible = new boolean[num_cores];
+
+    int max = -1;
+    for (production prod : production.all(context)) {
+      max = Math.max(max, prod.index());
+
+      /* work out what each core with the dot before a non terminal adds */
+      for (int pos = 0; pos < prod.rhs_length(); pos++) {
+        var itm = new lalr_item(prod, pos, terminal_set.EMPTY);
+        if (itm.dot_before_nt() != null) {
+          _first_after[itm.core_index()] = itm.calc_lookahead(terminal_set.EMPTY);
+          _visible[itm.core_index()] = itm.lookahead_visible();
+        }
+      }
+    }
+
+    _by_prod = new lalr_item[max + 1];
+    _stamp = new int[max + 1];
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Constructor for another closure of the same grammar, sharing what was worked
+   * out for each core. A closure computes one kernel at a time; each thread
+   * computing closures needs one of its own.
+   *
+   * @param other the closure to share with.
+   */
+  public lalr_closure(lalr_closure other) {
+    _first_after = other._first_after;
+    _visible = other._visible;
+    _by_prod = new lalr_item[other._by_prod.length];
+    _stamp = new int[other._stamp.length];
+  }
+
+  /*-----------------------------------------------------------*/
+  /*--- (Access to) Instance Variables ------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * The lookahead each core hands to the productions of the non terminal after
+   * its dot (not including its own lookahead), by core index.
+   */
+  protected terminal_set[] _first_after;
+
+  /**
+   * Is the lookahead of each core visible after the non terminal after its dot,
+   * by core index.
+   */
+  protected boolean[] _visible;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The item with the dot at the start of each production in the closure being
+   * computed, by production index, valid where _stamp equals _current.
+   */
+  protected lalr_item[] _by_prod;
+
+  /** The closure each entry of _by_prod belongs to. */
+  protected int[] _stamp;
+
+  /** The number of the closure being computed. */
+  protected int _current;
+
+  /*-----------------------------------------------------------*/
+  /*--- General Methods ---------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Compute the closure of a kernel.
+   *
+   * @param kernel the items of the kernel, which go into the closure themselves.
+   * @return the closure of the kernel.
+   */
+  public lalr_item_set close(lalr_item[] kernel) throws internal_error {
+    var result = new lalr_item_set();
+    var consider = new ArrayStack<lalr_item>();
+
+    _current++;
+    for (var itm : kernel) {
+      result.add(itm);
+      consider.push(itm);
+      if (itm.dot_pos() == 0)
+        mark(itm);
+    }
+
+    /* repeat this until there is nothing else to consider */
+    while (!consider.empty()) {
+      var itm = consider.pop();
+
+      /* do we have a dot before a non terminal */
+      var nt = itm.dot_before_nt();
+      if (nt == null)
+        continue;
+
+      int core = itm.core_index();
+      var new_lookaheads = _first_after[core];
+      var need_prop = _visible[core];
+
+      /* add or merge an item for each production of that non term */
+      for (var prod : nt.productions()) {
+        int p = prod.index();
+        lalr_item add_itm;
+        if (_stamp[p] == _current) {
+          add_itm = _by_prod[p];
+          add_itm.lookahead().add(new_lookaheads);
+        } else {
+          /* a new item, that may need further closure */
+          add_itm = new lalr_item(prod, new terminal_set(new_lookaheads));
+          mark(add_itm);
+          result.add(add_itm);
+          consider.push(add_itm);
+        }
+
+        /* if propagation is needed link to that item */
+        if (need_prop)
+          itm.add_propagate(add_itm);
+      }
+    }
+    return result;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Enter an item with the dot at the start in the current closure. */
+  protected void mark(lalr_item itm) {
+    int p = itm.the_production().index();
+    _stamp[p] = _current;
+    _by_prod[p] = itm;
+  }
+
+  /*-----------------------------------------------------------*/
+}
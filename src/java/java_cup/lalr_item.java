@@ -125,27 +125,65 @@ public class lalr_item extends lr_item_core {
    * @param incoming symbols to potentially be added to lookahead of this item.
    */
   public void propagate_lookaheads(terminal_set incoming) throws internal_error {
-    boolean change = false;
+    ArrayStack<lalr_item> work = new ArrayStack<>();
+    schedule(incoming, work);
+    propagate(work);
+  }
 
-    /* if we don't need to propagate, then bail out now */
-    if (!needs_propagation && (incoming == null || incoming.empty()))
-      return;
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-    /* if we have null incoming, treat as an empty set */
-    if (incoming != null) {
-      /* add the incoming to the lookahead of this item */
-      change = lookahead().add(incoming);
-    }
+  /**
+   * Lookahead symbols added to this item that have not been propagated across its
+   * links yet, or null if the item is not waiting in a propagation worklist.
+   */
+  protected terminal_set _pending;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Add incoming lookaheads to this item, and put it in the worklist if there is
+   * anything new to propagate from it.
+   * 
+   * @param incoming symbols to potentially be added to lookahead of this item.
+   * @param work     the items waiting to propagate their pending lookaheads.
+   */
+  protected void schedule(terminal_set incoming, ArrayStack<lalr_item> work) throws internal_error {
+    boolean queued = _pending != null;
+
+    /* only what is new to us needs to go further */
+    if (incoming != null)
+      _pending = lookahead().add_new(incoming, _pending);
 
-    /* if we changed or need it anyway, propagate across our links */
-    if (change || needs_propagation) {
-      /* don't need to propagate again */
+    /* if we never propagated, all of the lookahead is new to our links */
+    if (needs_propagation) {
       needs_propagation = false;
+      if (_pending == null)
+        _pending = new terminal_set(lookahead());
+      else
+        _pending.add(lookahead());
+    }
 
-      /* propagate our lookahead into each item we are linked to */
-      for (lalr_item item : propagate_items()) {
-        item.propagate_lookaheads(lookahead());
-      }
+    if (!queued && _pending != null)
+      work.push(this);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Propagate the pending lookaheads of the items in a worklist across their
+   * links, until no item has any left. Every item takes part once for every time
+   * its lookahead grows, and only passes on the symbols that were added, so this
+   * takes time in proportion to the propagation links times the terminals.
+   * 
+   * @param work the items waiting to propagate their pending lookaheads.
+   */
+  public static void propagate(ArrayStack<lalr_item> work) throws internal_error {
+    while (!work.empty()) {
+      lalr_item itm = work.pop();
+      terminal_set delta = itm._pending;
+      itm._pending = null;
+      for (lalr_item to : itm.propagate_items())
+        to.schedule(delta, work);
     }
   }
 
@@ -314,9 +352,10 @@ public class lalr_item extends lr_item_core {
     res.append(", ");
     if (lookahead() != null) {
       res.append("{");
-      for (int t = 0; t < terminal.number(); t++)
+      var context = the_production().context();
+      for (int t = 0; t < terminal.number(context); t++)
         if (lookahead().contains(t))
-          res.append(terminal.find(t).name()).append(' ');
+          res.append(terminal.find(context, t).name()).append(' ');
       res.append("}");
     } else
       res.append("NULL LOOKAHEAD!!");
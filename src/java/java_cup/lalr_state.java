@@ -2,8 +2,16 @@
 package java_cup;
 
 import java_cup.runtime.ArrayStack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class represents a state in the LALR viable prefix recognition machine.
@@ -63,88 +71,60 @@ public class lalr_state {
   /**
    * Constructor for building a state from a set of items.
    * 
-   * @param itms the set of items that makes up this state.
+   * @param context the context of the grammar the state is built for.
+   * @param itms    the set of items that makes up this state.
    */
-  public lalr_state(lalr_item_set itms) throws internal_error {
-    /* don't allow null or duplicate item sets */
+  public lalr_state(GeneratorContext context, lalr_item_set itms) throws internal_error {
+    /* don't allow null item sets */
     if (itms == null)
       throw new internal_error("Attempt to construct an LALR state from a null item set");
 
-    if (find_state(itms) != null)
-      throw new internal_error("Attempt to construct a duplicate LALR state");
+    _context = context;
 
     /* assign a unique index */
-    _index = next_index++;
+    _index = context._next_state++;
 
     /* store the items */
     _items = itms;
 
-    /* add to the global collection, keyed with its item set */
-    _all.put(_items, this);
-  }
-
-  /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
-  /*-----------------------------------------------------------*/
-
-  /** Collection of all states. */
-  protected static Map<lalr_item_set, lalr_state> _all = new HashMap<>();
-
-  /** Collection of all states. */
-  public static Iterable<lalr_state> all_states() {
-    return _all.values();
-  }
-
-  // Hm Added clear to clear all static fields
-  public static void clear() {
-    _all.clear();
-    _all_kernels.clear();
-    next_index = 0;
-  }
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** Indicate total number of states there are. */
-  public static int number() {
-    return _all.size();
+    /* add to the collection of the context, in the order of the indexes */
+    context._states.add(this);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
-   * Hash table to find states by their kernels (i.e, the original, unclosed, set
-   * of items -- which uniquely define the state). This table stores state objects
-   * using (a copy of) their kernel item sets as keys.
-   */
-  protected static Map<lalr_item_set, lalr_state> _all_kernels = new HashMap<>();
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /**
-   * Find and return state with a given a kernel item set (or null if not found).
-   * The kernel item set is the subset of items that were used to originally
-   * create the state. These items are formed by "shifting the dot" within items
-   * of other states that have a transition to this one. The remaining elements of
-   * this state's item set are added during closure.
+   * Constructor for a state of a machine being built, which gets its index once
+   * the machine is complete (see number_states()).
    * 
-   * @param itms the kernel set of the state we are looking for.
+   * @param context the context of the grammar the state is built for.
+   * @param itms    the set of items that makes up this state.
+   * @param kernel  the kernel items, in the order of their core indexes.
    */
-  public static lalr_state find_state(lalr_item_set itms) {
-    if (itms == null)
-      return null;
-    else
-      return _all.get(itms);
+  protected lalr_state(GeneratorContext context, lalr_item_set itms, lalr_item[] kernel) {
+    _context = context;
+    _index = -1;
+    _items = itms;
+    _kernel_items = kernel;
+    _kernel_cores = new int[kernel.length];
+    for (int i = 0; i < kernel.length; i++)
+      _kernel_cores[i] = kernel[i].core_index();
   }
 
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** Static counter for assigning unique state indexes. */
-  protected static int next_index = 0;
-
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** The context of the grammar the state is built for. */
+  protected final GeneratorContext _context;
+
+  /** The context of the grammar the state is built for. */
+  public GeneratorContext context() {
+    return _context;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** The item set for this state. */
   protected lalr_item_set _items;
 
@@ -155,6 +135,14 @@ public class lalr_state {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /** The items of the kernel of this state, in the order of their core indexes. */
+  protected lalr_item[] _kernel_items;
+
+  /** The core indexes of the kernel items, in ascending order. */
+  protected int[] _kernel_cores;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** List of transitions out of this state. */
   protected lalr_transition _transitions = null;
 
@@ -177,6 +165,50 @@ public class lalr_state {
   /*--- Static Methods ----------------------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** Collection of all states of a context, in the order of their indexes. */
+  public static Iterable<lalr_state> all_states(GeneratorContext context) {
+    return context._states;
+  }
+
+  /**
+   * Forget all the states of a context, e.g. those of a damaged cache entry
+   * (see generation_cache).
+   */
+  public static void clear(GeneratorContext context) {
+    context._states.clear();
+    context._kernels.clear();
+    context._next_state = 0;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Indicate total number of states of a context there are. */
+  public static int number(GeneratorContext context) {
+    return context._states.size();
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Find and return state of a context with a given item set (or null if not
+   * found). This compares the item set with the items of every state in turn;
+   * the machine itself finds its states by their kernels (see
+   * build_machine()).
+   * 
+   * @param context the context of the states.
+   * @param itms    the item set of the state we are looking for.
+   */
+  public static lalr_state find_state(GeneratorContext context, lalr_item_set itms) {
+    if (itms == null)
+      return null;
+    for (var st : context._states)
+      if (st.items().equals(itms))
+        return st;
+    return null;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * Helper routine for debugging -- produces a dump of the given state onto
    * System.out.
@@ -217,11 +249,19 @@ public class lalr_state {
    * propagate link set up for it. This allows additions to the lookahead of one
    * item to be included in other items that it was used to directly or indirectly
    * create.
+   * 
+   * @param context the context of the states.
    */
-  protected static void propagate_all_lookaheads() throws internal_error {
-    /* iterate across all states */
-    for (var st : all_states())
-      st.propagate_lookaheads();
+  protected static void propagate_all_lookaheads(GeneratorContext context) throws internal_error {
+    ArrayStack<lalr_item> work = new ArrayStack<>();
+
+    /* start from every item that has not propagated yet */
+    for (var st : all_states(context))
+      for (var itm : st.items())
+        itm.schedule(null, work);
+
+    /* then pass on the changes until there are none */
+    lalr_item.propagate(work);
   }
 
   /*-----------------------------------------------------------*/
@@ -268,7 +308,9 @@ public class lalr_state {
    * that it included items that represented productions of things the parser was
    * now looking for. In this case we would items corresponding to productions of
    * Y, since various forms of Y are expected next when in this state (see
-   * lalr_item_set.compute_closure() for details on closure).
+   * lalr_item_set.compute_closure() for details on closure, which is computed by
+   * lalr_closure). Kernels are compared by the sorted core indexes of their
+   * items (see lr_item_core.core_index()).
    * <p>
    *
    * The process of building the viable prefix recognizer terminates when no new
@@ -282,137 +324,221 @@ public class lalr_state {
    *
    * @param start_prod the start production of the grammar
    * @see java_cup.lalr_item_set#compute_closure
+   * @see java_cup.lalr_closure
    * @see java_cup.lalr_state#propagate_all_lookaheads
    */
 
   public static lalr_state build_machine(production start_prod) throws internal_error {
-    lalr_state start_state;
-    lalr_item_set start_items;
-    lalr_item_set kernel;
-    ArrayStack<lalr_state> work_stack = new ArrayStack<>();
-    lalr_item new_itm, existing;
+    return build_machine(start_prod, 1);
+  }
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Build an LALR viable prefix recognition machine given a start production,
+   * expanding the states on several threads (see build_machine(production)).
+   * The states are numbered once the machine is complete, in the order a single
+   * thread would have created them, so the machine does not depend on the
+   * number of threads.
+   *
+   * @param start_prod the start production of the grammar
+   * @param threads    the number of threads to expand states on.
+   */
+  public static lalr_state build_machine(production start_prod, int threads) throws internal_error {
     /* sanity check */
     if (start_prod == null)
       throw new internal_error("Attempt to build viable prefix recognizer using a null production");
+    var context = start_prod.context();
 
-    /* build item with dot at front of start production and EOF lookahead */
-    start_items = new lalr_item_set();
+    /* number the item cores, and work out what each adds to a closure */
+    var closure = new lalr_closure(context, lr_item_core.index_cores(context));
 
+    /* build item with dot at front of start production and EOF lookahead */
     var start_itm = new lalr_item(start_prod);
-    start_itm.lookahead().add(terminal.EOF);
-
-    start_items.add(start_itm);
+    start_itm.lookahead().add(context.EOF());
+
+    /* build the start state out of its closure, and enter it by its kernel */
+    var start_state = new_state(context, closure, new lalr_item[] { start_itm });
+    context._kernels.put(new kernel_key(start_state._kernel_cores), start_state);
+
+    /* expand states until no new ones are found */
+    if (threads > 1)
+      expand_all(start_state, closure, threads);
+    else {
+      ArrayStack<lalr_state> work_stack = new ArrayStack<>();
+      work_stack.push(start_state);
+      while (!work_stack.empty())
+        for (var new_st : expand(work_stack.pop(), closure))
+          work_stack.push(new_st);
+    }
 
-    /* create copy the item set to form the kernel */
-    kernel = new lalr_item_set(start_items);
+    /* all done building states */
+    number_states(start_state);
 
-    /* create the closure from that item set */
-    start_items.compute_closure();
+    /* propagate complete lookahead sets throughout the states */
+    propagate_all_lookaheads(context);
 
-    /* build a state out of that item set and put it in our work set */
-    start_state = new lalr_state(start_items);
-    work_stack.push(start_state);
+    return start_state;
+  }
 
-    /* enter the state using the kernel as the key */
-    _all_kernels.put(kernel, start_state);
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-    /* continue looking at new states until we have no more work to do */
-    while (!work_stack.empty()) {
-      /* remove a state from the work set */
-      var st = work_stack.pop();
+  /**
+   * Add the transitions out of a state, to the states with the kernels formed by
+   * shifting the dot over each symbol, building those that don't exist yet.
+   * 
+   * @param st      the state to expand.
+   * @param closure computes the closure of new states.
+   * @return the states that were built, in the order they were built.
+   */
+  protected static ArrayStack<lalr_state> expand(lalr_state st, lalr_closure closure) throws internal_error {
+    var created = new ArrayStack<lalr_state>();
 
-      /* gather up all the symbols that appear before dots */
-      var outgoing = new symbol_set();
-      for (var itm : st.items()) {
-        /* add the symbol before the dot (if any) to our collection */
-        var sym = itm.symbol_after_dot();
-        if (sym != null)
-          outgoing.add(sym);
+    /* gather up all the symbols that appear before dots, and their items */
+    var outgoing = new symbol_set();
+    var linked = new HashMap<symbol, ArrayStack<lalr_item>>();
+    for (var itm : st.items()) {
+      /* add the symbol before the dot (if any) to our collection */
+      var sym = itm.symbol_after_dot();
+      if (sym != null) {
+        outgoing.add(sym);
+        linked.computeIfAbsent(sym, k -> new ArrayStack<>()).push(itm);
       }
+    }
 
-      /* now create a transition out for each individual symbol */
-      for (var sym : outgoing) {
-
-        /* will be keeping the set of items with propagate links */
-        var linked_items = new lalr_item_set();
-
-        // gather up shifted versions of all the items that have this symbol before the
-        // dot
-        var new_items = new lalr_item_set();
-        for (var itm : st.items()) {
-          /* if this is the symbol we are working on now, add to set */
-          var sym2 = itm.symbol_after_dot();
-          if (sym.equals(sym2)) {
-            /* add to the kernel of the new state */
-            new_items.add(itm.shift());
-            /* remember that itm has propagate link to it */
-            linked_items.add(itm);
-          }
+    /* now create a transition out for each individual symbol */
+    for (var sym : outgoing) {
+
+      /* the items that have this symbol before the dot */
+      var linked_items = linked.get(sym);
+      linked_items.sort(Comparator.comparingInt(lalr_item::core_index));
+
+      /* their shifted versions make up the kernel of the new state */
+      var cores = new int[linked_items.size()];
+      for (int i = 0; i < cores.length; i++)
+        cores[i] = linked_items.get(i).core_index() + 1;
+      var key = new kernel_key(cores);
+
+      /* have we seen this one already? */
+      var kernels = st._context._kernels;
+      var new_st = kernels.get(key);
+
+      /* if we haven't, build a new state out of the shifted items */
+      if (new_st == null) {
+        var kernel = new lalr_item[cores.length];
+        for (int i = 0; i < cores.length; i++) {
+          var itm = linked_items.get(i);
+          kernel[i] = new lalr_item(itm.the_production(), itm.dot_pos() + 1, new terminal_set(itm.lookahead()));
         }
+        var built = new_state(st._context, closure, kernel);
 
-        /* use new items as state kernel */
-        kernel = new lalr_item_set(new_items);
-        /* have we seen this one already? */
-        var new_st = _all_kernels.get(kernel);
-
-        /* if we haven't, build a new state out of the item set */
+        /* unless another thread has built it meanwhile */
+        new_st = kernels.putIfAbsent(key, built);
         if (new_st == null) {
-          /* compute closure of the kernel for the full item set */
-          new_items.compute_closure();
+          new_st = built;
+          created.push(built);
+        }
+      }
 
-          /* build the new state */
-          new_st = new lalr_state(new_items);
+      /* the items propagate their lookahead to the kernel of that state */
+      for (int i = 0; i < cores.length; i++)
+        linked_items.get(i).add_propagate(new_st._kernel_items[i]);
 
-          /* add the new state to our work set */
-          work_stack.push(new_st);
+      /* add a transition from current state to that state */
+      st.add_transition(sym, new_st);
+    }
+    return created;
+  }
 
-          /* put it in our kernel table */
-          _all_kernels.put(kernel, new_st);
-        }
-        /* otherwise relink propagation to items in existing state */
-        else {
-          /* walk through the items that have links to the new state */
-          for (var fix_itm : linked_items) {
-
-            /* look at each propagate link out of that item */
-            for (int l = 0; l < fix_itm.propagate_items().size(); l++) {
-              /* pull out item linked to in the new state */
-              new_itm = fix_itm.propagate_items().elementAt(l);
-
-              /* find corresponding item in the existing state */
-              existing = new_st.items().find(new_itm);
-
-              /* fix up the item so it points to the existing set */
-              if (existing != null)
-                fix_itm.propagate_items().setElementAt(existing, l);
-            }
-          }
-        }
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-        /* add a transition from current state to that state */
-        st.add_transition(sym, new_st);
-      }
+  /**
+   * Build a new state out of the closure of a kernel.
+   * 
+   * @param context the context of the grammar.
+   * @param closure computes the closure.
+   * @param kernel  the kernel items, in the order of their core indexes.
+   */
+  protected static lalr_state new_state(GeneratorContext context, lalr_closure closure, lalr_item[] kernel)
+      throws internal_error {
+    return new lalr_state(context, closure.close(kernel), kernel);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Expand the start state, and all states found from it, on a pool of threads.
+   * 
+   * @param start_state the start state.
+   * @param closure     the closure to share with the closures of the threads.
+   * @param threads     the number of threads.
+   */
+  protected static void expand_all(lalr_state start_state, lalr_closure closure, int threads) throws internal_error {
+    var closures = ThreadLocal.withInitial(() -> new lalr_closure(closure));
+    var pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new expansion(null, start_state, closures));
+    } catch (RuntimeException e) {
+      throw internal_error_of(e);
+    } finally {
+      pool.shutdown();
     }
+  }
 
-    /* all done building states */
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-    /* propagate complete lookahead sets throughout the states */
-    propagate_all_lookaheads();
+  /**
+   * Number the states of a complete machine, and enter them in the collection of
+   * all states of its context. The states are numbered in the order
+   * build_machine() creates them when it expands them one at a time, most
+   * recently created first.
+   * 
+   * @param start_state the start state of the machine.
+   */
+  protected static void number_states(lalr_state start_state) {
+    ArrayStack<lalr_state> work_stack = new ArrayStack<>();
+    ArrayStack<lalr_state> targets = new ArrayStack<>();
+    var context = start_state._context;
+    var all = context._states;
+
+    all.clear();
+    context._next_state = 0;
+    start_state._index = context._next_state++;
+    all.add(start_state);
+    work_stack.push(start_state);
 
-    return start_state;
+    while (!work_stack.empty()) {
+      var st = work_stack.pop();
+
+      /* transitions are listed most recently added first */
+      targets.clear();
+      for (lalr_transition tr = st.transitions(); tr != null; tr = tr.next())
+        targets.push(tr.to_state());
+
+      /* so number the states they lead to in reverse */
+      for (int i = targets.size() - 1; i >= 0; i--) {
+        var to_st = targets.get(i);
+        if (to_st._index < 0) {
+          to_st._index = context._next_state++;
+          all.add(to_st);
+          work_stack.push(to_st);
+        }
+      }
+    }
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
-   * Propagate lookahead sets out of this state. This recursively propagates to
-   * all items that have propagation links from some item in this state.
+   * Propagate lookahead sets out of this state. This propagates to all items
+   * that have propagation links from some item in this state, directly or
+   * indirectly.
    */
   protected void propagate_lookaheads() throws internal_error {
-    /* recursively propagate out from each item in the state */
+    ArrayStack<lalr_item> work = new ArrayStack<>();
     for (var itm : items())
-      itm.propagate_lookaheads(null);
+      itm.schedule(null, work);
+    lalr_item.propagate(work);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -440,6 +566,79 @@ public class lalr_state {
    * @param reduce_table the reduce-goto table to put entries in.
    */
   public void build_table_entries(parse_action_table act_table, parse_reduce_table reduce_table) throws internal_error {
+    var conflict_set = fill_table_entries(act_table, reduce_table);
+
+    /* if we end up with conflict(s), report them */
+    if (!conflict_set.empty())
+      report_conflicts(conflict_set);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Fill in the parse table entries for all states of a context (see
+   * build_table_entries()), on several threads. Each state only fills in its
+   * own rows. The conflicts are reported afterwards, in the order of the states.
+   *
+   * @param context      the context of the states.
+   * @param act_table    the action table to put entries in.
+   * @param reduce_table the reduce-goto table to put entries in.
+   * @param threads      the number of threads to fill the tables on.
+   */
+  public static void build_all_table_entries(GeneratorContext context, parse_action_table act_table,
+      parse_reduce_table reduce_table, int threads) throws internal_error {
+    if (threads <= 1) {
+      for (var st : all_states(context))
+        st.build_table_entries(act_table, reduce_table);
+      return;
+    }
+
+    /* fill in the rows of a range of states per task */
+    var all = context._states;
+    int n = all.size();
+    int chunk = Math.max(1, n / (4 * threads));
+    var conflicts = new terminal_set[n];
+    var tasks = new ArrayList<Callable<Void>>();
+    for (int from = 0; from < n; from += chunk) {
+      int first = from, last = Math.min(n, from + chunk);
+      tasks.add(() -> {
+        for (int i = first; i < last; i++)
+          conflicts[i] = all.get(i).fill_table_entries(act_table, reduce_table);
+        return null;
+      });
+    }
+
+    var pool = new ForkJoinPool(threads);
+    try {
+      for (Future<Void> f : pool.invokeAll(tasks))
+        f.get();
+    } catch (ExecutionException e) {
+      throw internal_error_of(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new internal_error("Interrupted while filling in the parse tables");
+    } finally {
+      pool.shutdown();
+    }
+
+    /* report the conflicts */
+    for (int i = 0; i < n; i++)
+      if (!conflicts[i].empty())
+        all.get(i).report_conflicts(conflicts[i]);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Fill in the parse table entries for this state, like build_table_entries(),
+   * without reporting the conflicts.
+   *
+   * @param act_table    the action table to put entries in.
+   * @param reduce_table the reduce-goto table to put entries in.
+   * @return the terminals there are conflicts under.
+   */
+  protected terminal_set fill_table_entries(parse_action_table act_table, parse_reduce_table reduce_table)
+      throws internal_error {
     var conflict_set = new terminal_set();
 
     /* pull out our rows from the tables */
@@ -453,7 +652,7 @@ public class lalr_state {
         var act = new reduce_action(itm.the_production());
 
         /* consider each lookahead symbol */
-        for (int t = 0; t < terminal.number(); t++) {
+        for (int t = 0; t < terminal.number(_context); t++) {
           /* skip over the ones not in the lookahead */
           if (!itm.lookahead().contains(t))
             continue;
@@ -463,7 +662,7 @@ public class lalr_state {
             our_act_row.under_term[t] = act;
           } else {
             /* we now have at least one conflict */
-            terminal term = terminal.find(t);
+            terminal term = terminal.find(_context, t);
             var other_act = our_act_row.under_term[t];
 
             /* if the other act was not a shift */
@@ -505,7 +704,7 @@ public class lalr_state {
           /* shift always wins */
           if (!fix_with_precedence(p, sym.index(), our_act_row, act)) {
             our_act_row.under_term[sym.index()] = act;
-            conflict_set.add(terminal.find(sym.index()));
+            conflict_set.add(terminal.find(_context, sym.index()));
           }
         }
       } else {
@@ -513,10 +712,7 @@ public class lalr_state {
         our_red_row.under_non_term[sym.index()] = trans.to_state();
       }
     }
-
-    /* if we end up with conflict(s), report them */
-    if (!conflict_set.empty())
-      report_conflicts(conflict_set);
+    return conflict_set;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -543,7 +739,7 @@ public class lalr_state {
 
       throws internal_error {
 
-    terminal term = terminal.find(term_index);
+    terminal term = terminal.find(_context, term_index);
 
     /* if the production has a precedence number, it can be fixed */
     if (p.precedence_num() > assoc.no_prec) {
@@ -670,7 +866,7 @@ public class lalr_state {
         }
         /* report S/R conflicts under all the symbols we conflict under */
         terminal_set lookahead = itm.lookahead();
-        for (int t = 0; t < terminal.number(); t++)
+        for (int t = 0; t < terminal.number(_context); t++)
           if (conflict_set.contains(t) && lookahead.contains(t))
             report_shift_reduce(itm, t);
       }
@@ -690,13 +886,13 @@ public class lalr_state {
 
     StringBuilder message = new StringBuilder("*** Reduce/Reduce conflict found in state #" + index() + "\n" + "  between "
             + itm1.to_simple_string() + "\n" + "  and     " + itm2.to_simple_string() + "\n" + "  under symbols: {");
-    for (int t = 0; t < terminal.number(); t++) {
+    for (int t = 0; t < terminal.number(_context); t++) {
       if (itm1.lookahead().contains(t) && itm2.lookahead().contains(t)) {
         if (comma_flag)
           message.append(", ");
         else
           comma_flag = true;
-        message.append(terminal.find(t).name());
+        message.append(terminal.find(_context, t).name());
       }
     }
     message.append("}\n  Resolved in favor of ");
@@ -706,8 +902,8 @@ public class lalr_state {
       message.append("the second production.\n");
 
     /* count the conflict */
-    emit.num_conflicts++;
-    ErrorManager.getManager().emit_warning(message.toString());
+    _context.emit().num_conflicts++;
+    _context.error_manager().emit_warning(message.toString());
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -741,12 +937,12 @@ public class lalr_state {
         }
       }
     }
-    message.append("  under symbol ").append(terminal.find(conflict_sym).name()).append("\n").append("  Resolved in favor of shifting.\n");
+    message.append("  under symbol ").append(terminal.find(_context, conflict_sym).name()).append("\n").append("  Resolved in favor of shifting.\n");
     if (relevancecounter == 0)
       return;
     /* count the conflict */
-    emit.num_conflicts++;
-    ErrorManager.getManager().emit_warning(message.toString());
+    _context.emit().num_conflicts++;
+    _context.error_manager().emit_warning(message.toString());
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -796,5 +992,77 @@ public class lalr_state {
     return result.toString();
   }
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The internal_error that made a task on another thread fail. Other exceptions
+   * are rethrown as they are.
+   */
+  protected static internal_error internal_error_of(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause())
+      if (cause instanceof internal_error)
+        return (internal_error) cause;
+    if (e instanceof RuntimeException)
+      throw (RuntimeException) e;
+    if (e instanceof Error)
+      throw (Error) e;
+    throw new IllegalStateException(e);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Expands a state, and forks the expansion of the states found from it. */
+  protected static final class expansion extends CountedCompleter<Void> {
+    private static final long serialVersionUID = 1L;
+    private final lalr_state st;
+    private final ThreadLocal<lalr_closure> closures;
+
+    expansion(CountedCompleter<?> parent, lalr_state st, ThreadLocal<lalr_closure> closures) {
+      super(parent);
+      this.st = st;
+      this.closures = closures;
+    }
+
+    @Override
+    public void compute() {
+      try {
+        for (var new_st : expand(st, closures.get())) {
+          addToPendingCount(1);
+          new expansion(this, new_st, closures).fork();
+        }
+      } catch (internal_error e) {
+        throw new IllegalStateException(e);
+      }
+      tryComplete();
+    }
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The key of a state in the kernel table: the core indexes of its kernel items
+   * in ascending order, hashed once.
+   */
+  protected static final class kernel_key {
+    private final int[] cores;
+    private final int hash;
+
+    kernel_key(int[] cores) {
+      this.cores = cores;
+      this.hash = Arrays.hashCode(cores);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof kernel_key && hash == ((kernel_key) other).hash
+          && Arrays.equals(cores, ((kernel_key) other).cores);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
   /*-----------------------------------------------------------*/
 }
\ No newline at end of file
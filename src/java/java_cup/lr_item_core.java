@@ -111,6 +111,43 @@ public class lr_item_core {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * Number the cores of all productions of a context, so that each
+   * (production, dot position) pair can be encoded as a single int. The cores of
+   * a production, one for each position of the dot, are numbered consecutively,
+   * from the base the context keeps for the production. This must be called
+   * once all productions have been created, and before core_index() is used.
+   * 
+   * @param context the context of the productions.
+   * @return the number of cores.
+   */
+  public static int index_cores(GeneratorContext context) {
+    int max = -1;
+    for (production prod : production.all(context))
+      max = Math.max(max, prod.index());
+
+    var core_base = new int[max + 1];
+    int next = 0;
+    for (production prod : production.all(context)) {
+      core_base[prod.index()] = next;
+      next += prod.rhs_length() + 1;
+    }
+    context._core_base = core_base;
+    return next;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The number of this core among the cores of all productions, which encodes its
+   * production and dot position (see index_cores()).
+   */
+  public int core_index() {
+    return _the_production.context()._core_base[_the_production.index()] + _dot_pos;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** Is the dot at the end of the production? */
   public boolean dot_at_end() {
     return _dot_pos >= _the_production.rhs_length();
@@ -22,15 +22,16 @@ public class non_terminal extends symbol {
   /**
    * Full constructor.
    * 
-   * @param nm the name of the non terminal.
-   * @param tp the type string for the non terminal.
+   * @param context the context the non terminal is declared in.
+   * @param nm      the name of the non terminal.
+   * @param tp      the type string for the non terminal.
    */
-  public non_terminal(String nm, String tp) {
+  public non_terminal(GeneratorContext context, String nm, String tp) {
     /* super class does most of the work */
-    super(nm, tp);
+    super(context, nm, tp);
 
     /* add to set of all non terminals and check for duplicates */
-    Object conflict = _all.put(nm, this);
+    Object conflict = context._non_terminals.put(nm, this);
     if (conflict != null)
       // can't throw an exception here because these are used in static
       // initializers, so we crash instead
@@ -39,10 +40,10 @@ public class non_terminal extends symbol {
       (new internal_error("Duplicate non-terminal (" + nm + ") created")).crash();
 
     /* assign a unique index */
-    _index = next_index++;
+    _index = context._next_non_terminal++;
 
     /* add to by_index set */
-    _all_by_index.put(_index, this);
+    context._non_terminals_by_index.put(_index, this);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -50,113 +51,90 @@ public class non_terminal extends symbol {
   /**
    * Constructor with default type.
    * 
-   * @param nm the name of the non terminal.
+   * @param context the context the non terminal is declared in.
+   * @param nm      the name of the non terminal.
    */
-  public non_terminal(String nm) {
-    this(nm, null);
+  public non_terminal(GeneratorContext context, String nm) {
+    this(context, nm, null);
   }
 
-  /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
-  /*-----------------------------------------------------------*/
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
-   * Table of all non-terminals -- elements are stored using name strings as the
-   * key
+   * Constructor for the special start non terminal of a context. It has the
+   * first index, but isn't entered in the tables of the context, since it only
+   * appears on the left hand side of the start production.
+   * 
+   * @param context the context of the start non terminal.
    */
-  protected static Map<String, non_terminal> _all = new HashMap<>();
-
-  // Hm Added clear to clear all static fields
-  public static void clear() {
-    _all.clear();
-    _all_by_index.clear();
-    next_index = 0;
-    next_nt = 0;
+  protected non_terminal(GeneratorContext context) {
+    super(context, "$START", null);
+    _index = 0;
   }
 
-  /** Access to all non-terminals. */
-  public static Iterable<non_terminal> all() {
-    return _all.values();
+  /*-----------------------------------------------------------*/
+  /*--- Static Methods ----------------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /** Access to all non-terminals of a context. */
+  public static Iterable<non_terminal> all(GeneratorContext context) {
+    return context._non_terminals.values();
   }
 
-  /** lookup a non terminal by name string */
-  public static non_terminal find(String with_name) {
+  /** lookup a non terminal of a context by name string */
+  public static non_terminal find(GeneratorContext context, String with_name) {
     if (with_name == null)
       return null;
     else
-      return _all.get(with_name);
+      return context._non_terminals.get(with_name);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Table of all non terminals indexed by their index number. */
-  protected static MonotonicIntObjectArrayMap<non_terminal> _all_by_index = new MonotonicIntObjectArrayMap<>();
-
-  /** Lookup a non terminal by index. */
-  public static non_terminal find(int indx) {
-    return _all_by_index.get(indx);
+  /** Lookup a non terminal of a context by index. */
+  public static non_terminal find(GeneratorContext context, int indx) {
+    return context._non_terminals_by_index.get(indx);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Total number of non-terminals. */
-  public static int number() {
-    return _all.size();
+  /** Total number of non-terminals of a context. */
+  public static int number(GeneratorContext context) {
+    return context._non_terminals.size();
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Static counter to assign unique indexes. */
-  protected static int next_index = 0;
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** Static counter for creating unique non-terminal names */
-  static protected int next_nt = 0;
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** special non-terminal for start symbol */
-  public static final non_terminal START_nt = new non_terminal("$START");
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** flag non-terminals created to embed action productions */
-  public boolean is_embedded_action = false; /* added 24-Mar-1998, CSA */
-
-  /*-----------------------------------------------------------*/
-  /*--- Static Methods ----------------------------------------*/
-  /*-----------------------------------------------------------*/
-
   /**
    * Method for creating a new uniquely named hidden non-terminal using the given
    * string as a base for the name (or "NT$" if null is passed).
    * 
-   * @param prefix base name to construct unique name from.
+   * @param context the context to create it in.
+   * @param prefix  base name to construct unique name from.
    */
-  static non_terminal create_new(String prefix) throws internal_error {
-    return create_new(prefix, null); // TUM 20060608 embedded actions patch
+  static non_terminal create_new(GeneratorContext context, String prefix) throws internal_error {
+    return create_new(context, prefix, null); // TUM 20060608 embedded actions patch
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /** static routine for creating a new uniquely named hidden non-terminal */
-  static non_terminal create_new() throws internal_error {
-    return create_new(null);
+  static non_terminal create_new(GeneratorContext context) throws internal_error {
+    return create_new(context, null);
   }
 
   /**
    * TUM 20060608 bugfix for embedded action codes
    */
-  static non_terminal create_new(String prefix, String type) {
+  static non_terminal create_new(GeneratorContext context, String prefix, String type) {
     if (prefix == null)
       prefix = "NT$";
-    return new non_terminal(prefix + next_nt++, type);
+    return new non_terminal(context, prefix + context._next_nt++, type);
   }
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Compute nullability of all non-terminals. */
-  public static void compute_nullability() throws internal_error {
+  /** Compute nullability of all non-terminals of a context. */
+  public static void compute_nullability(GeneratorContext context) throws internal_error {
     boolean change = true;
     /* repeat this process until there is no change */
     while (change) {
@@ -164,7 +142,7 @@ public class non_terminal extends symbol {
       change = false;
 
       /* consider each non-terminal */
-      for (non_terminal nt : all())
+      for (non_terminal nt : all(context))
         /* only look at things that aren't already marked nullable */
         if (!nt.nullable())
           if (nt.looks_nullable()) {
@@ -175,17 +153,17 @@ public class non_terminal extends symbol {
     }
 
     /* do one last pass over the productions to finalize all of them */
-    for (production prod : production.all())
+    for (production prod : production.all(context))
       prod.set_nullable(prod.check_nullable());
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
-   * Compute first sets for all non-terminals. This assumes nullability has
-   * already computed.
+   * Compute first sets for all non-terminals of a context. This assumes
+   * nullability has already computed.
    */
-  public static void compute_first_sets() throws internal_error {
+  public static void compute_first_sets(GeneratorContext context) throws internal_error {
     boolean change = true;
     /* repeat this process until we have no change */
     while (change) {
@@ -193,7 +171,7 @@ public class non_terminal extends symbol {
       change = false;
 
       /* consider each non-terminal */
-      for (non_terminal nt : all()) {
+      for (non_terminal nt : all(context)) {
         /* consider every production of that non terminal */
         for (production prod : nt.productions()) {
           /* get the updated first of that production */
@@ -213,6 +191,11 @@ public class non_terminal extends symbol {
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** flag non-terminals created to embed action productions */
+  public boolean is_embedded_action = false; /* added 24-Mar-1998, CSA */
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** Table of all productions with this non terminal on the LHS. */
   protected Map<production, production> _productions = new HashMap<>(11);
 
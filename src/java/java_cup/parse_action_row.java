@@ -12,41 +12,19 @@ public class parse_action_row {
 	       
   /** Simple constructor.  Note: this should not be used until the number of
    *  terminals in the grammar has been established.
+   *
+   * @param context the context of the grammar.
    */
-  public parse_action_row()
+  public parse_action_row(GeneratorContext context)
     {
-      /* make sure the size is set */
-      if (_size <= 0 )  _size = terminal.number();
-
       /* allocate the array */
-      under_term = new parse_action[size()];
+      under_term = new parse_action[terminal.number(context)];
 
       /* set each element to an error action */
-      for (int i=0; i<_size; i++)
+      for (int i=0; i<size(); i++)
 	under_term[i] = new parse_action();
     }
 
-  /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
-  /*-----------------------------------------------------------*/
-
-  /** Number of columns (terminals) in every row. */
-  protected static int _size = 0;
-
-  /** Number of columns (terminals) in every row. */
-  public static int size() {return _size;}
-
-  //Hm Added clear  to clear all static fields
-  public static void clear() {
-      _size = 0;
-      reduction_count = null;
-  }
-
-  /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
-
-  /** Table of reduction counts (reused by compute_default()). */
-  protected static int[] reduction_count = null;
-
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
@@ -54,6 +32,9 @@ public class parse_action_row {
   /** Actual action entries for the row. */
   public parse_action[] under_term;
 
+  /** Number of columns (terminals) in the row. */
+  public int size() {return under_term.length;}
+
   /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
 
   /** Default (reduce) action for this row.  -1 will represent default 
@@ -72,17 +53,16 @@ public class parse_action_row {
    *  the point of the error and never cause an incorrect parse.  -1 will 
    *  be used to encode the fact that no reduction can be used as a 
    *  default (in which case error will be used).
+   *
+   * @param reduction_count table to count the reductions by each production
+   *                        in, reused from row to row.
    */
-  public void compute_default()
+  public void compute_default(int[] reduction_count)
     {
       int i, prod, max_prod, max_red;
 
-      /* if we haven't allocated the count table, do so now */
-      if (reduction_count == null) 
-	reduction_count = new int[production.number()];
-
       /* clear the reduction count table and maximums */
-      for (i = 0; i < production.number(); i++)
+      for (i = 0; i < reduction_count.length; i++)
 	reduction_count[i] = 0;
       max_prod = -1;
       max_red = 0;
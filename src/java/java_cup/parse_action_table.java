@@ -21,21 +21,35 @@ public class parse_action_table {
    * Simple constructor. All terminals, non-terminals, and productions must
    * already have been entered, and the viable prefix recognizer should have been
    * constructed before this is called.
+   * 
+   * @param context the context of the grammar.
    */
-  public parse_action_table() {
+  public parse_action_table(GeneratorContext context) {
+    _context = context;
+
     /* determine how many states we are working with */
-    _num_states = lalr_state.number();
+    _num_states = lalr_state.number(context);
 
     /* allocate the array and fill it in with empty rows */
     under_state = new parse_action_row[_num_states];
     for (int i = 0; i < _num_states; i++)
-      under_state[i] = new parse_action_row();
+      under_state[i] = new parse_action_row(context);
   }
 
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** The context of the grammar. */
+  protected final GeneratorContext _context;
+
+  /** The context of the grammar. */
+  public GeneratorContext context() {
+    return _context;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** How many rows/states are in the machine/table. */
   protected int _num_states;
 
@@ -62,7 +76,7 @@ public class parse_action_table {
 
     /* tabulate reductions -- look at every table entry */
     for (int row = 0; row < num_states(); row++) {
-      for (int col = 0; col < parse_action_row.size(); col++) {
+      for (int col = 0; col < under_state[row].size(); col++) {
         /* look at the action entry to see if its a reduce */
         act = under_state[row].under_term[col];
         if (act != null && act.kind() == parse_action.REDUCE) {
@@ -73,7 +87,7 @@ public class parse_action_table {
     }
 
     /* now go across every production and make sure we hit it */
-    for (var prod : production.all()){
+    for (var prod : production.all(_context)){
       /* if we didn't hit it give a warning */
       if (prod.num_reductions() == 0) {
         /*
@@ -81,9 +95,9 @@ public class parse_action_table {
          * 
          * /* give a warning if they haven't been turned off
          */
-        if (!emit.nowarn) {
+        if (!_context.emit().nowarn) {
 
-          ErrorManager.getManager().emit_warning("*** Production \"" + prod.to_simple_string() + "\" never reduced");
+          _context.error_manager().emit_warning("*** Production \"" + prod.to_simple_string() + "\" never reduced");
         }
       }
     }
@@ -101,7 +115,7 @@ public class parse_action_table {
     for (int row = 0; row < num_states(); row++) {
       result.append("From state #").append(row).append('\n');
       cnt = 0;
-      for (int col = 0; col < parse_action_row.size(); col++) {
+      for (int col = 0; col < under_state[row].size(); col++) {
         /* if the action is not an error print it */
         if (under_state[row].under_term[col].kind() != parse_action.ERROR) {
           result.append(" [term ").append(col).append(':').append(under_state[row].under_term[col]).append(']');
@@ -11,35 +11,22 @@ public class parse_reduce_row {
 
   /** Simple constructor. Note: this should not be used until the number
    *  of terminals in the grammar has been established.
+   *
+   * @param context the context of the grammar.
    */
-  public parse_reduce_row()
+  public parse_reduce_row(GeneratorContext context)
     {
-      /* make sure the size is set */
-      if (_size <= 0 )  _size = non_terminal.number();
-
       /* allocate the array */
-      under_non_term = new lalr_state[size()];
+      under_non_term = new lalr_state[non_terminal.number(context)];
     }
 
-  /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
-  /*-----------------------------------------------------------*/
-
-  /** Number of columns (non terminals) in every row. */
-  protected static int _size = 0;
-
-  /** Number of columns (non terminals) in every row. */
-  public static int size() {return _size;}
-   
-  //Hm Added clear  to clear all static fields
-  public static void clear() {
-      _size = 0;
-  }
-  
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
   /** Actual entries for the row. */
   public lalr_state[] under_non_term;
+
+  /** Number of columns (non terminals) in the row. */
+  public int size() {return under_non_term.length;}
 }
\ No newline at end of file
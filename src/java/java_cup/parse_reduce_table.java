@@ -21,15 +21,17 @@ public class parse_reduce_table {
    * Simple constructor. Note: all terminals, non-terminals, and productions must
    * already have been entered, and the viable prefix recognizer should have been
    * constructed before this is called.
+   * 
+   * @param context the context of the grammar.
    */
-  public parse_reduce_table() {
+  public parse_reduce_table(GeneratorContext context) {
     /* determine how many states we are working with */
-    _num_states = lalr_state.number();
+    _num_states = lalr_state.number(context);
 
     /* allocate the array and fill it in with empty rows */
     under_state = new parse_reduce_row[_num_states];
     for (int i = 0; i < _num_states; i++)
-      under_state[i] = new parse_reduce_row();
+      under_state[i] = new parse_reduce_row(context);
   }
 
   /*-----------------------------------------------------------*/
@@ -62,7 +64,7 @@ public class parse_reduce_table {
     for (int row = 0; row < num_states(); row++) {
       result.append("From state #").append(row).append('\n');
       cnt = 0;
-      for (int col = 0; col < parse_reduce_row.size(); col++) {
+      for (int col = 0; col < under_state[row].size(); col++) {
         /* pull out the table entry */
         goto_st = under_state[row].under_non_term[col];
 
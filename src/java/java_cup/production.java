@@ -64,6 +64,7 @@ public class production {
     action_part tail_action;
     String declare_str;
     int rightlen = rhs_l;
+    boolean has_code = action_str != null;
 
     /* remember the length */
     if (rhs_l >= 0)
@@ -77,6 +78,9 @@ public class production {
     if (lhs_sym == null)
       throw new internal_error("Attempt to construct a production with a null LHS");
 
+    /* the production belongs to the context of its lhs */
+    _context = lhs_sym.context();
+
     /*
      * I'm not translating labels anymore, I'm adding code to declare labels as
      * valid variables. This way, the users code string is untouched 6/96 frankf
@@ -94,7 +98,7 @@ public class production {
     }
 
     /* get the generated declaration code for the necessary labels. */
-    declare_str = declare_labels(rhs_parts, rightlen, action_str);
+    declare_str = declare_labels(rhs_parts, rightlen, action_code(rhs_parts, rhs_l, action_str));
 
     if (action_str == null)
       action_str = declare_str;
@@ -114,6 +118,9 @@ public class production {
     tail_action = strip_trailing_action(rhs_parts, _rhs_length);
     if (tail_action != null)
       _rhs_length--;
+    if (tail_action != null && tail_action.code_string() != null && !tail_action.code_string().trim().isEmpty())
+      has_code = true;
+    _has_action_code = has_code;
 
     /*
      * Why does this run through the right hand side happen over and over? here a
@@ -150,10 +157,10 @@ public class production {
     remove_embedded_actions();
 
     /* assign an index */
-    _index = next_index++;
+    _index = _context._next_production++;
 
-    /* put us in the global collection of productions */
-    _all.put(_index, this);
+    /* put us in the collection of productions of the context */
+    _context._productions.put(_index, this);
 
     /* put us in the production list of the lhs non terminal */
     lhs_sym.add_production(this);
@@ -197,44 +204,40 @@ public class production {
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
+  /*--- Static Methods ----------------------------------------*/
   /*-----------------------------------------------------------*/
 
-  /**
-   * Table of all productions. Elements are stored using their index as the key.
-   */
-  protected static MonotonicIntObjectArrayMap<production> _all = new MonotonicIntObjectArrayMap<>();
-
-  /** Access to all productions. */
-  public static Iterable<production> all() {
-    return _all.values();
-  }
-
-  /** Lookup a production by index. */
-  public static production find(int indx) {
-    return _all.get(indx);
+  /** Access to all productions of a context. */
+  public static Iterable<production> all(GeneratorContext context) {
+    return context._productions.values();
   }
 
-  // Hm Added clear to clear all static fields
-  public static void clear() {
-    _all.clear();
-    next_index = 0;
+  /** Lookup a production of a context by index. */
+  public static production find(GeneratorContext context, int indx) {
+    return context._productions.get(indx);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Total number of productions. */
-  public static int number() {
-    return _all.size();
+  /** Total number of productions of a context. */
+  public static int number(GeneratorContext context) {
+    return context._productions.size();
   }
 
-  /** Static counter for assigning unique index numbers. */
-  protected static int next_index;
-
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** The context of the production, that of its LHS. */
+  protected final GeneratorContext _context;
+
+  /** The context of the production, that of its LHS. */
+  public GeneratorContext context() {
+    return _context;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** The left hand side non-terminal. */
   protected symbol_part _lhs;
 
@@ -306,6 +309,22 @@ public class production {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * Does the production have action code of its own? The generated label
+   * declarations that every action starts with don't count.
+   */
+  protected boolean _has_action_code;
+
+  /**
+   * Does the production have action code of its own? The generated label
+   * declarations that every action starts with don't count.
+   */
+  public boolean has_action_code() {
+    return _has_action_code;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** Index number of the production. */
   protected int _index;
 
@@ -403,29 +422,49 @@ public class production {
    * @author frankf
    */
   protected String make_declaration(String labelname, String stack_type, int offset) {
+    return make_declaration(labelname, stack_type, offset, true, true);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Return label declaration code. The Location handles are costly with packed
+   * locations (see ComplexSymbolFactory), so they can be left out when the
+   * action doesn't use them.
+   * 
+   * @param labelname  the label name
+   * @param stack_type the stack type of label?
+   * @param xleft      declare the labelxleft handle (with -locations).
+   * @param xright     declare the labelxright handle (with -locations).
+   */
+  protected String make_declaration(String labelname, String stack_type, int offset, boolean xleft,
+      boolean xright) {
     String ret;
+    emit emit = _context.emit();
 
     /* Put in the left/right value labels */
-    if (emit.lr_values()) {
+    if (emit.lr_values() && emit.value_stack()) {
+      String index = "[" + emit.pre("top") + (offset == 0 ? "" : "-" + offset) + "];\n";
+      ret = "\t\tint " + labelname + "left = " + emit.pre("lefts") + index + "\t\tint " + labelname + "right = "
+          + emit.pre("rights") + index;
+    } else if (emit.lr_values()) {
       if (!emit.locations())
         ret = "\t\tint " + labelname + "left = (" + emit.pre("stack") +
         // TUM 20050917
             ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ").left;\n"
             + "\t\tint " + labelname + "right = (" + emit.pre("stack") +
             ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ").right;\n";
-      else
-        ret = "\t\tLocation " + labelname + "xleft = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)"
-            + emit.pre("stack") +
-            ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ").xleft;\n"
-            + "\t\tLocation " + labelname + "xright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)"
-            + emit.pre("stack") +
-            ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ").xright;\n";
+      else {
+        String sym = "((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)" + emit.pre("stack") +
+            ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ")";
+        ret = (xleft ? "\t\tLocation " + labelname + "xleft = " + sym + ".getLeft();\n" : "")
+            + (xright ? "\t\tLocation " + labelname + "xright = " + sym + ".getRight();\n" : "");
+      }
     } else
       ret = "";
 
     /* otherwise, just declare label. */
-    return ret + "\t\t" + stack_type + " " + labelname + " = " + emit.pre("stack") +
-        ((offset == 0) ? ".peek()" : (".elementAt(" + emit.pre("top") + "-" + offset + ")")) + ".<"+stack_type+">value();\n";
+    return ret + "\t\t" + stack_type + " " + labelname + " = " + emit.stack_value(stack_type, offset) + ";\n";
 
   }
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -435,13 +474,14 @@ public class production {
    * 
    * @param rhs          array of RHS parts.
    * @param rhs_len      how much of rhs to consider valid.
-   * @param final_action the final action string of the production.
+   * @param final_action the action code the labels are declared for.
    */
   protected String declare_labels(production_part[] rhs, int rhs_len, String final_action) {
     StringBuilder declaration = new StringBuilder();
 
     symbol_part part;
     int pos;
+    boolean xmlactions = _context.emit()._xmlactions;
 
     /* walk down the parts and extract the labels */
     for (pos = 0; pos < rhs_len; pos++) {
@@ -449,10 +489,13 @@ public class production {
         part = (symbol_part) rhs[pos];
         String label;
         /* if it has a label, make declaration! */
-        if ((label = part.label()) != null || emit._xmlactions) {
+        if ((label = part.label()) != null || xmlactions) {
           if (label == null)
             label = part.the_symbol().name() + pos;
-          declaration.append(make_declaration(label, part.the_symbol().stack_type(), rhs_len - pos - 1));
+          /* the XML actions put the locations of terminals into the tree */
+          boolean xml = xmlactions && !part.the_symbol().is_non_term();
+          declaration.append(make_declaration(label, part.the_symbol().stack_type(), rhs_len - pos - 1,
+              xml || uses(final_action, label + "xleft"), xml || uses(final_action, label + "xright")));
         }
       }
     }
@@ -461,6 +504,44 @@ public class production {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * Collect the code of all the actions of a production, to find the labels
+   * they use.
+   * 
+   * @param rhs        array of RHS parts.
+   * @param rhs_len    how much of rhs to consider valid.
+   * @param action_str the action string passed for the production, or null.
+   */
+  protected static String action_code(production_part[] rhs, int rhs_len, String action_str) {
+    StringBuilder code = new StringBuilder(action_str == null ? "" : action_str);
+    for (int pos = 0; pos < rhs_len; pos++)
+      if (rhs[pos].is_action() && ((action_part) rhs[pos]).code_string() != null)
+        code.append('\n').append(((action_part) rhs[pos]).code_string());
+    return code.toString();
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Does some code mention an identifier? This is a textual check, so it may
+   * find the identifier in a comment or a string too.
+   * 
+   * @param code the code to look at, may be null.
+   * @param id   the identifier to look for.
+   */
+  protected static boolean uses(String code, String id) {
+    if (code == null)
+      return false;
+    for (int i = code.indexOf(id); i >= 0; i = code.indexOf(id, i + 1)) {
+      int end = i + id.length();
+      if ((i == 0 || !is_id_char(code.charAt(i - 1))) && (end == code.length() || !is_id_char(code.charAt(end))))
+        return true;
+    }
+    return false;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * Helper routine to merge adjacent actions in a set of RHS parts
    * 
@@ -570,9 +651,9 @@ public class production {
     for (int act_loc = 0; act_loc < rhs_length(); act_loc++)
       if (rhs(act_loc).is_action()) {
 
-        declare_str = declare_labels(_rhs, act_loc, "");
+        declare_str = declare_labels(_rhs, act_loc, ((action_part) rhs(act_loc)).code_string());
         /* create a new non terminal for the action production */
-        new_nt = non_terminal.create_new(null, lhs().the_symbol().stack_type()); // TUM 20060608 embedded actions patch
+        new_nt = non_terminal.create_new(_context, null, lhs().the_symbol().stack_type()); // TUM 20060608 embedded actions patch
         new_nt.is_embedded_action = true; /* 24-Mar-1998, CSA */
 
         /* create a new production with just the action */
@@ -0,0 +1,264 @@
+package java_cup.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a Scanner on a thread of its own, so that scanning and parsing a large
+ * input each take a core. The tokens are handed to the parser in batches,
+ * through a ring of a fixed number of batches: the scanner is held up when
+ * the parser falls behind by all of them.
+ *
+ * <pre>
+ * try (AsyncScanner scanner = new AsyncScanner(new Lexer(reader))) {
+ *     result = new parser(scanner, factory).parse();
+ * }
+ * </pre>
+ *
+ * <p>The ring has a single producer, the scanning thread, and a single
+ * consumer, the parser, and needs no locks: a side only waits (spinning
+ * briefly, then parking) when the ring is full or empty. The scanner stops
+ * after the EOF token. Whatever the scanner throws is thrown to the parser
+ * once it has read all the tokens before, and so is an InterruptedException
+ * if the scanning thread is interrupted, e.g. by shutting down its
+ * executor.</p>
+ *
+ * <p>The scanner must not depend on the state of the parse, since it runs
+ * ahead of it. Neither may it take its Symbols from a factory that recycles
+ * them (see {@link SymbolFactory#recycles()}), since such a factory must
+ * only be used by one thread. A parse that ends before the end of the input
+ * should close() its AsyncScanner to stop the scanning thread.</p>
+ */
+public class AsyncScanner implements BatchScanner, AutoCloseable {
+
+    /** Default number of tokens in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** Default number of batches in the ring. */
+    public static final int DEFAULT_BATCHES = 16;
+
+    /** How often a side checks the ring again before it parks. */
+    private static final int SPINS = 100;
+
+    private final Scanner inner;
+    private final int eof_sym;
+
+    /* the ring of batches and the number of tokens in each */
+    private final Symbol[][] ring;
+    private final int[] counts;
+    private final int mask;
+
+    /** The number of batches published by the producer. */
+    private volatile long tail;
+
+    /** The number of batches the consumer is done with. */
+    private volatile long head;
+
+    /** The consumer's position in the batch at head. */
+    private int pos;
+
+    /** Set by the producer once it has published its last batch. */
+    private volatile boolean done;
+
+    /** What the scanner threw, if anything. */
+    private volatile Throwable failure;
+
+    /** Set by close() to stop the producer. */
+    private volatile boolean closed;
+
+    /* the threads parked until the other side moves, or null */
+    private volatile Thread waiting_producer, waiting_consumer;
+
+    /**
+     * Start scanning on a new daemon thread, with EOF as terminal 0.
+     *
+     * @param inner the scanner to run.
+     */
+    public AsyncScanner(Scanner inner) {
+        this(inner, 0);
+    }
+
+    /**
+     * Start scanning on a new daemon thread.
+     *
+     * @param inner   the scanner to run.
+     * @param eof_sym the terminal of the EOF token, see lr_parser.EOF_sym().
+     */
+    public AsyncScanner(Scanner inner, int eof_sym) {
+        this(inner, eof_sym, DEFAULT_BATCH_SIZE, DEFAULT_BATCHES, null);
+    }
+
+    /**
+     * Start scanning.
+     *
+     * @param inner      the scanner to run.
+     * @param eof_sym    the terminal of the EOF token, see lr_parser.EOF_sym().
+     * @param batch_size the most tokens in a batch.
+     * @param batches    the number of batches in the ring, rounded up to a
+     *                   power of two.
+     * @param executor   runs the scanner, e.g. on a virtual thread; null for a
+     *                   new daemon thread.
+     */
+    public AsyncScanner(Scanner inner, int eof_sym, int batch_size, int batches, Executor executor) {
+        if (batch_size < 1 || batches < 1 || batches > 1 << 20)
+            throw new IllegalArgumentException("Bad ring of " + batches + " batches of " + batch_size);
+        this.inner = inner;
+        this.eof_sym = eof_sym;
+        int size = Integer.highestOneBit(batches);
+        if (size < batches)
+            size <<= 1;
+        ring = new Symbol[size][batch_size];
+        counts = new int[size];
+        mask = size - 1;
+        if (executor != null)
+            executor.execute(this::produce);
+        else {
+            Thread t = new Thread(this::produce, "AsyncScanner");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @Override
+    public Symbol next_token() throws Exception {
+        long h = head;
+        if (!await_batch(h))
+            return end();
+        int slot = (int) h & mask;
+        Symbol t = ring[slot][pos];
+        ring[slot][pos++] = null;
+        if (pos == counts[slot])
+            next_batch(h);
+        return t;
+    }
+
+    @Override
+    public int next_tokens(Symbol[] buf) throws Exception {
+        long h = head;
+        if (!await_batch(h)) {
+            end();
+            return 0;
+        }
+        int slot = (int) h & mask;
+        int n = Math.min(buf.length, counts[slot] - pos);
+        System.arraycopy(ring[slot], pos, buf, 0, n);
+        Arrays.fill(ring[slot], pos, pos + n, null);
+        pos += n;
+        if (pos == counts[slot])
+            next_batch(h);
+        return n;
+    }
+
+    /**
+     * Stop scanning. The parser reads the end of the input from now on, the
+     * scanning thread ends soon after.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        wake(waiting_producer);
+    }
+
+    /** The producer: scan the input into the ring. */
+    private void produce() {
+        try {
+            boolean eof = false;
+            while (!eof) {
+                long t = tail;
+                if (!await_space(t))
+                    return;
+                Symbol[] batch = ring[(int) t & mask];
+                int n = 0;
+                /* hand over what there is when the consumer is waiting */
+                do {
+                    Symbol s = inner.next_token();
+                    batch[n++] = s;
+                    eof = s == null || s.sym == eof_sym;
+                } while (!eof && n < batch.length && waiting_consumer == null);
+                counts[(int) t & mask] = n;
+                tail = t + 1;
+                wake(waiting_consumer);
+            }
+        } catch (Throwable e) {
+            failure = e;
+            /* leave the interrupt for whoever owns the thread */
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+        } finally {
+            done = true;
+            wake(waiting_consumer);
+        }
+    }
+
+    /**
+     * Wait until the ring has room for another batch.
+     *
+     * @return false if the scanner is to stop instead.
+     * @throws InterruptedException if the scanning thread is interrupted.
+     */
+    private boolean await_space(long t) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException("Scanner interrupted");
+        for (int spins = 0; t - head == ring.length; spins++) {
+            if (closed)
+                return false;
+            if (spins < SPINS)
+                Thread.onSpinWait();
+            else {
+                waiting_producer = Thread.currentThread();
+                if (t - head == ring.length && !closed)
+                    LockSupport.park(this);
+                waiting_producer = null;
+                if (Thread.interrupted())
+                    throw new InterruptedException("Scanner interrupted waiting for the parser");
+            }
+        }
+        return !closed;
+    }
+
+    /**
+     * Wait until the batch after h batches has been published.
+     *
+     * @return false if there are no more batches.
+     */
+    private boolean await_batch(long h) throws InterruptedException {
+        for (int spins = 0; tail == h; spins++) {
+            if (done && tail == h || closed)
+                return false;
+            if (spins < SPINS)
+                Thread.onSpinWait();
+            else {
+                waiting_consumer = Thread.currentThread();
+                if (tail == h && !done)
+                    LockSupport.park(this);
+                waiting_consumer = null;
+                if (Thread.interrupted())
+                    throw new InterruptedException("Interrupted waiting for the scanner");
+            }
+        }
+        return !closed;
+    }
+
+    /** Hand the batch after h batches back to the producer. */
+    private void next_batch(long h) {
+        pos = 0;
+        head = h + 1;
+        wake(waiting_producer);
+    }
+
+    /** At the end of the input, throw what the scanner threw, if anything. */
+    private Symbol end() throws Exception {
+        Throwable e = failure;
+        if (e == null || closed)
+            return null;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw e instanceof Exception ? (Exception) e : new Exception(e);
+    }
+
+    private static void wake(Thread t) {
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+}
@@ -0,0 +1,27 @@
+package java_cup.runtime;
+
+/**
+ * A Scanner that can hand out many tokens per call. The default implementation
+ * of <code>lr_parser.scan()</code> reads the tokens of a BatchScanner in
+ * batches, saving a call through the Scanner interface for every token. A
+ * parser with a "scan with" clause reads its tokens as that clause says.
+ *
+ * <p>The parser reads ahead of its parse by up to a batch of tokens, so a
+ * scanner whose state is changed by the actions of the parser (e.g. to tell
+ * type names from other identifiers) must not be batched. The tokens read
+ * ahead belong to the parser until it is given another scanner with
+ * <code>setScanner()</code> or <code>reset()</code>.</p>
+ */
+public interface BatchScanner extends Scanner {
+  /**
+   * Read the next tokens of the input. This should return as soon as it has
+   * some tokens, rather than wait for input to fill the whole buffer, so an
+   * interactive parse isn't held up.
+   *
+   * @param buf the buffer to put the tokens in, from buf[0] on.
+   * @return the number of tokens read, at least one unless the input has
+   *         ended. End-of-file can be indicated by an EOF Symbol, by a
+   *         <code>null</code> token, or by returning 0.
+   */
+  int next_tokens(Symbol[] buf) throws java.lang.Exception;
+}
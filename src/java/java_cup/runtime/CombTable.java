@@ -0,0 +1,130 @@
+package java_cup.runtime;
+
+import java.util.Arrays;
+
+/**
+ * A parse table stored in row-displacement ("comb") form. Every row of the
+ * table is overlaid onto one shared slot array at its own base offset, so that
+ * looking up an entry is a single array access plus one ownership check instead
+ * of a search through the row.
+ *
+ * <p>The table is built by the parser generator (see the <tt>-comb_tables</tt>
+ * option) and handed to the runtime in the packed <code>short[][]</code> form
+ * produced by <code>lr_parser.unpackFromStrings()</code>. The packed form has
+ * six rows:</p>
+ * <ol>
+ *   <li>the high 16 bits of the base offset of every state,</li>
+ *   <li>the low 16 bits of the base offset of every state,</li>
+ *   <li>the default entry of every state,</li>
+ *   <li>the owning state of every slot (-1 for unused slots),</li>
+ *   <li>the entry stored in every slot,</li>
+ *   <li>a single entry holding the number of columns (symbols) of the table.</li>
+ * </ol>
+ *
+ * <p>The generator sizes the slot array so that <code>base + symbol</code> is
+ * always within bounds for every symbol index of the table.</p>
+ *
+ * @see java_cup.runtime.lr_parser#get_action
+ * @see java_cup.runtime.lr_parser#get_reduce
+ */
+public final class CombTable {
+
+    /** Base offset of every state in the slot arrays. */
+    private final int[] base;
+
+    /** Default entry of every state. */
+    private final short[] deflt;
+
+    /** Owning state of every slot, -1 if the slot is unused. */
+    private final short[] check;
+
+    /** Entry stored in every slot. */
+    private final short[] next;
+
+    /** Number of columns (symbols) of the table. */
+    private final int width;
+
+    /**
+     * Build a comb table from its packed representation.
+     *
+     * @param packed the six packed rows described in the class comment.
+     */
+    public CombTable(short[][] packed) {
+        short[] hi = packed[0];
+        short[] lo = packed[1];
+        base = new int[hi.length];
+        for (int i = 0; i < base.length; i++)
+            base[i] = (hi[i] << 16) | (lo[i] & 0xFFFF);
+        deflt = packed[2];
+        check = packed[3];
+        next = packed[4];
+        width = packed[5][0];
+    }
+
+    /** Number of states (rows) in the table. */
+    public int num_states() {
+        return base.length;
+    }
+
+    /** Number of columns (symbols) of the table. */
+    public int num_symbols() {
+        return width;
+    }
+
+    /**
+     * Fetch an entry of the table.
+     *
+     * @param state the state (row) of the entry.
+     * @param sym   the symbol (column) of the entry.
+     * @return the stored entry or the default of the row.
+     */
+    public short get(int state, int sym) {
+        int idx = base[state] + sym;
+        return check[idx] == state ? next[idx] : deflt[state];
+    }
+
+    /**
+     * Fetch an entry of the table, ignoring the default of the row.
+     *
+     * @param state  the state (row) of the entry.
+     * @param sym    the symbol (column) of the entry.
+     * @param absent the value to return if the entry is not stored.
+     * @return the stored entry, or <code>absent</code> if there is none.
+     */
+    public short get_explicit(int state, int sym, short absent) {
+        int idx = base[state] + sym;
+        return check[idx] == state ? next[idx] : absent;
+    }
+
+    /** Default entry of a state. */
+    public short default_of(int state) {
+        return deflt[state];
+    }
+
+    /**
+     * Rebuild the table in the compacted row form of
+     * <code>lr_parser.action_table()</code> and <code>reduce_table()</code>:
+     * the stored entries of every row as (symbol, entry) pairs, followed by -1
+     * and the default of the row.
+     *
+     * @return a new array of rows, one per state.
+     */
+    public short[][] to_rows() {
+        short[][] rows = new short[base.length][];
+        short[] row = new short[2 * width + 2];
+        for (int state = 0; state < base.length; state++) {
+            int n = 0;
+            for (int sym = 0; sym < width; sym++) {
+                int idx = base[state] + sym;
+                if (check[idx] == state) {
+                    row[n++] = (short) sym;
+                    row[n++] = next[idx];
+                }
+            }
+            row[n++] = -1;
+            row[n++] = deflt[state];
+            rows[state] = Arrays.copyOf(row, n);
+        }
+        return rows;
+    }
+}
@@ -15,6 +15,70 @@ import javax.xml.stream.XMLStreamWriter;
  * interface for creating new symbols
  ***************************************************/
 public class ComplexSymbolFactory implements SymbolFactory {
+
+    /** The free ComplexSymbols, or null if this factory doesn't recycle. */
+    private final SymbolPool pool;
+
+    /** Does this factory pack the locations of its Symbols? */
+    private final boolean packed;
+
+    /** Create a factory that allocates a new ComplexSymbol every time. */
+    public ComplexSymbolFactory() {
+        this(false);
+    }
+
+    /**
+     * Create a factory that allocates a new ComplexSymbol every time.
+     *
+     * <p>With packed locations the Symbols don't keep the Location objects
+     * they are made from, but store their lines, columns and offsets in a few
+     * primitive fields next to the name of their compilation unit.
+     * getLeft() and getRight() make a new Location whenever they are called,
+     * the fields xleft and xright stay null. This saves a lot of memory
+     * when the Symbols are kept, e.g. in a syntax tree, while their locations
+     * are only needed for error messages. Generated actions (see
+     * <tt>-locations</tt>) only ask for the locations they use. Locations
+     * that can't be packed (lines beyond 1048574, columns beyond 4094, or a
+     * unit of null) are kept as they are.</p>
+     *
+     * @param packed_locations should the locations be packed.
+     */
+    public ComplexSymbolFactory(boolean packed_locations) {
+        pool = null;
+        packed = packed_locations;
+    }
+
+    /**
+     * Create a factory that recycles the ComplexSymbols the parser hands back,
+     * see {@link SymbolFactory#recycle}. Such a factory must only serve one
+     * parse at a time, and the scanner must create its tokens with it. Nothing
+     * but a ScannerBuffer may keep the tokens once the parser has them: the
+     * parser leaves the tokens of a buffer alone, but recycles all others.
+     *
+     * @param pool_size the most free Symbols to keep for reuse.
+     */
+    public ComplexSymbolFactory(int pool_size) {
+        this(pool_size, false);
+    }
+
+    /**
+     * Create a factory that recycles the ComplexSymbols the parser hands back,
+     * and may pack their locations, see {@link #ComplexSymbolFactory(int)} and
+     * {@link #ComplexSymbolFactory(boolean)}.
+     *
+     * @param pool_size        the most free Symbols to keep for reuse.
+     * @param packed_locations should the locations be packed.
+     */
+    public ComplexSymbolFactory(int pool_size, boolean packed_locations) {
+        pool = new SymbolPool(pool_size);
+        packed = packed_locations;
+    }
+
+    /** Does this factory pack the locations of its Symbols? */
+    public boolean packsLocations() {
+        return packed;
+    }
+
     public static class Location {
         private String unit = "unknown";
         private int line, column, offset = -1;
@@ -168,6 +232,8 @@ public class ComplexSymbolFactory implements SymbolFactory {
      */
     public static class ComplexSymbol extends Symbol {
         protected String name;
+
+        /** The locations, null with packed locations: use getLeft() and getRight(). */
         public Location xleft, xright;
 
         public ComplexSymbol(String name, int id) {
@@ -182,9 +248,10 @@ public class ComplexSymbolFactory implements SymbolFactory {
 
         @Override
         public String toString() {
-            if (xleft == null || xright == null)
+            Location left = getLeft(), right = getRight();
+            if (left == null || right == null)
                 return "Symbol: " + name;
-            return "Symbol: " + name + " (" + xleft + " - " + xright + ")";
+            return "Symbol: " + name + " (" + left + " - " + right + ")";
         }
 
         public String getName() {
@@ -199,8 +266,8 @@ public class ComplexSymbolFactory implements SymbolFactory {
         public ComplexSymbol(String name, int id, Symbol left, Symbol right) {
             super(id, left, right);
             this.name = name;
-            xleft = ((ComplexSymbol) left).xleft;
-            xright = ((ComplexSymbol) right).xright;
+            xleft = ((ComplexSymbol) left).getLeft();
+            xright = ((ComplexSymbol) right).getRight();
         }
 
         public ComplexSymbol(String name, int id, Location left, Location right) {
@@ -213,15 +280,14 @@ public class ComplexSymbolFactory implements SymbolFactory {
         public ComplexSymbol(String name, int id, Symbol left, Symbol right, Object value) {
             super(id, left.left, right.right, value);
             this.name = name;
-            xleft = ((ComplexSymbol) left).xleft;
-            xright = ((ComplexSymbol) right).xright;
+            xleft = ((ComplexSymbol) left).getLeft();
+            xright = ((ComplexSymbol) right).getRight();
         }
 
         public ComplexSymbol(String name, int id, Symbol left, Object value) {
             super(id, left.right, left.right, value);
             this.name = name;
-            xleft = ((ComplexSymbol) left).xright;
-            xright = ((ComplexSymbol) left).xright;
+            xleft = xright = ((ComplexSymbol) left).getRight();
         }
 
         public ComplexSymbol(String name, int id, Location left, Location right, Object value) {
@@ -238,6 +304,67 @@ public class ComplexSymbolFactory implements SymbolFactory {
         public Location getRight() {
             return xright;
         }
+
+        /** Reinitialize a ComplexSymbol taken from a SymbolPool. */
+        ComplexSymbol reuse(String name, int id, Location left, Location right, int l, int r, Object value) {
+            reuse(id, l, r, value);
+            this.name = name;
+            xleft = left;
+            xright = right;
+            return this;
+        }
+    }
+
+    /**
+     * A ComplexSymbol with packed locations, see
+     * {@link ComplexSymbolFactory#ComplexSymbolFactory(boolean)}.
+     */
+    static final class PackedSymbol extends ComplexSymbol {
+        /** The compilation unit, or null without locations. */
+        String unit;
+
+        /* the packed left and right locations */
+        long pleft, pright;
+
+        PackedSymbol() {
+            super(null, -1);
+        }
+
+        PackedSymbol pack(String name, int id, String unit, long pleft, long pright, int l, int r, Object value) {
+            reuse(name, id, null, null, l, r, value);
+            this.unit = unit;
+            this.pleft = pleft;
+            this.pright = pright;
+            return this;
+        }
+
+        @Override
+        public Location getLeft() {
+            return unit == null ? null : unpack(unit, pleft);
+        }
+
+        @Override
+        public Location getRight() {
+            return unit == null ? null : unpack(unit, pright);
+        }
+    }
+
+    /**
+     * Pack the line, column and offset of a Location into a long: 20 bits of
+     * line, 12 bits of column and 32 bits of offset, each one more than its
+     * value, so unknown (-1) parts pack as 0.
+     *
+     * @return the packed Location, or -1 if it doesn't fit.
+     */
+    private static long pack(Location l) {
+        if (l.line < -1 || l.line >= 0xFFFFF || l.column < -1 || l.column >= 0xFFF || l.offset < -1)
+            return -1;
+        return (long) (l.line + 1) << 44 | (long) (l.column + 1) << 32 | (l.offset + 1L);
+    }
+
+    private static Location unpack(String unit, long p) {
+        return new Location(unit, (int) (p >>> 44) - 1, (int) (p >>> 32 & 0xFFF) - 1,
+                (int) ((p & 0xFFFFFFFFL) - 1));
     }
 
     // Factory methods
@@ -246,7 +373,12 @@ public class ComplexSymbolFactory implements SymbolFactory {
      * boundaries; this is used for terminals with values!
      */
     public Symbol newSymbol(String name, int id, Location left, Location right, Object value) {
-        return new ComplexSymbol(name, id, left, right, value);
+        if (packed)
+            return packed(name, id, left, right, left.offset, right.offset, value);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, left, right, value);
+        return s.reuse(name, id, left, right, left.offset, right.offset, value);
     }
 
     /**
@@ -254,30 +386,117 @@ public class ComplexSymbolFactory implements SymbolFactory {
      * boundaries; this is used for terminals without values!
      */
     public Symbol newSymbol(String name, int id, Location left, Location right) {
-        return new ComplexSymbol(name, id, left, right);
+        if (packed)
+            return packed(name, id, left, right, left.offset, right.offset, null);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, left, right);
+        return s.reuse(name, id, left, right, left.offset, right.offset, null);
     }
     @Override
     public Symbol newSymbol(String name, int id, Symbol left, Object value) {
-        return new ComplexSymbol(name, id, left, value);
+        if (packed)
+            return packed(name, id, left, true, left, left.right, left.right, value);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, left, value);
+        Location l = ((ComplexSymbol) left).getRight();
+        return s.reuse(name, id, l, l, left.right, left.right, value);
     }
     @Override
     public Symbol newSymbol(String name, int id, Symbol left, Symbol right, Object value) {
-        return new ComplexSymbol(name, id, left, right, value);
+        if (packed)
+            return packed(name, id, left, false, right, left.left, right.right, value);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, left, right, value);
+        return s.reuse(name, id, ((ComplexSymbol) left).getLeft(), ((ComplexSymbol) right).getRight(), left.left,
+                right.right, value);
     }
     @Override
     public Symbol newSymbol(String name, int id, Symbol left, Symbol right) {
-        return new ComplexSymbol(name, id, left, right);
+        if (packed)
+            return packed(name, id, left, false, right, left.left, right.right, null);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, left, right);
+        return s.reuse(name, id, ((ComplexSymbol) left).getLeft(), ((ComplexSymbol) right).getRight(), left.left,
+                right.right, null);
     }
     @Override
     public Symbol newSymbol(String name, int id) {
-        return new ComplexSymbol(name, id);
+        if (packed)
+            return packed_symbol().pack(name, id, null, 0, 0, -1, -1, null);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id);
+        return s.reuse(name, id, null, null, -1, -1, null);
     }
     @Override
     public Symbol newSymbol(String name, int id, Object value) {
-        return new ComplexSymbol(name, id, value);
+        if (packed)
+            return packed_symbol().pack(name, id, null, 0, 0, -1, -1, value);
+        ComplexSymbol s = pooled();
+        if (s == null)
+            return new ComplexSymbol(name, id, value);
+        return s.reuse(name, id, null, null, -1, -1, value);
     }
     @Override
     public Symbol startSymbol(String name, int id, int state) {
         return new ComplexSymbol(name, id, state);
     }
-}
\ No newline at end of file
+    @Override
+    public boolean recycles() {
+        return pool != null;
+    }
+    @Override
+    public void recycle(Symbol s) {
+        /* only the kind this factory makes, other subclasses may carry more */
+        if (pool != null && s.getClass() == (packed ? PackedSymbol.class : ComplexSymbol.class)) {
+            ComplexSymbol cs = (ComplexSymbol) s;
+            cs.xleft = cs.xright = null;
+            pool.give(cs);
+        }
+    }
+
+    private ComplexSymbol pooled() {
+        return pool == null ? null : (ComplexSymbol) pool.take();
+    }
+
+    private PackedSymbol packed_symbol() {
+        PackedSymbol s = (PackedSymbol) pooled();
+        return s != null ? s : new PackedSymbol();
+    }
+
+    /** Make a Symbol with packed locations, unless they can't be packed. */
+    private Symbol packed(String name, int id, Location left, Location right, int l, int r, Object value) {
+        long pl = pack(left), pr = pack(right);
+        if (pl == -1 || pr == -1 || left.unit == null || !left.unit.equals(right.unit))
+            return unpacked(name, id, left, right, l, r, value);
+        return packed_symbol().pack(name, id, left.unit, pl, pr, l, r, value);
+    }
+
+    /**
+     * Make a Symbol with packed locations spanning from the left (or right)
+     * end of one Symbol to the right end of another.
+     */
+    private Symbol packed(String name, int id, Symbol left, boolean from_right, Symbol right, int l, int r,
+            Object value) {
+        if (left instanceof PackedSymbol && right instanceof PackedSymbol) {
+            PackedSymbol pl = (PackedSymbol) left, pr = (PackedSymbol) right;
+            if (pl.unit != null && pl.unit.equals(pr.unit))
+                return packed_symbol().pack(name, id, pl.unit, from_right ? pl.pright : pl.pleft, pr.pright, l, r,
+                        value);
+        }
+        Location ll = from_right ? ((ComplexSymbol) left).getRight() : ((ComplexSymbol) left).getLeft();
+        Location rl = ((ComplexSymbol) right).getRight();
+        if (ll == null || rl == null)
+            return unpacked(name, id, ll, rl, l, r, value);
+        return packed(name, id, ll, rl, l, r, value);
+    }
+
+    private static ComplexSymbol unpacked(String name, int id, Location left, Location right, int l, int r,
+            Object value) {
+        return new ComplexSymbol(name, id, value).reuse(name, id, left, right, l, r, value);
+    }
+}
@@ -15,6 +15,8 @@ package java_cup.runtime;
  ***************************************************/
 @Deprecated
 public class DefaultSymbolFactory implements SymbolFactory{
+    /** The free Symbols, or null if this factory doesn't recycle. */
+    private final SymbolPool pool;
     // Factory methods
     /**
      * DefaultSymbolFactory for CUP.
@@ -28,24 +30,38 @@ public class DefaultSymbolFactory implements SymbolFactory{
      */
     @Deprecated 
     public DefaultSymbolFactory(){
+        pool = null;
+    }
+    /**
+     * DefaultSymbolFactory that recycles the Symbols the parser hands back,
+     * see {@link SymbolFactory#recycle}. Such a factory must only serve one
+     * parse at a time, and the scanner must create its tokens with it.
+     *
+     * @param pool_size the most free Symbols to keep for reuse.
+     * @deprecated as of CUP v11a
+     * replaced by the new java_cup.runtime.ComplexSymbolFactory
+     */
+    @Deprecated
+    public DefaultSymbolFactory(int pool_size){
+        pool = new SymbolPool(pool_size);
     }
     @Override
     public Symbol newSymbol(String name ,int id, Symbol left, Symbol right, Object value){
-        return new Symbol(id,left,right,value);
+        return make(id,left.left,right.right,value);
     }
     @Override
     public Symbol newSymbol(String name ,int id, Symbol left, Object value){
-        return new Symbol(id,left,value);
+        return make(id,left.right,left.right,value);
     }
     @Override
     public Symbol newSymbol(String name, int id, Symbol left, Symbol right){
-        return new Symbol(id,left,right);
+        return make(id,left.left,right.right,null);
     }
     public Symbol newSymbol(String name, int id, int left, int right, Object value){
-        return new Symbol(id,left,right,value);
+        return make(id,left,right,value);
     }
     public Symbol newSymbol(String name, int id, int left, int right){
-        return new Symbol(id,left,right);
+        return make(id,left,right,null);
     }
     @Override
     public Symbol startSymbol(String name, int id, int state){
@@ -53,10 +69,26 @@ public class DefaultSymbolFactory implements SymbolFactory{
     }
     @Override
     public Symbol newSymbol(String name, int id){
-        return new Symbol(id);
+        return make(id,-1,-1,null);
     }
     @Override
     public Symbol newSymbol(String name, int id, Object value){
-        return new Symbol(id,value);
+        return make(id,-1,-1,value);
+    }
+    @Override
+    public boolean recycles(){
+        return pool != null;
+    }
+    @Override
+    public void recycle(Symbol s){
+        /* only plain Symbols, subclasses may carry more */
+        if (pool != null && s.getClass() == Symbol.class)
+            pool.give(s);
+    }
+    private Symbol make(int id, int left, int right, Object value){
+        Symbol s = pool == null ? null : pool.take();
+        if (s == null)
+            return new Symbol(id,left,right,value);
+        return s.reuse(id,left,right,value);
     }
 }
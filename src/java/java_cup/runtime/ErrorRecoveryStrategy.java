@@ -0,0 +1,32 @@
+package java_cup.runtime;
+
+/**
+ * A way to recover from syntax errors, set on a parser with
+ * {@link lr_parser#setErrorRecoveryStrategy}. Parsers without a strategy
+ * recover in panic mode (see <code>lr_parser.panic_mode_recovery()</code>).
+ *
+ * <p>A strategy is called right after syntax_error() has reported the error
+ * on the current lookahead of the parser. To let the parse go on it changes
+ * the parse stack and the lookahead into a configuration the parser can
+ * continue from, reading further input through scan(). A strategy must read
+ * all the input it needs before it runs any actions or modifies any Symbol
+ * on the stack; a {@link PushParser} repeats the recovery from the start if
+ * it runs out of fed tokens.</p>
+ *
+ * <p>Strategies should keep no state of their own, so that one instance can
+ * serve many parsers at once.</p>
+ *
+ * @see RepairRecovery
+ */
+public interface ErrorRecoveryStrategy {
+
+    /**
+     * Recover from a syntax error on the current lookahead of a parser.
+     *
+     * @param parser the parser that detected the error.
+     * @param debug  should we produce debugging messages as we recover.
+     * @return true if the parse can go on, false if the error can't be
+     *         recovered from.
+     */
+    boolean recover(lr_parser parser, boolean debug) throws Exception;
+}
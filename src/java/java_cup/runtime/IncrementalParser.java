@@ -0,0 +1,495 @@
+package java_cup.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Reparses a document after an edit while reusing the unchanged subtrees of
+ * the previous parse, so that the work of a reparse grows with the size of the
+ * edit instead of the size of the document.
+ *
+ * <p>Every parse records the tokens it read and, for every reduced Symbol, the
+ * number of tokens it spans, the parse state it was reduced on top of and the
+ * state its goto led to. After an edit the caller replaces the damaged range of
+ * tokens with the ones the scanner produces for the edited text. The parser
+ * then parses the new token sequence, but whenever it is in the state a
+ * recorded Symbol started from, at a token that Symbol started at, and neither
+ * the tokens of the Symbol nor the token following it were damaged, the parse
+ * of these tokens is known to end in that very Symbol. It is pushed as a whole,
+ * with all of its value (an <code>XMLElement</code> tree with
+ * <tt>-xmlactions</tt>), without running any of its actions again.</p>
+ *
+ * <p>The tokens are kept in a gap buffer that an edit moves to the damaged
+ * range, and the records of the Symbols hang off the token they start at, with
+ * lengths instead of positions. So neither the tokens nor the records of the
+ * parts of the document an edit leaves alone are copied, renumbered or
+ * indexed again: a reparse costs the tokens between the last edit and this
+ * one, the tokens it relexes and the Symbols it pushes on its way to the end of
+ * the document.</p>
+ *
+ * <pre>
+ * IncrementalParser&lt;parser&gt; inc = new IncrementalParser&lt;&gt;(new parser(null, factory));
+ * Symbol tree = inc.parse(new Lexer(reader));
+ * ... // tokens 12 to 14 were edited, relex them
+ * tree = inc.reparse(12, 15, new Lexer(new StringReader(edited_text)));
+ * </pre>
+ *
+ * <p>Reuse relies on actions computing their RESULT from the values of the
+ * right hand side without modifying them, and without side effects that have
+ * to be repeated. The parser must read its tokens with the default scan()
+ * method. Reused tokens and Symbols keep the positions of the parse that
+ * created them. A parse that has to recover from a syntax error records
+ * nothing, so the reparse after it starts from scratch, and after a parse that
+ * threw an exception only parse() can be called.</p>
+ *
+ * @param <P> the type of the parser
+ */
+public class IncrementalParser<P extends lr_parser> {
+
+    private final P parser;
+
+    /*
+     * The tokens of the last parse, EOF last, in a gap buffer: token i is at
+     * tokens[i] before the gap and at tokens[i + gap_size] from gap_start on.
+     * nodes[] runs parallel to tokens[] and holds the records of the Symbols
+     * starting at each token, outermost (and longest) first.
+     */
+    private Symbol[] tokens = new Symbol[64];
+    private Node[] nodes = new Node[64];
+    private int token_count, gap_start, gap_size = 64;
+
+    /** Did the last parse record its Symbols? */
+    private boolean recorded;
+
+    /* the edit being parsed: new tokens from edit_first on are damaged */
+    private int edit_first;
+
+    /* the parse in progress */
+    private Source source;
+    private final IntArrayStack starts = new IntArrayStack();
+    private int reused_tokens;
+
+    /**
+     * Create an incremental parser.
+     *
+     * @param parser the parser to parse with.
+     */
+    public IncrementalParser(P parser) {
+        this.parser = parser;
+    }
+
+    /** The parser used by this incremental parser. */
+    public P parser() {
+        return parser;
+    }
+
+    /**
+     * Parse a complete document from scratch.
+     *
+     * @param s the scanner to read the document from.
+     * @return the result of the parse, as with {@link lr_parser#parse()}.
+     */
+    public Symbol parse(Scanner s) throws Exception {
+        clear();
+        recorded = false;
+        return run(new Source(s, true), false);
+    }
+
+    /**
+     * Parse the document again after an edit, reusing whatever the edit left
+     * untouched.
+     *
+     * @param first   index of the first damaged token of the last parse.
+     * @param end     index after the last damaged token of the last parse; equal
+     *                to <code>first</code> if tokens were only inserted. The
+     *                final EOF token can't be damaged.
+     * @param damaged scanner returning the tokens replacing the damaged ones,
+     *                followed by EOF. It is read as the parse reaches them.
+     * @return the result of the parse, as with {@link lr_parser#parse()}.
+     */
+    public Symbol reparse(int first, int end, Scanner damaged) throws Exception {
+        if (first < 0 || end < first || end >= token_count)
+            throw new IllegalArgumentException("Bad damaged token range " + first + ".." + end + " of "
+                    + token_count + " tokens");
+
+        /* drop the damaged tokens, the new ones are read into the gap */
+        move_gap(first);
+        int removed = end - first;
+        Arrays.fill(tokens, gap_start + gap_size, gap_start + gap_size + removed, null);
+        Arrays.fill(nodes, gap_start + gap_size, gap_start + gap_size + removed, null);
+        gap_size += removed;
+        token_count -= removed;
+
+        edit_first = first;
+        return run(new Source(damaged, false), recorded);
+    }
+
+    /** The number of tokens of the last parse, including the final EOF. */
+    public int token_count() {
+        return token_count;
+    }
+
+    /**
+     * Get a token of the last parse, for instance to find the tokens an edit
+     * damaged from their positions.
+     *
+     * @param index the index of the token.
+     */
+    public Symbol token(int index) {
+        if (index < 0 || index >= token_count)
+            throw new IndexOutOfBoundsException("Token " + index + " of " + token_count);
+        return tokens[slot(index)];
+    }
+
+    /** The number of tokens the last parse took over within reused Symbols. */
+    public int reused_tokens() {
+        return reused_tokens;
+    }
+
+    /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+    /**
+     * Run the parse loop of lr_parser.parse(), recording the reduced Symbols
+     * and pushing reusable ones of the last parse where possible.
+     */
+    private Symbol run(Source src, boolean reuse) throws Exception {
+        lr_parser p = parser;
+        Symbol lhs_sym = null;
+        int act, state, la;
+        boolean recording = true;
+
+        source = src;
+        reused_tokens = 0;
+        starts.clear();
+
+        p.setScanner(source);
+        p.begin_parse();
+        starts.push(0);
+        boolean lazy = p.consistent_reduce != null;
+        boolean done = false;
+        try {
+            /* get the first token, unless we only fetch lookahead when needed */
+            p.cur_token = lazy ? null : p.scan();
+            while (!p._done_parsing) {
+                /* current state is always on the top of the stack */
+                state = p.stack.peek().parse_state;
+
+                /* the index of the lookahead token, whether it was read or not */
+                la = p.cur_token == null ? source.pos : source.pos - 1;
+
+                /* push a Symbol of the last parse if it covers what comes next */
+                if (reuse && recording) {
+                    Node n = reusable(la, state);
+                    if (n != null) {
+                        push_reused(n, la);
+
+                        /* it stands for the reduction that ended in it */
+                        lhs_sym = n.sym;
+                        source.pos = la + n.length;
+                        p.cur_token = lazy ? null : p.scan();
+                        continue;
+                    }
+                }
+
+                /* consistent states reduce without even looking at the lookahead */
+                if (!lazy || (act = p.consistent_reduce[state]) == 0) {
+                    if (p.cur_token == null)
+                        p.cur_token = p.scan();
+
+                    /* Check current token for freshness. */
+                    lr_parser.check_fresh(p.cur_token);
+
+                    /* look up action out of the current state with the current input */
+                    act = p.get_action(state, p.cur_token.sym);
+                }
+
+                /* decode the action -- > 0 encodes shift */
+                if (act > 0) {
+                    /* shift to the encoded state by pushing it on the stack */
+                    p.cur_token.parse_state = act - 1;
+                    p.cur_token.used_by_parser = true;
+                    p.stack.push(p.cur_token);
+                    p.tos++;
+                    if (recording) {
+                        /* the Symbols of the last parse starting here are gone */
+                        nodes[slot(la)] = null;
+                        starts.push(la);
+                    }
+
+                    /* advance to the next Symbol (lazily if we may not need it) */
+                    p.cur_token = lazy ? null : p.scan();
+                }
+                /* if its less than zero, then it encodes a reduce action */
+                else if (act < 0) {
+                    int prod = (-act) - 1;
+
+                    /* perform the action for the reduce */
+                    lhs_sym = p.do_action(prod, p, p.stack, p.tos);
+
+                    /* look up information about the production */
+                    int lhs_sym_num = p.production_tab[prod][0];
+                    int handle_size = p.production_tab[prod][1];
+
+                    /* where the reduced Symbol starts */
+                    int start = la;
+                    if (recording && handle_size > 0)
+                        start = starts.elementAt(starts.size() - handle_size);
+
+                    /* pop the handle off the stack */
+                    for (int i = 0; i < handle_size; i++) {
+                        p.stack.pop();
+                        p.tos--;
+                        if (recording)
+                            starts.pop();
+                    }
+
+                    /* look up the state to go to from the one popped back to */
+                    int pre = p.stack.peek().parse_state;
+                    act = p.get_reduce(pre, lhs_sym_num);
+
+                    /* the goto may have skipped a chain of unit reductions (none on accept) */
+                    if (p.entry_sym != null && act >= 0 && p.entry_sym[act] != lhs_sym_num)
+                        lhs_sym = p.unit_symbol(p.entry_sym[act], lhs_sym);
+
+                    /* shift to that state */
+                    lhs_sym.parse_state = act;
+                    lhs_sym.used_by_parser = true;
+                    p.stack.push(lhs_sym);
+                    p.tos++;
+
+                    /* record everything but empty Symbols and the accepting one */
+                    if (recording) {
+                        if (la > start && prod != p.start_production()) {
+                            int at = slot(start);
+                            nodes[at] = new Node(lhs_sym, la - start, pre, act, nodes[at]);
+                        }
+                        starts.push(start);
+                    }
+                }
+                /* finally if the entry is zero, we have an error */
+                else {
+                    /* the stack no longer follows the tokens */
+                    recording = false;
+
+                    /* call user syntax error reporting routine */
+                    p.syntax_error(p.cur_token);
+
+                    /* try to error recover */
+                    if (!p.error_recovery(false)) {
+                        /* if that fails give up with a fatal syntax error */
+                        p.unrecovered_syntax_error(p.cur_token);
+
+                        /* just in case that wasn't fatal enough, end parse */
+                        p.done_parsing();
+
+                        /* with a recycling factory lhs_sym may be recycled already */
+                        if (p.drops_unrecovered_result())
+                            lhs_sym = null;
+                    } else {
+                        lhs_sym = p.stack.peek();
+                    }
+                }
+            }
+            done = true;
+        } finally {
+            finish(done, recording);
+        }
+        return lhs_sym;
+    }
+
+    /**
+     * Take over the tokens and Symbols of a parse that just ended. Only a parse
+     * that gave up on a syntax error leaves tokens of its scanner unread, which
+     * are read now, since the next reparse starts from scratch and needs them.
+     * After a parse that threw an exception there is nothing left to reparse.
+     */
+    private void finish(boolean done, boolean recording) throws Exception {
+        Source src = source;
+        source = null;
+        if (!done) {
+            clear();
+            recorded = false;
+            return;
+        }
+        while (src.scanner != null)
+            src.read();
+        recorded = recording;
+    }
+
+    /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+    /** The index in tokens[] and nodes[] of a token. */
+    private int slot(int index) {
+        return index < gap_start ? index : index + gap_size;
+    }
+
+    /** Forget all tokens and records. */
+    private void clear() {
+        tokens = new Symbol[64];
+        nodes = new Node[64];
+        token_count = 0;
+        gap_start = 0;
+        gap_size = tokens.length;
+    }
+
+    /**
+     * Move the gap in front of a token, moving the tokens (and their records)
+     * between its old and its new place to the other side of it.
+     */
+    private void move_gap(int index) {
+        if (index < gap_start) {
+            int n = gap_start - index;
+            System.arraycopy(tokens, index, tokens, index + gap_size, n);
+            System.arraycopy(nodes, index, nodes, index + gap_size, n);
+            Arrays.fill(tokens, index, index + Math.min(n, gap_size), null);
+            Arrays.fill(nodes, index, index + Math.min(n, gap_size), null);
+        } else if (index > gap_start) {
+            int n = index - gap_start;
+            System.arraycopy(tokens, gap_start + gap_size, tokens, gap_start, n);
+            System.arraycopy(nodes, gap_start + gap_size, nodes, gap_start, n);
+            int from = Math.max(index, gap_start + gap_size);
+            Arrays.fill(tokens, from, index + gap_size, null);
+            Arrays.fill(nodes, from, index + gap_size, null);
+        }
+        gap_start = index;
+    }
+
+    /** Insert a token at the gap, growing the buffer if the gap is used up. */
+    private void insert(Symbol t) {
+        if (gap_size == 0) {
+            int length = tokens.length * 2;
+            int after = tokens.length - gap_start;
+            Symbol[] more_tokens = Arrays.copyOf(tokens, length);
+            Node[] more_nodes = Arrays.copyOf(nodes, length);
+            System.arraycopy(tokens, gap_start, more_tokens, length - after, after);
+            System.arraycopy(nodes, gap_start, more_nodes, length - after, after);
+            Arrays.fill(more_tokens, gap_start, length - after, null);
+            Arrays.fill(more_nodes, gap_start, length - after, null);
+            gap_size = length - tokens.length;
+            tokens = more_tokens;
+            nodes = more_nodes;
+        }
+        tokens[gap_start] = t;
+        nodes[gap_start] = null;
+        gap_start++;
+        gap_size--;
+        token_count++;
+    }
+
+    /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+    /**
+     * Find a Symbol of the last parse that the parse in progress is bound to
+     * reduce from here.
+     *
+     * @param la    the index of the current lookahead token, which may not
+     *              have been read yet.
+     * @param state the state on top of the stack.
+     * @return the record of the Symbol, or null if there is none.
+     */
+    private Node reusable(int la, int state) {
+        /* a token still to be read from the scanner is relexed, or past the end */
+        if (la >= token_count || la == gap_start && source.scanner != null)
+            return null;
+
+        /* relexed tokens have no records */
+        Node n = nodes[slot(la)];
+
+        /* before the edit the token after the Symbol must be undamaged, too */
+        if (la < edit_first)
+            while (n != null && la + n.length >= edit_first)
+                n = n.inner;
+        for (; n != null; n = n.inner)
+            if (n.pre == state)
+                return n;
+        return null;
+    }
+
+    /**
+     * Push a Symbol of the last parse. The records of the Symbols it contains
+     * stay where they are, only the ones enclosing it are dropped.
+     */
+    private void push_reused(Node n, int la) {
+        nodes[slot(la)] = n;
+        Symbol sym = n.sym;
+        sym.parse_state = n.go;
+        sym.used_by_parser = true;
+        parser.stack.push(sym);
+        parser.tos++;
+        starts.push(la);
+        reused_tokens += n.length;
+    }
+
+    /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+    /**
+     * The record of a reduced Symbol: how many tokens it spans, the state it was
+     * reduced on top of and the state its goto led to.
+     */
+    private static final class Node {
+        final Symbol sym;
+        final int length, pre, go;
+
+        /** The next (inner) Symbol starting at the same token. */
+        final Node inner;
+
+        Node(Symbol sym, int length, int pre, int go, Node inner) {
+            this.sym = sym;
+            this.length = length;
+            this.pre = pre;
+            this.go = go;
+            this.inner = inner;
+        }
+    }
+
+    /**
+     * The tokens of a parse, served to the parser as its scanner. Tokens are
+     * read from the underlying scanner (if any) into the gap on demand, up to
+     * its EOF, so the tokens of a scanner over a whole document end up at the
+     * end of the buffer and the tokens of a scanner over an edit where the edit
+     * took the damaged ones out.
+     */
+    private final class Source implements Scanner {
+        private Scanner scanner;
+
+        /** Does the EOF of the scanner end the document? */
+        private final boolean keep_eof;
+
+        /** Index of the next token to serve. */
+        private int pos;
+
+        Source(Scanner scanner, boolean keep_eof) {
+            this.scanner = scanner;
+            this.keep_eof = keep_eof;
+        }
+
+        @Override
+        public Symbol next_token() throws Exception {
+            /* the tokens of the scanner come first */
+            while (pos == gap_start && scanner != null)
+                read();
+
+            /* like a scanner keep returning EOF at the end */
+            if (pos == token_count) {
+                Symbol eof = tokens[slot(token_count - 1)];
+                return parser.getSymbolFactory().newSymbol("EOF", parser.EOF_sym(), eof, eof, null);
+            }
+            Symbol t = tokens[slot(pos++)];
+            /* tokens of the last parse were used by it */
+            t.used_by_parser = false;
+            return t;
+        }
+
+        /** Read one more token from the scanner into the gap. */
+        void read() throws Exception {
+            Symbol t = scanner.next_token();
+            if (t == null)
+                t = parser.getSymbolFactory().newSymbol("END_OF_FILE", parser.EOF_sym());
+            if (t.sym == parser.EOF_sym()) {
+                scanner = null;
+                if (!keep_eof)
+                    return;
+            }
+            insert(t);
+        }
+    }
+}
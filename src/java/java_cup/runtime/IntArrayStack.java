@@ -28,6 +28,12 @@ public class IntArrayStack {
         data = new int[size];
     }
 
+    public IntArrayStack(IntArrayStack other) {
+        data = new int[Math.max(other.size + 4, 4)];
+        System.arraycopy(other.data, 0, data, 0, other.size);
+        size = other.size;
+    }
+
     public void push(int value) {
         int index = size;
         ensureCapacity(++size);
@@ -87,7 +93,7 @@ public class IntArrayStack {
     public void ensureCapacity(int size) {
         int oldLength = data.length;
         if (oldLength < size) {
-            int newSize = Math.max(size - oldLength, oldLength >> 1);
+            int newSize = Math.max(size, oldLength + (oldLength >> 1) + 1);
             int[] newData = new int[newSize];
             System.arraycopy(data, 0, newData, 0, oldLength);
             data = newData;
@@ -0,0 +1,255 @@
+package java_cup.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses an input that is a long sequence of independent units, such as the
+ * statements of an SQL script or the classes of a program, on many cores at
+ * once. The tokens of the input are split into chunks of whole units at
+ * synchronization terminals, the terminals that end (or start) a unit and
+ * appear nowhere else, and every chunk is parsed as an input of its own by a
+ * parser of a {@link ParserPool}, on a ForkJoinPool. The results of the
+ * chunks are returned in the order of the input.
+ *
+ * <pre>
+ * ParallelParser&lt;parser&gt; pp = new ParallelParser&lt;&gt;(pool, new int[] {sym.SEMI}, true);
+ * List&lt;Symbol&gt; units = pp.parse(new Lexer(reader));
+ * </pre>
+ *
+ * <p>The chunks are parsed on speculation: if any of them has a syntax
+ * error, or throws, the whole input is parsed again by one parser, to report
+ * the errors and recover from them exactly as a plain parse would, and the
+ * result is a list of just its result. The grammar must therefore accept any
+ * sequence of units as an input, and the actions must not depend on the
+ * order the units are parsed in, nor on state shared between parsers. The
+ * parsers must not recycle Symbols their factory makes for others.</p>
+ *
+ * @param <P> the type of the parsers
+ */
+public class ParallelParser<P extends lr_parser> {
+
+    /** Default number of tokens below which a chunk isn't split any further. */
+    public static final int DEFAULT_MIN_CHUNK = 4096;
+
+    private final ParserPool<P> pool;
+    private final boolean[] sync;
+    private final boolean split_after;
+    private final int min_chunk;
+    private final ForkJoinPool executor;
+
+    /**
+     * Create a parallel parser that runs on the common ForkJoinPool.
+     *
+     * @param pool           the parsers to parse with.
+     * @param sync_terminals the terminals to split the input at.
+     * @param split_after    split after the synchronization terminals (which
+     *                       end the units), or else before them (which start
+     *                       the units).
+     */
+    public ParallelParser(ParserPool<P> pool, int[] sync_terminals, boolean split_after) {
+        this(pool, sync_terminals, split_after, DEFAULT_MIN_CHUNK, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a parallel parser.
+     *
+     * @param pool           the parsers to parse with.
+     * @param sync_terminals the terminals to split the input at.
+     * @param split_after    split after the synchronization terminals (which
+     *                       end the units), or else before them (which start
+     *                       the units).
+     * @param min_chunk      the fewest tokens in a chunk.
+     * @param executor       the pool to parse the chunks on.
+     */
+    public ParallelParser(ParserPool<P> pool, int[] sync_terminals, boolean split_after, int min_chunk,
+            ForkJoinPool executor) {
+        if (min_chunk < 1)
+            throw new IllegalArgumentException("min_chunk must be positive");
+        int max = -1;
+        for (int t : sync_terminals)
+            max = Math.max(max, t);
+        sync = new boolean[max + 1];
+        for (int t : sync_terminals)
+            sync[t] = true;
+        this.pool = pool;
+        this.split_after = split_after;
+        this.min_chunk = min_chunk;
+        this.executor = executor;
+    }
+
+    /**
+     * Read all the tokens of a scanner, up to EOF, and parse them.
+     *
+     * @param s the scanner to read the input from.
+     * @return the results of the chunks, in order.
+     */
+    public List<Symbol> parse(Scanner s) throws Exception {
+        P p = pool.acquire(s);
+        Symbol[] tokens = new Symbol[1024];
+        int n = 0;
+        try {
+            int eof = p.EOF_sym();
+            for (Symbol t = p.scan(); ; t = p.scan()) {
+                if (n == tokens.length)
+                    tokens = Arrays.copyOf(tokens, 2 * n);
+                tokens[n++] = t;
+                if (t.sym == eof)
+                    break;
+            }
+        } finally {
+            pool.release(p);
+        }
+        return parse(tokens, n);
+    }
+
+    /**
+     * Parse the tokens of an input.
+     *
+     * @param tokens the tokens, none of them parsed before.
+     * @param n      the number of tokens, the last of which may be EOF.
+     * @return the results of the chunks, in order.
+     */
+    public List<Symbol> parse(Symbol[] tokens, int n) throws Exception {
+        if (n < 0 || n > tokens.length)
+            throw new IllegalArgumentException("Bad token count " + n + " of " + tokens.length);
+        int[] cuts = split(tokens, n);
+        if (cuts.length > 2) {
+            List<Symbol> results = parse_chunks(tokens, cuts);
+            if (results != null)
+                return results;
+
+            /* let the tokens pass as fresh again */
+            for (int i = 0; i < n; i++)
+                tokens[i].used_by_parser = false;
+        }
+        return Collections.singletonList(parse_chunk(tokens, 0, n, null));
+    }
+
+    /**
+     * Find where the chunks start. Every chunk, the last one included, gets
+     * more than min_chunk tokens, so the last one is more than the EOF token
+     * after a sync terminal.
+     *
+     * @return the index of the first token of each chunk, followed by n.
+     */
+    private int[] split(Symbol[] tokens, int n) {
+        int[] cuts = new int[16];
+        int count = 1, start = 0;
+        for (int i = min_chunk; n - i > min_chunk; i++) {
+            int t = split_after ? tokens[i - 1].sym : tokens[i].sym;
+            if (t >= 0 && t < sync.length && sync[t] && i - start >= min_chunk) {
+                if (count + 1 == cuts.length)
+                    cuts = Arrays.copyOf(cuts, 2 * cuts.length);
+                cuts[count++] = start = i;
+            }
+        }
+        cuts[count++] = n;
+        return Arrays.copyOf(cuts, count);
+    }
+
+    /**
+     * Parse the chunks concurrently.
+     *
+     * @return their results, or null if any of them failed.
+     */
+    private List<Symbol> parse_chunks(Symbol[] tokens, int[] cuts) throws InterruptedException {
+        Abort abort = new Abort();
+        List<ForkJoinTask<Symbol>> tasks = new ArrayList<>(cuts.length - 1);
+        for (int c = 0; c + 1 < cuts.length; c++) {
+            int from = cuts[c], to = cuts[c + 1];
+            tasks.add(executor.submit(() -> parse_chunk(tokens, from, to, abort)));
+        }
+        List<Symbol> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Symbol> task : tasks)
+            try {
+                results.add(task.get());
+            } catch (ExecutionException e) {
+                abort.set = true;
+            }
+        return abort.set ? null : results;
+    }
+
+    /**
+     * Parse the tokens from <code>from</code> to <code>to</code> as an input of
+     * their own, on speculation unless abort is null.
+     */
+    private Symbol parse_chunk(Symbol[] tokens, int from, int to, Abort abort) throws Exception {
+        Slice slice = new Slice(tokens, from, to, abort);
+        P p = pool.acquire(slice);
+        slice.parser = p;
+        p.speculative = abort != null;
+        try {
+            return p.parse();
+        } finally {
+            p.speculative = false;
+            pool.release(p);
+        }
+    }
+
+    /** Tells the speculative parses to stop. */
+    private static final class Abort {
+        volatile boolean set;
+    }
+
+    /** The tokens of a chunk, followed by EOF. */
+    private static final class Slice implements BatchScanner {
+        private final Symbol[] tokens;
+        private final int end;
+        private final Abort abort;
+        private int pos;
+        private lr_parser parser;
+
+        Slice(Symbol[] tokens, int from, int to, Abort abort) {
+            this.tokens = tokens;
+            this.pos = from;
+            this.end = to;
+            this.abort = abort;
+        }
+
+        @Override
+        public Symbol next_token() {
+            if (abort != null && abort.set)
+                throw Mismatch.INSTANCE;
+            if (pos < end)
+                return tokens[pos++];
+            return eof();
+        }
+
+        @Override
+        public int next_tokens(Symbol[] buf) {
+            if (abort != null && abort.set)
+                throw Mismatch.INSTANCE;
+            if (pos == end) {
+                buf[0] = eof();
+                return 1;
+            }
+            int n = Math.min(buf.length, end - pos);
+            System.arraycopy(tokens, pos, buf, 0, n);
+            pos += n;
+            return n;
+        }
+
+        /** An EOF token after the last token of the chunk. */
+        private Symbol eof() {
+            if (end == 0)
+                return parser.getSymbolFactory().newSymbol("EOF", parser.EOF_sym());
+            return parser.getSymbolFactory().newSymbol("EOF", parser.EOF_sym(), tokens[end - 1], (Object) null);
+        }
+    }
+
+    /** Thrown to end a speculative parse that failed. */
+    static final class Mismatch extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Mismatch INSTANCE = new Mismatch();
+
+        private Mismatch() {
+            super("The chunk does not parse", null, false, false);
+        }
+    }
+}
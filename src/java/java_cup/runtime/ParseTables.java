@@ -0,0 +1,257 @@
+package java_cup.runtime;
+
+/**
+ * The complete set of parse tables of a generated parser. Instances are
+ * immutable and shared by all parsers of the same class: generated parsers
+ * build theirs once in a static initializer and register it for their class,
+ * so constructing a parser or starting a parse never touches the packed
+ * table representation again.
+ *
+ * <p>Either the row form or the row-displacement form of the action and
+ * reduce-goto tables is present, depending on how the parser was generated.
+ * The arrays are shared, not copied, and must not be modified.</p>
+ *
+ * @see java_cup.runtime.lr_parser#parse_tables
+ */
+public final class ParseTables {
+
+    /** Tables registered for each parser class. */
+    private static final ClassValue<ParseTables[]> REGISTRY = new ClassValue<ParseTables[]>() {
+        @Override
+        protected ParseTables[] computeValue(Class<?> type) {
+            return new ParseTables[1];
+        }
+    };
+
+    private final short[][] production_table;
+    private final short[][] action_table;
+    private final short[][] reduce_table;
+    private final CombTable action_comb;
+    private final CombTable reduce_comb;
+    private final short[] consistent;
+    private final short[] entry_syms;
+    private final short[][] expected;
+
+    /** The row form of the tables, rebuilt from the comb form on demand. */
+    private volatile short[][] action_rows, reduce_rows;
+
+    /** Bundle the tables collected by a builder. */
+    private ParseTables(Builder b) {
+        if (b.production_table == null)
+            throw new IllegalArgumentException("Missing production table");
+        if (b.action_table == null && b.action_comb == null)
+            throw new IllegalArgumentException("Missing action table");
+        if (b.reduce_table == null && b.reduce_comb == null)
+            throw new IllegalArgumentException("Missing reduce-goto table");
+        production_table = b.production_table;
+        action_table = b.action_table;
+        reduce_table = b.reduce_table;
+        action_comb = b.action_comb;
+        reduce_comb = b.reduce_comb;
+        consistent = b.consistent;
+        entry_syms = b.entry_syms;
+        expected = b.expected;
+    }
+
+    /**
+     * Register the tables of a parser class. Only the first registration of a
+     * class takes effect.
+     *
+     * @param owner  the parser class.
+     * @param tables the tables of the parser class.
+     * @return the tables registered for the class.
+     */
+    public static ParseTables register(Class<? extends lr_parser> owner, ParseTables tables) {
+        ParseTables[] slot = REGISTRY.get(owner);
+        synchronized (slot) {
+            if (slot[0] == null)
+                slot[0] = tables;
+            return slot[0];
+        }
+    }
+
+    /**
+     * Look up the tables registered for a parser class.
+     *
+     * @param owner the parser class.
+     * @return the registered tables, or null if there are none.
+     */
+    public static ParseTables lookup(Class<? extends lr_parser> owner) {
+        ParseTables[] slot = REGISTRY.get(owner);
+        synchronized (slot) {
+            return slot[0];
+        }
+    }
+
+    /**
+     * Get the tables of a parser, collecting and registering them from its table
+     * accessors if its class has not registered any.
+     *
+     * @param parser the parser.
+     */
+    static ParseTables of(lr_parser parser) {
+        ParseTables tables = lookup(parser.getClass());
+        if (tables != null)
+            return tables;
+        return register(parser.getClass(), new Builder().production_table(parser.production_table())
+                .action_table(parser.action_table()).reduce_table(parser.reduce_table())
+                .action_comb_table(parser.action_comb_table()).reduce_comb_table(parser.reduce_comb_table()).build());
+    }
+
+    /** The production table. */
+    public short[][] production_table() {
+        return production_table;
+    }
+
+    /** The action table in row form, or null. */
+    public short[][] action_table() {
+        return action_table;
+    }
+
+    /** The reduce-goto table in row form, or null. */
+    public short[][] reduce_table() {
+        return reduce_table;
+    }
+
+    /**
+     * The action table in row form, rebuilt from the row-displacement form (and
+     * kept) the first time it is asked for if the parser only has that.
+     */
+    public short[][] action_rows() {
+        if (action_table != null)
+            return action_table;
+        short[][] rows = action_rows;
+        if (rows == null)
+            action_rows = rows = action_comb.to_rows();
+        return rows;
+    }
+
+    /**
+     * The reduce-goto table in row form, rebuilt from the row-displacement form
+     * (and kept) the first time it is asked for if the parser only has that.
+     */
+    public short[][] reduce_rows() {
+        if (reduce_table != null)
+            return reduce_table;
+        short[][] rows = reduce_rows;
+        if (rows == null)
+            reduce_rows = rows = reduce_comb.to_rows();
+        return rows;
+    }
+
+    /** The action table in row-displacement form, or null. */
+    public CombTable action_comb_table() {
+        return action_comb;
+    }
+
+    /** The reduce-goto table in row-displacement form, or null. */
+    public CombTable reduce_comb_table() {
+        return reduce_comb;
+    }
+
+    /**
+     * The encoded reduce action of every consistent state (one whose only action
+     * is a single reduce) and 0 for all other states, or null if the parser
+     * always fetches the lookahead.
+     */
+    public short[] consistent_reduces() {
+        return consistent;
+    }
+
+    /**
+     * The symbol every state is entered on (-1 for states entered on a
+     * terminal), or null if the gotos of the parser don't skip unit reductions.
+     */
+    public short[] entry_symbols() {
+        return entry_syms;
+    }
+
+    /**
+     * The terminals every state has a shift or reduce action for, before the
+     * most frequent reduce of the state became its default. Terminal
+     * <code>t</code> of state <code>s</code> is bit <code>t &amp; 15</code> of
+     * <code>expected_terminals()[s][t &gt;&gt; 4]</code>. Null for parsers
+     * generated without the sets.
+     */
+    public short[][] expected_terminals() {
+        return expected;
+    }
+
+    /**
+     * Collects the tables of a parser for a ParseTables. The production table
+     * and one form each of the action and the reduce-goto table are required,
+     * all other tables are optional. The setters are named like the accessors
+     * of ParseTables and return the builder, to set the tables in a chain:
+     *
+     * <pre>
+     * new ParseTables.Builder().production_table(prods).action_table(actions).reduce_table(gotos).build()
+     * </pre>
+     */
+    public static final class Builder {
+        private short[][] production_table;
+        private short[][] action_table;
+        private short[][] reduce_table;
+        private CombTable action_comb;
+        private CombTable reduce_comb;
+        private short[] consistent;
+        private short[] entry_syms;
+        private short[][] expected;
+
+        /** Set the production table. */
+        public Builder production_table(short[][] table) {
+            production_table = table;
+            return this;
+        }
+
+        /** Set the action table in row form. */
+        public Builder action_table(short[][] table) {
+            action_table = table;
+            return this;
+        }
+
+        /** Set the reduce-goto table in row form. */
+        public Builder reduce_table(short[][] table) {
+            reduce_table = table;
+            return this;
+        }
+
+        /** Set the action table in row-displacement form. */
+        public Builder action_comb_table(CombTable table) {
+            action_comb = table;
+            return this;
+        }
+
+        /** Set the reduce-goto table in row-displacement form. */
+        public Builder reduce_comb_table(CombTable table) {
+            reduce_comb = table;
+            return this;
+        }
+
+        /** Set the reduce actions of the consistent states, see consistent_reduces(). */
+        public Builder consistent_reduces(short[] table) {
+            consistent = table;
+            return this;
+        }
+
+        /** Set the symbol every state is entered on, see entry_symbols(). */
+        public Builder entry_symbols(short[] table) {
+            entry_syms = table;
+            return this;
+        }
+
+        /** Set the terminals every state has an action for, see expected_terminals(). */
+        public Builder expected_terminals(short[][] table) {
+            expected = table;
+            return this;
+        }
+
+        /**
+         * Bundle the tables set so far.
+         *
+         * @throws IllegalArgumentException if a required table is missing.
+         */
+        public ParseTables build() {
+            return new ParseTables(this);
+        }
+    }
+}
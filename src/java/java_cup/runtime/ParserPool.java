@@ -0,0 +1,110 @@
+package java_cup.runtime;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * A pool of reusable parsers for high-throughput parsing of many small inputs.
+ * Parsers are created on demand by the given factory, and
+ * {@link lr_parser#reset(Scanner) reset} whenever they are handed out or
+ * returned. A pooled parser therefore keeps its parse stack capacity and its
+ * action object from one parse to the next.
+ *
+ * <p>The pool is safe for use by multiple threads; a parser itself must only
+ * be used by one thread at a time, between {@link #acquire} and
+ * {@link #release}.</p>
+ *
+ * <pre>
+ * ParserPool&lt;parser&gt; pool = new ParserPool&lt;&gt;(() -&gt; new parser(null, factory));
+ * ...
+ * Symbol result = pool.parse(new Lexer(reader));
+ * </pre>
+ *
+ * @param <P> the type of the pooled parsers
+ */
+public class ParserPool<P extends lr_parser> {
+
+    /** Default number of idle parsers kept by a pool. */
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private final Supplier<? extends P> factory;
+    private final ArrayDeque<P> idle;
+    private final int max_idle;
+
+    /**
+     * Create a pool that keeps up to {@value #DEFAULT_MAX_IDLE} idle parsers.
+     *
+     * @param factory creates a new parser whenever the pool is empty.
+     */
+    public ParserPool(Supplier<? extends P> factory) {
+        this(factory, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param factory  creates a new parser whenever the pool is empty.
+     * @param max_idle the maximum number of idle parsers to keep.
+     */
+    public ParserPool(Supplier<? extends P> factory, int max_idle) {
+        if (max_idle < 0)
+            throw new IllegalArgumentException("max_idle must not be negative");
+        this.factory = factory;
+        this.max_idle = max_idle;
+        this.idle = new ArrayDeque<>(max_idle);
+    }
+
+    /**
+     * Take a parser from the pool (or create a new one) and reset it to read
+     * from the given scanner.
+     *
+     * @param s the scanner to parse from.
+     */
+    public P acquire(Scanner s) {
+        P parser;
+        synchronized (idle) {
+            parser = idle.pollFirst();
+        }
+        if (parser == null)
+            parser = factory.get();
+        parser.reset(s);
+        return parser;
+    }
+
+    /**
+     * Return a parser to the pool. The parser drops its references to the
+     * scanner and the Symbols of its last parse; it is discarded if the pool
+     * already holds enough idle parsers.
+     *
+     * @param parser a parser obtained from {@link #acquire}.
+     */
+    public void release(P parser) {
+        parser.reset(null);
+        synchronized (idle) {
+            if (idle.size() < max_idle)
+                idle.offerFirst(parser);
+        }
+    }
+
+    /**
+     * Parse the input of a scanner with a pooled parser.
+     *
+     * @param s the scanner to parse from.
+     * @return the result of {@link lr_parser#parse()}.
+     */
+    public Symbol parse(Scanner s) throws Exception {
+        P parser = acquire(s);
+        try {
+            return parser.parse();
+        } finally {
+            release(parser);
+        }
+    }
+
+    /** The number of idle parsers currently held by the pool. */
+    public int idle_count() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+}
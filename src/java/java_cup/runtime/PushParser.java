@@ -0,0 +1,406 @@
+package java_cup.runtime;
+
+import java.util.ArrayDeque;
+
+/**
+ * Drives a parser by pushing tokens into it, instead of letting it pull them
+ * from a Scanner. The parse is suspended whenever it needs a token that has
+ * not been fed yet, so no thread has to block on the input of a parse in
+ * progress: tokens can be fed as they arrive, for example from an NIO
+ * selector thread.
+ *
+ * <pre>
+ * PushParser&lt;parser&gt; push = new PushParser&lt;&gt;(new parser(null, factory));
+ * ... // whenever a token arrives
+ * switch (push.feed(token)) {
+ * case PushParser.NEED_MORE: return;
+ * case PushParser.ACCEPT: handle(push.result()); push.reset(); break;
+ * case PushParser.ERROR: ...
+ * }
+ * </pre>
+ *
+ * <p>The parse runs exactly as with {@link lr_parser#parse()}, including the
+ * error recovery. A recovery needs to look at the tokens after an error: if
+ * it runs out of fed tokens, the configuration of the parser is restored and
+ * the recovery is tried again once more tokens have been fed (see
+ * {@link ErrorRecoveryStrategy}). Since the tokens are fed, the parser must
+ * read them with the default scan() method; a "scan with" clause is bypassed.
+ * A parser generated with <tt>-codegen direct</tt> runs its tables instead of
+ * its directly coded loop. The last token of every input must be EOF; feeding
+ * it always finishes the parse.</p>
+ *
+ * <p>A push parser must only be used by one thread at a time, but may be fed
+ * from a different thread on every call.</p>
+ *
+ * @param <P> the type of the parser
+ */
+public class PushParser<P extends lr_parser> {
+
+    /** The parse is waiting for more tokens. */
+    public static final int NEED_MORE = 0;
+
+    /** The parse has ended, see {@link #result()}. */
+    public static final int ACCEPT = 1;
+
+    /**
+     * The parse has ended in an error it could not recover from, and
+     * unrecovered_syntax_error() of the parser returned normally.
+     */
+    public static final int ERROR = 2;
+
+    private final P parser;
+    private final Source source = new Source();
+    private boolean started;
+    private int status;
+    private Symbol result;
+
+    /** Is the parse recovering from a syntax error? */
+    private boolean recovering;
+
+    /** The number of tokens to wait for before the recovery is tried again. */
+    private int wanted;
+
+    /* the configuration of the parser before the recovery */
+    private final ArrayStack<Symbol> saved_stack = new ArrayStack<>();
+    private int saved_tos;
+    private Symbol saved_token;
+
+    /**
+     * Create a push parser.
+     *
+     * @param parser the parser to feed the tokens to.
+     */
+    public PushParser(P parser) {
+        this.parser = parser;
+    }
+
+    /** The parser fed by this push parser. */
+    public P parser() {
+        return parser;
+    }
+
+    /**
+     * Feed the next token of the input and parse as far as possible.
+     *
+     * @param token the next token, EOF after the last one.
+     * @return {@link #NEED_MORE}, {@link #ACCEPT} or {@link #ERROR}.
+     * @throws IllegalStateException if the parse has already ended.
+     */
+    public int feed(Symbol token) throws Exception {
+        check_running();
+        source.pending.addLast(token);
+        if (token.sym == parser.EOF_sym())
+            source.eof = token;
+        return run();
+    }
+
+    /**
+     * Feed the next tokens of the input and parse as far as possible. If the
+     * parse ends before all of them are used, the rest is ignored; otherwise
+     * the array may be reused as soon as this returns.
+     *
+     * @param batch the next tokens of the input.
+     * @param n     the number of tokens at the start of the array to feed.
+     * @return {@link #NEED_MORE}, {@link #ACCEPT} or {@link #ERROR}.
+     * @throws IllegalStateException if the parse has already ended.
+     */
+    public int feed(Symbol[] batch, int n) throws Exception {
+        check_running();
+        if (n < 0 || n > batch.length)
+            throw new IllegalArgumentException("Bad token count " + n + " of " + batch.length);
+        if (n == 0)
+            return status;
+        source.batch = batch;
+        source.pos = 0;
+        source.end = n;
+        if (batch[n - 1].sym == parser.EOF_sym())
+            source.eof = batch[n - 1];
+        try {
+            return run();
+        } finally {
+            source.keep();
+        }
+    }
+
+    /** The outcome of the parse so far: NEED_MORE, ACCEPT or ERROR. */
+    public int status() {
+        return status;
+    }
+
+    /**
+     * The result of the parse, as returned by {@link lr_parser#parse()}, once
+     * it has ended.
+     */
+    public Symbol result() {
+        return status == NEED_MORE ? null : result;
+    }
+
+    /**
+     * Prepare for the next input. This drops the tokens fed so far and resets
+     * the parser, keeping its action object as {@link lr_parser#reset} does.
+     */
+    public void reset() {
+        source.clear();
+        parser.reset(null);
+        started = false;
+        recovering = false;
+        status = NEED_MORE;
+        result = null;
+    }
+
+    private void check_running() {
+        if (status != NEED_MORE)
+            throw new IllegalStateException("The parse has already ended, reset first");
+    }
+
+    /**
+     * Parse until the parse ends or needs a token that hasn't been fed yet. An
+     * exception thrown by the parser ends the parse.
+     */
+    private int run() throws Exception {
+        lr_parser p = parser;
+        boolean ok = false;
+        try {
+            if (!started) {
+                p.setScanner(source);
+                p.begin_parse();
+                started = true;
+            }
+            boolean more = recovering ? recover() : parse();
+            while (more && !p._done_parsing)
+                more = recovering ? recover() : parse();
+            if (p._done_parsing && status == NEED_MORE)
+                status = ACCEPT;
+            ok = true;
+            return status;
+        } finally {
+            if (!ok && status == NEED_MORE) {
+                p.done_parsing();
+                status = ERROR;
+            }
+        }
+    }
+
+    /**
+     * The parse loop of {@link lr_parser#parse()}, reading its lookahead only
+     * when it is needed.
+     *
+     * @return false if the parse is waiting for a token, true if it has ended
+     *         or has to recover from a syntax error.
+     */
+    private boolean parse() throws Exception {
+        lr_parser p = parser;
+        int act, state;
+
+        while (!p._done_parsing) {
+            /* current state is always on the top of the stack */
+            state = p.stack.peek().parse_state;
+
+            /* consistent states reduce without even looking at the lookahead */
+            if (p.consistent_reduce == null || (act = p.consistent_reduce[state]) == 0) {
+                if (p.cur_token == null) {
+                    if (!source.has(1))
+                        return false;
+                    p.cur_token = p.scan();
+                }
+
+                /* Check current token for freshness. */
+                lr_parser.check_fresh(p.cur_token);
+
+                /* look up action out of the current state with the current input */
+                act = p.get_action(state, p.cur_token.sym);
+            }
+
+            /* decode the action -- > 0 encodes shift */
+            if (act > 0) {
+                /* shift to the encoded state by pushing it on the stack */
+                p.cur_token.parse_state = act - 1;
+                p.cur_token.used_by_parser = true;
+                p.stack.push(p.cur_token);
+                p.tos++;
+                p.cur_token = null;
+            }
+            /* if its less than zero, then it encodes a reduce action */
+            else if (act < 0) {
+                /* perform the action for the reduce */
+                Symbol lhs_sym = p.do_action((-act) - 1, p, p.stack, p.tos);
+
+                /* look up information about the production */
+                short lhs_sym_num = p.production_tab[(-act) - 1][0];
+                short handle_size = p.production_tab[(-act) - 1][1];
+
+                /* pop the handle off the stack */
+                for (int i = 0; i < handle_size; i++) {
+                    p.stack.pop();
+                    p.tos--;
+                }
+
+                /* look up the state to go to from the one popped back to */
+                act = p.get_reduce(p.stack.peek().parse_state, lhs_sym_num);
+
+                /* the goto may have skipped a chain of unit reductions (none on accept) */
+                if (p.entry_sym != null && act >= 0 && p.entry_sym[act] != lhs_sym_num)
+                    lhs_sym = p.unit_symbol(p.entry_sym[act], lhs_sym);
+
+                /* shift to that state */
+                lhs_sym.parse_state = act;
+                lhs_sym.used_by_parser = true;
+                p.stack.push(lhs_sym);
+                p.tos++;
+                result = lhs_sym;
+            }
+            /* finally if the entry is zero, we have an error */
+            else {
+                /* call user syntax error reporting routine */
+                p.syntax_error(p.cur_token);
+                recovering = true;
+                wanted = 1;
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Try to recover from a syntax error with the tokens fed so far.
+     *
+     * @return false if the recovery is waiting for more tokens, true if it is
+     *         done.
+     */
+    private boolean recover() throws Exception {
+        lr_parser p = parser;
+        if (!source.has(wanted))
+            return false;
+
+        /* keep the configuration in case the tokens run out */
+        saved_stack.clear();
+        saved_stack.addAll(p.stack);
+        saved_tos = p.tos;
+        saved_token = p.cur_token;
+        source.mark();
+
+        boolean recovered;
+        try {
+            recovered = p.error_recovery(false);
+        } catch (NeedMore e) {
+            /* start over once there are clearly more tokens than were used */
+            p.stack.clear();
+            p.stack.addAll(saved_stack);
+            p.tos = saved_tos;
+            p.cur_token = saved_token;
+            wanted = 2 * source.rewind() + 1;
+            saved_stack.clear();
+            return false;
+        }
+        source.unmark();
+        saved_stack.clear();
+        saved_token = null;
+
+        recovering = false;
+        if (recovered)
+            result = p.stack.peek();
+        else
+            give_up();
+        return true;
+    }
+
+    /** End the parse with a syntax error that could not be repaired. */
+    private void give_up() throws Exception {
+        parser.unrecovered_syntax_error(parser.cur_token);
+        parser.done_parsing();
+        status = ERROR;
+        if (parser.drops_unrecovered_result())
+            result = null;
+    }
+
+    /** The tokens fed but not yet read by the parser. */
+    private final class Source implements Scanner {
+        private final ArrayDeque<Symbol> pending = new ArrayDeque<>();
+
+        /* the batch being fed */
+        private Symbol[] batch;
+        private int pos, end;
+
+        /** The EOF token of the input, once it has been fed. */
+        private Symbol eof;
+
+        /** The tokens served since mark(), or null if not marked. */
+        private ArrayStack<Symbol> served;
+
+        /** Can the parser read another n tokens? */
+        boolean has(int n) {
+            return eof != null || pending.size() + end - pos >= n;
+        }
+
+        @Override
+        public Symbol next_token() {
+            Symbol t = pending.pollFirst();
+            if (t == null && pos < end)
+                t = batch[pos++];
+            if (t != null) {
+                if (served != null)
+                    served.push(t);
+                return t;
+            }
+            /* like a scanner keep returning EOF at the end */
+            if (eof != null)
+                return parser.getSymbolFactory().newSymbol("EOF", parser.EOF_sym(), eof, eof, null);
+            if (served != null)
+                throw NeedMore.INSTANCE;
+            throw new IllegalStateException("No token has been fed");
+        }
+
+        /** Start remembering the tokens served, to be able to serve them again. */
+        void mark() {
+            if (served == null)
+                served = new ArrayStack<>();
+            served.clear();
+        }
+
+        /** Stop remembering the tokens served. */
+        void unmark() {
+            served.clear();
+            served = null;
+        }
+
+        /**
+         * Serve the tokens served since mark() again.
+         *
+         * @return the number of these tokens.
+         */
+        int rewind() {
+            int count = served.size();
+            while (!served.empty())
+                pending.addFirst(served.pop());
+            served = null;
+            return count;
+        }
+
+        /** Keep the unread tokens of a batch before it is handed back. */
+        void keep() {
+            if (status == NEED_MORE)
+                while (pos < end)
+                    pending.addLast(batch[pos++]);
+            batch = null;
+            pos = end = 0;
+        }
+
+        void clear() {
+            pending.clear();
+            batch = null;
+            pos = end = 0;
+            eof = null;
+            served = null;
+        }
+    }
+
+    /** Thrown by the Source when a recovery asks for a token not fed yet. */
+    private static final class NeedMore extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final NeedMore INSTANCE = new NeedMore();
+
+        private NeedMore() {
+            super("No token has been fed", null, false, false);
+        }
+    }
+}
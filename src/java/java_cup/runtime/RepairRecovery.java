@@ -0,0 +1,417 @@
+package java_cup.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Recovers from syntax errors by repairing the input: it searches for the
+ * cheapest sequence of token insertions, deletions and substitutions at and
+ * after the erroneous token that lets the parse go on, in the style of the
+ * Burke-Fisher and CPCT+ repair algorithms. Where panic mode throws away the
+ * Symbols of the stack and skips input until it can shift the error Symbol,
+ * a repair such as a missing semicolon keeps everything around it, which
+ * avoids most of the cascading errors of panic mode.
+ *
+ * <p>The search starts from the configuration the error was detected in and
+ * reads the tokens after the error only as far as some candidate gets, at
+ * most <code>error_sync_size() + max_cost</code> of them. A repair succeeds if
+ * all tokens read parse after it, the last error_sync_size() of them shifted
+ * unchanged, or if they parse up to the end of the input.
+ * Candidates are explored cheapest first on forks of a
+ * {@link virtual_parse_stack}, so they share everything below the error. The
+ * search is bounded by the cost of a repair, the number of candidates and its
+ * time. If it finds no repair within these budgets, the error is recovered in
+ * panic mode, skipping tokens from the window until the rest of it parses
+ * after the error Symbol.</p>
+ *
+ * <pre>
+ * parser.setErrorRecoveryStrategy(new RepairRecovery());
+ * </pre>
+ *
+ * <p>Inserted and substituted tokens have a null value by default, since the
+ * actions of the parser see them like any other token; override
+ * inserted_value() to supply the value of a terminal. The costs of the edits
+ * can be adjusted by overriding insert_cost(), delete_cost() and
+ * substitute_cost() (costs below 1 count as 1), and repaired() is told about
+ * every repair made.</p>
+ */
+public class RepairRecovery implements ErrorRecoveryStrategy {
+
+    /** Default maximum total cost of a repair. */
+    public static final int DEFAULT_MAX_COST = 3;
+
+    /** Default maximum number of candidate repairs explored for an error. */
+    public static final int DEFAULT_MAX_CANDIDATES = 5000;
+
+    /** Default maximum time spent searching a repair, in milliseconds. */
+    public static final long DEFAULT_MAX_MILLIS = 20;
+
+    /* the outcomes of feeding a terminal to a virtual stack */
+    private static final int ERROR = 0;
+    private static final int SHIFTED = 1;
+    private static final int ACCEPTED = 2;
+
+    /* the kinds of edits */
+    private static final int SHIFT = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final int SUBSTITUTE = 3;
+
+    private final int max_cost;
+    private final int max_candidates;
+    private final long max_nanos;
+
+    /** Create a repair engine with the default budgets. */
+    public RepairRecovery() {
+        this(DEFAULT_MAX_COST, DEFAULT_MAX_CANDIDATES, DEFAULT_MAX_MILLIS);
+    }
+
+    /**
+     * Create a repair engine.
+     *
+     * @param max_cost       the maximum total cost of a repair.
+     * @param max_candidates the maximum number of candidate repairs explored for
+     *                       an error.
+     * @param max_millis     the maximum time spent searching a repair, in
+     *                       milliseconds.
+     */
+    public RepairRecovery(int max_cost, int max_candidates, long max_millis) {
+        if (max_cost < 1)
+            throw new IllegalArgumentException("max_cost must be positive");
+        if (max_candidates < 1)
+            throw new IllegalArgumentException("max_candidates must be positive");
+        if (max_millis < 0)
+            throw new IllegalArgumentException("max_millis must not be negative");
+        this.max_cost = max_cost;
+        this.max_candidates = max_candidates;
+        this.max_nanos = max_millis * 1000000L;
+    }
+
+    /** The cost of inserting a terminal; 1 by default. */
+    protected int insert_cost(int sym) {
+        return 1;
+    }
+
+    /** The cost of deleting a terminal; 1 by default. */
+    protected int delete_cost(int sym) {
+        return 1;
+    }
+
+    /** The cost of replacing a terminal by another one; 1 by default. */
+    protected int substitute_cost(int sym, int by) {
+        return 1;
+    }
+
+    /**
+     * The value of a terminal inserted by a repair (or substituted for
+     * another); null by default.
+     *
+     * @param parser the parser being repaired.
+     * @param sym    the inserted terminal.
+     */
+    protected Object inserted_value(lr_parser parser, int sym) {
+        return null;
+    }
+
+    /**
+     * Called for every repair, before the parse goes on. Does nothing by
+     * default.
+     *
+     * @param parser the parser being repaired.
+     * @param repair a description of the edits, such as
+     *               <code>insert SEMI before RBRACE</code>.
+     * @param at     the token the error was detected on.
+     */
+    protected void repaired(lr_parser parser, String repair, Symbol at) {
+    }
+
+    @Override
+    public boolean recover(lr_parser parser, boolean debug) throws Exception {
+        int sync = Math.max(1, parser.error_sync_size());
+        Symbol at = parser.cur_token;
+        Window window = new Window(parser, at);
+
+        Edit repair = search(parser, window, sync, debug);
+        if (repair != null) {
+            /* deleted and replaced tokens count against the budget of the parser */
+            for (Edit e = repair; e != null; e = e.prev)
+                if (e.kind != INSERT && !parser.discard_token())
+                    return false;
+            String description = describe(parser, repair, window);
+            if (debug)
+                parser.debug_message("# Repairing: " + description);
+            parser.report_repair(description);
+            repaired(parser, description, at);
+            reparse(parser, apply(parser, repair, window), debug);
+            return true;
+        }
+
+        if (debug)
+            parser.debug_message("# No repair found, skipping input");
+        return skip(parser, window, sync, debug);
+    }
+
+    /**
+     * Search the cheapest repair at the start of the window. Candidates are
+     * kept in one list per cost and taken in the order they were found; the
+     * window is read only as far as a candidate gets.
+     *
+     * @return the last edit of the repair, or null if there is none within the
+     *         budgets.
+     */
+    private Edit search(lr_parser parser, Window window, int sync, boolean debug) throws Exception {
+        long deadline = System.nanoTime() + max_nanos;
+        int eof = parser.EOF_sym(), error = parser.error_sym();
+        int explored = 0;
+
+        ArrayList<ArrayList<Candidate>> by_cost = new ArrayList<>(max_cost + 1);
+        for (int c = 0; c <= max_cost; c++)
+            by_cost.add(new ArrayList<>());
+        by_cost.get(0).add(new Candidate(new virtual_parse_stack(parser.stack), 0, 0, null, SHIFT));
+
+        for (int cost = 0; cost <= max_cost; cost++) {
+            ArrayList<Candidate> bucket = by_cost.get(cost);
+            for (int i = 0; i < bucket.size(); i++) {
+                Candidate c = bucket.get(i);
+                bucket.set(i, null);
+
+                /* all of the window read so far parses, with enough of it unchanged at the end */
+                if (c.edits != null && c.pos == window.n && (c.shifted >= sync || window.ended()))
+                    return c.edits;
+                if (c.pos == window.n && window.ended())
+                    continue;
+                if (++explored > max_candidates || System.nanoTime() > deadline || parser.out_of_recovery_time()) {
+                    if (debug)
+                        parser.debug_message("# Repair search exhausted after " + explored + " candidates");
+                    return null;
+                }
+                Symbol tok = window.get(c.pos);
+
+                /* shift the next token unchanged */
+                virtual_parse_stack vs = c.stack.fork();
+                int r = advance(parser, vs, tok.sym);
+                if (r == ACCEPTED && c.edits != null && c.pos + 1 == window.n)
+                    return c.edits;
+                if (r == SHIFTED)
+                    bucket.add(new Candidate(vs, c.pos + 1, c.shifted + 1, c.edits, SHIFT));
+
+                /* delete it, unless we just inserted in front of it */
+                if (tok.sym != eof && c.last != INSERT) {
+                    int d = cost + Math.max(1, delete_cost(tok.sym));
+                    if (d <= max_cost)
+                        by_cost.get(d).add(new Candidate(c.stack, c.pos + 1, 0,
+                                new Edit(DELETE, tok.sym, c.pos, c.edits), DELETE));
+                }
+
+                /* insert a terminal in front of it, or put one in its place */
+                for (int t : parser.action_terminals(c.stack.top())) {
+                    if (t == eof || t == error)
+                        continue;
+                    if (c.last != DELETE) {
+                        int d = cost + Math.max(1, insert_cost(t));
+                        if (d <= max_cost) {
+                            vs = c.stack.fork();
+                            if (advance(parser, vs, t) == SHIFTED)
+                                by_cost.get(d).add(new Candidate(vs, c.pos, 0,
+                                        new Edit(INSERT, t, c.pos, c.edits), INSERT));
+                        }
+                    }
+                    if (t != tok.sym && tok.sym != eof) {
+                        int d = cost + Math.max(1, substitute_cost(tok.sym, t));
+                        if (d <= max_cost) {
+                            vs = c.stack.fork();
+                            if (advance(parser, vs, t) == SHIFTED)
+                                by_cost.get(d).add(new Candidate(vs, c.pos + 1, 0,
+                                        new Edit(SUBSTITUTE, t, c.pos, c.edits), SUBSTITUTE));
+                        }
+                    }
+                }
+            }
+            bucket.clear();
+        }
+        return null;
+    }
+
+    /**
+     * Recover in panic mode over the window: put the stack into its error
+     * configuration, then skip tokens until the rest of the window parses,
+     * reading more input to keep at least error_sync_size() tokens in it. Every
+     * token skipped counts against the recovery budget of the parser.
+     */
+    private boolean skip(lr_parser parser, Window window, int sync, boolean debug) throws Exception {
+        if (!parser.find_recovery_config(debug))
+            return false;
+        for (int d = 0;; d++) {
+            while (window.n - d < sync && !window.ended())
+                window.get(window.n);
+            if (parses(parser, window, d)) {
+                reparse(parser, Arrays.copyOfRange(window.tokens, d, window.n), debug);
+                return true;
+            }
+            if (window.tokens[d].sym == parser.EOF_sym() || !parser.discard_token())
+                return false;
+        }
+    }
+
+    /** Does the parse go on through the window read so far from its from'th token? */
+    private boolean parses(lr_parser parser, Window window, int from) throws Exception {
+        virtual_parse_stack vs = new virtual_parse_stack(parser.stack);
+        for (int i = from; i < window.n; i++) {
+            int r = advance(parser, vs, window.tokens[i].sym);
+            if (r == ERROR)
+                return false;
+            if (r == ACCEPTED)
+                return true;
+        }
+        return true;
+    }
+
+    /**
+     * Feed a terminal to a virtual stack: reduce until it is shifted, the
+     * input is accepted or an error is detected.
+     */
+    private static int advance(lr_parser parser, virtual_parse_stack vs, int sym) throws Exception {
+        for (;;) {
+            int act = parser.get_action(vs.top(), sym);
+            if (act == 0)
+                return ERROR;
+            if (act > 0) {
+                vs.push(act - 1);
+                return SHIFTED;
+            }
+            if ((-act) - 1 == parser.start_production())
+                return ACCEPTED;
+            short[] prod = parser.production_tab[(-act) - 1];
+            for (int i = 0; i < prod[1]; i++)
+                vs.pop();
+            vs.push(parser.get_reduce(vs.top(), prod[0]));
+        }
+    }
+
+    /** Build the repaired tokens of the window. */
+    private Symbol[] apply(lr_parser parser, Edit repair, Window window) {
+        Edit[] edits = in_order(repair);
+        ArrayList<Symbol> out = new ArrayList<>(window.n + edits.length);
+        int pos = 0;
+        for (Edit e : edits) {
+            while (pos < e.pos)
+                out.add(window.tokens[pos++]);
+            Symbol at = window.tokens[e.pos];
+            if (e.kind != DELETE)
+                out.add(parser.getSymbolFactory().newSymbol(name(parser, e.sym), e.sym, at, at,
+                        inserted_value(parser, e.sym)));
+            if (e.kind != INSERT)
+                pos++;
+        }
+        while (pos < window.n)
+            out.add(window.tokens[pos++]);
+        return out.toArray(new Symbol[0]);
+    }
+
+    /**
+     * Parse the repaired tokens with all actions, then hand the parse back with
+     * the token after them as lookahead.
+     */
+    private static void reparse(lr_parser parser, Symbol[] tokens, boolean debug) throws Exception {
+        parser.install_lookahead(tokens);
+        parser.parse_lookahead(debug);
+        if (!parser._done_parsing)
+            parser.cur_token = parser.scan();
+    }
+
+    private String describe(lr_parser parser, Edit repair, Window window) {
+        StringBuilder sb = new StringBuilder();
+        for (Edit e : in_order(repair)) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            String tok = name(parser, window.tokens[e.pos].sym);
+            switch (e.kind) {
+            case INSERT:
+                sb.append("insert ").append(name(parser, e.sym)).append(" before ").append(tok);
+                break;
+            case DELETE:
+                sb.append("delete ").append(tok);
+                break;
+            default:
+                sb.append("replace ").append(tok).append(" by ").append(name(parser, e.sym));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String name(lr_parser parser, int sym) {
+        return parser.getSymbolContainer() != null ? parser.symbl_name_from_id(sym) : "#" + sym;
+    }
+
+    private static Edit[] in_order(Edit last) {
+        int count = 0;
+        for (Edit e = last; e != null; e = e.prev)
+            count++;
+        Edit[] edits = new Edit[count];
+        for (Edit e = last; e != null; e = e.prev)
+            edits[--count] = e;
+        return edits;
+    }
+
+    /** The erroneous token and the ones after it read so far. */
+    private static final class Window {
+        final lr_parser parser;
+        Symbol[] tokens = new Symbol[8];
+        int n;
+
+        Window(lr_parser parser, Symbol at) {
+            this.parser = parser;
+            tokens[n++] = at;
+        }
+
+        /** Has the window reached the end of the input? */
+        boolean ended() {
+            return tokens[n - 1].sym == parser.EOF_sym();
+        }
+
+        /** The i'th token, reading the input up to it; i is at most n. */
+        Symbol get(int i) throws Exception {
+            if (i == n) {
+                if (n == tokens.length)
+                    tokens = Arrays.copyOf(tokens, 2 * n);
+                tokens[n++] = parser.scan();
+            }
+            return tokens[i];
+        }
+    }
+
+    /** An edit of a repair, linked to the edits before it. */
+    private static final class Edit {
+        final int kind;
+        final int sym;
+        final int pos;
+        final Edit prev;
+
+        Edit(int kind, int sym, int pos, Edit prev) {
+            this.kind = kind;
+            this.sym = sym;
+            this.pos = pos;
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * A candidate repair: the edits so far, the virtual stack they lead to and
+     * the position in the window they got to.
+     */
+    private static final class Candidate {
+        final virtual_parse_stack stack;
+        final int pos;
+        final int shifted;
+        final Edit edits;
+        final int last;
+
+        Candidate(virtual_parse_stack stack, int pos, int shifted, Edit edits, int last) {
+            this.stack = stack;
+            this.pos = pos;
+            this.shifted = shifted;
+            this.edits = edits;
+            this.last = last;
+        }
+    }
+}
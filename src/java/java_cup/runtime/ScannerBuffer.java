@@ -1,17 +1,49 @@
 package java_cup.runtime;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
+/**
+ * Wraps around a Scanner and keeps the tokens it produced, for later use by
+ * e.g. a pretty printer or syntax highlighter. The tokens are numbered from 0
+ * in the order they were read, and are kept in chunks of an array, so any of
+ * them can be looked up in constant time.
+ *
+ * <p>When the input is huge or unbounded, the tokens no longer needed can be
+ * released with {@link #release(int)}, e.g. as soon as the parser has reduced
+ * past them, to keep the memory used by the buffer bounded.</p>
+ *
+ * <p>The parser never hands the tokens kept by a buffer back to a recycling
+ * SymbolFactory (see {@link SymbolFactory#recycle}), so they stay intact when
+ * the factory of the parser recycles; the Symbols of non terminals still are
+ * recycled. This holds as well for a buffer wrapped in another scanner.</p>
+ */
 public class ScannerBuffer implements Scanner {
+	/* the tokens are kept in chunks of 1 << SHIFT */
+	private static final int SHIFT = 10;
+	private static final int CHUNK = 1 << SHIFT;
+
 	private final Scanner inner;
-	private final List<Symbol> buffer = new LinkedList<>();
+
+	/* the chunks holding the kept tokens, the first at chunks[head] */
+	private Symbol[][] chunks = new Symbol[4][];
+	private int head, tail;
+
+	/* the number of the first token in chunks[head] */
+	private int origin;
+
+	/* the number of the first kept token, and of the next token to read */
+	private int first, size;
+
+	/* a released chunk to use again */
+	private Symbol[] spare;
 
 	/**
 	 * Wraps around a custom scanner and stores all so far produced tokens in a
 	 * buffer
-	 * 
+	 *
 	 * @param inner the scanner to buffer
 	 */
 	public ScannerBuffer(Scanner inner) {
@@ -19,19 +51,104 @@ public class ScannerBuffer implements Scanner {
 	}
 
 	/**
-	 * Read-Only access to the buffered Symbols
-	 * 
+	 * Read-Only access to the buffered Symbols, the ones released excepted. The
+	 * list follows the buffer: it grows as tokens are read, and its first
+	 * element is always the first token kept.
+	 *
 	 * @return an unmodifiable Version of the buffer
 	 */
 	public List<Symbol> getBuffered() {
-		return Collections.unmodifiableList(buffer);
+		return new Buffered();
+	}
+
+	/** The number of tokens read so far, the number of the next token. */
+	public int size() {
+		return size;
+	}
+
+	/** The number of the first token kept, 0 unless tokens were released. */
+	public int first() {
+		return first;
+	}
+
+	/**
+	 * Look up a token.
+	 *
+	 * @param index the number of the token.
+	 * @return the token.
+	 * @throws IndexOutOfBoundsException if the token hasn't been read yet or
+	 *                                   was released.
+	 */
+	public Symbol get(int index) {
+		if (index < first || index >= size)
+			throw new IndexOutOfBoundsException("Token " + index + " not in " + first + ".." + size);
+		int i = index - origin;
+		return chunks[head + (i >>> SHIFT)][i & (CHUNK - 1)];
+	}
+
+	/**
+	 * Drop the tokens before a given one from the buffer, freeing their memory
+	 * once nothing else refers to them. The numbers of the tokens kept don't
+	 * change.
+	 *
+	 * @param index the number of the first token to keep, at most size().
+	 */
+	public void release(int index) {
+		if (index > size)
+			throw new IndexOutOfBoundsException("Token " + index + " not read yet, only " + size);
+		for (; first < index; first++) {
+			int i = first - origin;
+			chunks[head][i] = null;
+			if (i == CHUNK - 1) {
+				/* the chunk is empty now */
+				spare = chunks[head];
+				chunks[head++] = null;
+				origin += CHUNK;
+			}
+		}
 	}
 
 	@Override
 	public Symbol next_token() throws Exception {
 		Symbol buffered = inner.next_token();
-		buffer.add(buffered);
+		if (buffered != null)
+			buffered.retained = true;
+		int i = size - origin;
+		if ((i & (CHUNK - 1)) == 0 && head + (i >>> SHIFT) == tail)
+			add_chunk();
+		chunks[head + (i >>> SHIFT)][i & (CHUNK - 1)] = buffered;
+		size++;
 		return buffered;
 	}
 
-}
\ No newline at end of file
+	/** Add an empty chunk at the end. */
+	private void add_chunk() {
+		if (tail == chunks.length) {
+			int used = tail - head;
+			/* slide the chunks down if half the array is free, else grow it */
+			Symbol[][] to = used <= chunks.length / 2 ? chunks : Arrays.copyOf(chunks, 2 * chunks.length);
+			System.arraycopy(chunks, head, to, 0, used);
+			Arrays.fill(to, used, tail, null);
+			chunks = to;
+			head = 0;
+			tail = used;
+		}
+		chunks[tail++] = spare != null ? spare : new Symbol[CHUNK];
+		spare = null;
+	}
+
+	/** The kept tokens as a List, indexed from the first kept one. */
+	private final class Buffered extends AbstractList<Symbol> implements RandomAccess {
+		@Override
+		public Symbol get(int index) {
+			if (index < 0)
+				throw new IndexOutOfBoundsException("Index " + index);
+			return ScannerBuffer.this.get(first + index);
+		}
+
+		@Override
+		public int size() {
+			return size - first;
+		}
+	}
+}
@@ -100,6 +100,11 @@ public class Symbol {
    * the use of the parser only. [CSA, 23-Jul-1999]
    */
   boolean used_by_parser = false;
+  /**
+   * Is this symbol kept by a ScannerBuffer? The parser then never hands it
+   * back to a recycling SymbolFactory, since the buffer still refers to it.
+   */
+  boolean retained = false;
 
   /*******************************
    * The data passed to parser
@@ -118,6 +123,20 @@ public class Symbol {
     return (T) value;
   }
 
+  /**
+   * Reinitialize a Symbol taken from a SymbolPool, as if it was just
+   * constructed.
+   */
+  Symbol reuse(int id, int l, int r, Object o) {
+    sym = id;
+    parse_state = -1;
+    used_by_parser = false;
+    left = l;
+    right = r;
+    value = o;
+    return this;
+  }
+
   /*****************************
    * Printing this token out. (Override for pretty-print).
    ****************************/
@@ -85,4 +85,27 @@ public interface SymbolFactory {
    * @param state The parse state
    */
   Symbol startSymbol(String name, int id, int state);
+
+  /**
+   * Does this factory take back Symbols for reuse? Parsers only hand Symbols
+   * back to factories that do. By default they don't.
+   */
+  default boolean recycles() {
+    return false;
+  }
+
+  /**
+   * Take back a Symbol the parser is done with, so that a later newSymbol() can
+   * hand it out again. The parser calls this for the Symbols it pops off its
+   * stack after the action of a reduction has run, so actions must not keep
+   * references to the Symbols of the right hand side (their values and
+   * locations are safe to keep). Neither may the scanner or anything else
+   * keep the tokens it hands to the parser, with the exception of a
+   * ScannerBuffer: the parser never recycles the tokens it keeps. Only called
+   * if recycles() returns true.
+   * 
+   * @param s the Symbol no longer used by the parser.
+   */
+  default void recycle(Symbol s) {
+  }
 }
\ No newline at end of file
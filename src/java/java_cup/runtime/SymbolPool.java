@@ -0,0 +1,50 @@
+package java_cup.runtime;
+
+/**
+ * The free Symbols of a recycling SymbolFactory. A Symbol is put back in the
+ * pool with its contents dropped and is marked as used by the parser until it
+ * is taken out again, so that a scanner keeping a reference to a pooled
+ * Symbol is still caught by the freshness check of the parser. Not safe for
+ * use by multiple threads.
+ */
+final class SymbolPool {
+
+    /** The parse state of a Symbol in the pool. */
+    private static final int POOLED = Integer.MIN_VALUE;
+
+    private final Symbol[] free;
+    private int size;
+
+    /**
+     * Create an empty pool.
+     *
+     * @param capacity the most free Symbols to keep.
+     */
+    SymbolPool(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Pool capacity must not be negative");
+        free = new Symbol[capacity];
+    }
+
+    /** Take a free Symbol out of the pool, or null if it is empty. */
+    Symbol take() {
+        if (size == 0)
+            return null;
+        Symbol s = free[--size];
+        free[size] = null;
+        return s;
+    }
+
+    /**
+     * Put a Symbol back into the pool, unless the pool is full or it is already
+     * in there.
+     */
+    void give(Symbol s) {
+        if (s.parse_state == POOLED || size == free.length)
+            return;
+        s.value = null;
+        s.parse_state = POOLED;
+        s.used_by_parser = true;
+        free[size++] = s;
+    }
+}
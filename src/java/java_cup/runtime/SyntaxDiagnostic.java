@@ -0,0 +1,133 @@
+package java_cup.runtime;
+
+import java.util.Arrays;
+
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+/**
+ * A syntax error recorded by a parser that collects its errors (see
+ * {@link lr_parser#setCollectErrors}): the token the error was detected on,
+ * the terminals the parser expected instead and how it recovered.
+ */
+public final class SyntaxDiagnostic {
+
+    /** The parse went on after the error Symbol, discarding input as needed. */
+    public static final int RECOVERED = 0;
+
+    /** The parse went on after the input was repaired, see {@link #repair()}. */
+    public static final int REPAIRED = 1;
+
+    /** No recovery was found and the parse ended. */
+    public static final int ABANDONED = 2;
+
+    /** The recovery ran out of its budget of discarded tokens or of time and the parse ended. */
+    public static final int OVER_BUDGET = 3;
+
+    private final Symbol token;
+    private final int[] expected;
+    private int action = ABANDONED;
+    private int discarded;
+    private String repair;
+
+    SyntaxDiagnostic(Symbol token, int[] expected) {
+        this.token = token;
+        this.expected = expected;
+    }
+
+    /** Record how the parser recovered from the error. */
+    void recovered(int action, int discarded, String repair) {
+        this.action = action;
+        this.discarded = discarded;
+        this.repair = repair;
+    }
+
+    /**
+     * The token the error was detected on, or a copy of it if the parser
+     * recycles its Symbols (see {@link SymbolFactory#recycles()}).
+     */
+    public Symbol token() {
+        return token;
+    }
+
+    /** The terminal the error was detected on. */
+    public int symbol() {
+        return token.sym;
+    }
+
+    /** The terminals the parser could have continued with, in ascending order. */
+    public int[] expected() {
+        return expected.clone();
+    }
+
+    /** The left position of the erroneous token. */
+    public int left() {
+        return token.left;
+    }
+
+    /** The right position of the erroneous token. */
+    public int right() {
+        return token.right;
+    }
+
+    /**
+     * The location the erroneous token starts at, or null unless it was made by
+     * a ComplexSymbolFactory.
+     */
+    public Location left_location() {
+        return token instanceof ComplexSymbol ? ((ComplexSymbol) token).getLeft() : null;
+    }
+
+    /**
+     * The location the erroneous token ends at, or null unless it was made by a
+     * ComplexSymbolFactory.
+     */
+    public Location right_location() {
+        return token instanceof ComplexSymbol ? ((ComplexSymbol) token).getRight() : null;
+    }
+
+    /**
+     * How the parser recovered: {@link #RECOVERED}, {@link #REPAIRED},
+     * {@link #ABANDONED} or {@link #OVER_BUDGET}.
+     */
+    public int action() {
+        return action;
+    }
+
+    /** The number of input tokens discarded to recover from the error. */
+    public int discarded() {
+        return discarded;
+    }
+
+    /** A description of the repair made, if the action is {@link #REPAIRED}. */
+    public String repair() {
+        return repair;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Syntax error on #").append(token.sym);
+        Location left = left_location();
+        if (left != null)
+            sb.append(" at ").append(left).append('-').append(right_location());
+        else if (token.left != -1)
+            sb.append(" at ").append(token.left).append('-').append(token.right);
+        sb.append(", expected ").append(Arrays.toString(expected)).append(": ");
+        switch (action) {
+        case RECOVERED:
+            sb.append("recovered");
+            break;
+        case REPAIRED:
+            sb.append("repaired by ").append(repair);
+            break;
+        case ABANDONED:
+            sb.append("abandoned");
+            break;
+        default:
+            sb.append("over budget");
+        }
+        if (discarded > 0)
+            sb.append(", ").append(discarded).append(" token(s) discarded");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package java_cup.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads and writes the binary parse table resources emitted with the
+ * <tt>-table_resource</tt> option. Instead of packing the tables into string
+ * literals of the generated parser, the generator writes them to a
+ * <code>&lt;parser&gt;.tbl</code> file that is shipped next to the parser class
+ * and looked up as a class path resource of it.
+ *
+ * <p>The tables are read on first use and cached per parser class, so all
+ * instances of a parser share a single copy. The generated parser only asks for
+ * them when it first needs its tables, so loading the parser class does not
+ * read the resource.</p>
+ *
+ * <p>The format is a four byte magic number and a version byte, followed by the
+ * number of tables. Each table is stored as its number of rows and each row as
+ * its length followed by its entries. All numbers are unsigned LEB128 varints.
+ * Entries are zigzag encoded differences to the entry two positions earlier in
+ * the same row, which keeps the ascending symbol indices of the index, value
+ * pairs down to a single byte.</p>
+ *
+ * @see java_cup.runtime.lr_parser#unpackFromStrings
+ */
+public final class TableResource {
+
+    /** Magic number at the start of every resource, "CUPT". */
+    private static final int MAGIC = 0x43555054;
+
+    /** Version of the format. */
+    private static final byte VERSION = 1;
+
+    /** Suffix appended to the simple name of the parser class. */
+    public static final String SUFFIX = ".tbl";
+
+    /** Tables of every parser class loaded so far. */
+    private static final ClassValue<short[][][]> CACHE = new ClassValue<short[][][]>() {
+        @Override
+        protected short[][][] computeValue(Class<?> type) {
+            return load(type);
+        }
+    };
+
+    private TableResource() {
+    }
+
+    /**
+     * Get the tables of a parser class, reading its resource on first use.
+     *
+     * @param owner the generated parser class.
+     * @return the tables in the order they were written by the generator.
+     */
+    public static short[][][] tables(Class<?> owner) {
+        return CACHE.get(owner);
+    }
+
+    private static short[][][] load(Class<?> owner) {
+        String name = owner.getSimpleName() + SUFFIX;
+        try (InputStream in = owner.getResourceAsStream(name)) {
+            if (in == null)
+                throw new IllegalStateException("Parse table resource " + name + " of " + owner.getName()
+                        + " not found; it must be on the class path next to the class file of the parser");
+            return read(ByteBuffer.wrap(in.readAllBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read parse table resource " + name, e);
+        }
+    }
+
+    /**
+     * Decode tables from their binary form.
+     *
+     * @param buf buffer positioned at the start of a resource.
+     */
+    public static short[][][] read(ByteBuffer buf) {
+        if (buf.remaining() < 5 || buf.getInt() != MAGIC || buf.get() != VERSION)
+            throw new IllegalStateException("Not a parse table resource of this CUP version");
+        short[][][] result = new short[readVarint(buf)][][];
+        for (int t = 0; t < result.length; t++) {
+            short[][] table = new short[readVarint(buf)][];
+            for (int i = 0; i < table.length; i++) {
+                short[] row = new short[readVarint(buf)];
+                for (int j = 0; j < row.length; j++) {
+                    int zz = readVarint(buf);
+                    int delta = (zz >>> 1) ^ -(zz & 1);
+                    row[j] = (short) (j < 2 ? delta : row[j - 2] + delta);
+                }
+                table[i] = row;
+            }
+            result[t] = table;
+        }
+        return result;
+    }
+
+    /**
+     * Encode tables into their binary form.
+     *
+     * @param out    stream to write the resource to.
+     * @param tables the tables to write.
+     */
+    public static void write(OutputStream out, List<short[][]> tables) throws IOException {
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, tables.size());
+        for (short[][] table : tables) {
+            writeVarint(out, table.length);
+            for (short[] row : table) {
+                writeVarint(out, row.length);
+                for (int j = 0; j < row.length; j++) {
+                    int delta = j < 2 ? row[j] : row[j] - row[j - 2];
+                    writeVarint(out, (delta << 1) ^ (delta >> 31));
+                }
+            }
+        }
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
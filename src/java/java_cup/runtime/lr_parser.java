@@ -3,6 +3,8 @@ package java_cup.runtime;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -81,10 +83,16 @@ import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
  * subclass there are also a series of routines that <i>may</i> be supplied.
  * These include:
  * <dl>
+ * <dt>CombTable action_comb_table(), CombTable reduce_comb_table()
+ * <dd>Provide the parse tables in row-displacement form (generated with the
+ * <tt>-comb_tables</tt> option). When supplied they are used in place of
+ * action_table() and reduce_table(); the generated parsers still answer those,
+ * with the row form rebuilt from the comb form on first call.
  * <dt>Symbol scan()
  * <dd>Used to get the next input Symbol from the scanner.
  * <dt>Scanner getScanner()
- * <dd>Used to provide a scanner for the default implementation of scan().
+ * <dd>Used to provide a scanner for the default implementation of scan(). A
+ * {@link BatchScanner} is read in batches.
  * <dt>int error_sync_size()
  * <dd>This determines how many Symbols past the point of an error must be
  * parsed without error in order to consider a recovery to be valid. This
@@ -232,6 +240,49 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * The action table in row-displacement form (supplied by generated subclasses
+   * built with the <tt>-comb_tables</tt> option). If this returns a table, it is
+   * used instead of action_table() and each lookup becomes a single indexed
+   * access. The default implementation returns null.
+   *
+   * @see java_cup.runtime.CombTable
+   */
+  public CombTable action_comb_table() {
+    return null;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The reduce-goto table in row-displacement form (supplied by generated
+   * subclasses built with the <tt>-comb_tables</tt> option). If this returns a
+   * table, it is used instead of reduce_table(). The default implementation
+   * returns null.
+   *
+   * @see java_cup.runtime.CombTable
+   */
+  public CombTable reduce_comb_table() {
+    return null;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The parse tables shared by all instances of this parser. Generated parsers
+   * build these once per class and return them directly. The default
+   * implementation looks up the tables registered for the class, collecting
+   * them from production_table(), action_table(), reduce_table(),
+   * action_comb_table() and reduce_comb_table() on first use.
+   *
+   * @see java_cup.runtime.ParseTables
+   */
+  public ParseTables parse_tables() {
+    return ParseTables.of(this);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** The index of the start state (supplied by generated subclass). */
   public abstract int start_state();
 
@@ -305,6 +356,71 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /** Direct reference to the row-displacement action table, if any. */
+  protected CombTable action_comb;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Direct reference to the row-displacement reduce-goto table, if any. */
+  protected CombTable reduce_comb;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Direct reference to the reduce actions of the consistent states (those
+   * whose only action is a single reduce), indexed by state, with 0 for all
+   * other states. Null unless the parser was generated with
+   * <tt>-lazy_lookahead</tt>, in which case the lookahead is only fetched when
+   * a state needs it.
+   */
+  protected short[] consistent_reduce;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Direct reference to the symbol every state is entered on, indexed by state.
+   * Null unless the parser was generated with <tt>-collapse_units</tt>, in
+   * which case a goto may skip a chain of unit reductions and end in a state
+   * entered on another non terminal than the one reduced to.
+   */
+  protected short[] entry_sym;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Direct reference to the bit sets of the terminals every state has an
+   * action for (see ParseTables.expected_terminals()). Null for parsers
+   * generated without them, which then take the explicit entries of the
+   * action table as candidates for expected_token_ids().
+   */
+  protected short[][] expected_tab;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The shared parse tables, fetched on the first parse. */
+  private ParseTables tables;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Set up the direct references to the tables that drive the parser. The
+   * shared tables are fetched from parse_tables() only once per parser.
+   */
+  protected void init_tables() {
+    if (tables == null)
+      tables = parse_tables();
+    production_tab = tables.production_table();
+    action_tab = tables.action_table();
+    reduce_tab = tables.reduce_table();
+    action_comb = tables.action_comb_table();
+    reduce_comb = tables.reduce_comb_table();
+    consistent_reduce = tables.consistent_reduces();
+    entry_sym = tables.entry_symbols();
+    expected_tab = tables.expected_terminals();
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * This is the scanner object used by the default implementation of scan() to
    * get Symbols. To avoid name conflicts with existing code, this field is
@@ -312,11 +428,29 @@ public abstract class lr_parser {
    */
   private Scanner _scanner;
 
+  /** The number of tokens read at once from a BatchScanner. */
+  protected final static int _batch_size = 256;
+
   /**
-   * Simple accessor method to set the default scanner.
+   * The tokens read ahead from a BatchScanner, from batch[batch_pos] to
+   * batch[batch_end], or null if the scanner doesn't batch.
+   */
+  private Symbol[] batch;
+  private int batch_pos, batch_end;
+
+  /**
+   * Simple accessor method to set the default scanner. Tokens read ahead from
+   * the previous scanner are dropped.
    */
   public void setScanner(Scanner s) {
     _scanner = s;
+    if (batch != null)
+      Arrays.fill(batch, batch_pos, batch_end, null);
+    batch_pos = batch_end = 0;
+    if (!(s instanceof BatchScanner))
+      batch = null;
+    else if (batch == null)
+      batch = new Symbol[_batch_size];
   }
 
   /**
@@ -326,6 +460,298 @@ public abstract class lr_parser {
     return _scanner;
   }
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** The strategy used by error_recovery(), or null for panic mode. */
+  private ErrorRecoveryStrategy _error_recovery_strategy;
+
+  /**
+   * Set the strategy to recover from syntax errors with, or null for the panic
+   * mode recovery of panic_mode_recovery().
+   */
+  public void setErrorRecoveryStrategy(ErrorRecoveryStrategy s) {
+    _error_recovery_strategy = s;
+  }
+
+  /**
+   * Get the strategy to recover from syntax errors with, or null for panic
+   * mode.
+   */
+  public ErrorRecoveryStrategy getErrorRecoveryStrategy() {
+    return _error_recovery_strategy;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Does this parser collect its syntax errors instead of failing on them. */
+  private boolean _collect_errors = false;
+
+  /** The most input tokens a recovery may discard for one error. */
+  private int _max_discarded_per_error = Integer.MAX_VALUE;
+
+  /** The most input tokens the recoveries of one parse may discard. */
+  private int _max_discarded_per_parse = Integer.MAX_VALUE;
+
+  /** The most time a recovery may take for one error, in nanoseconds. */
+  private long _max_nanos_per_error = Long.MAX_VALUE;
+
+  /** The most time the recoveries of one parse may take, in nanoseconds. */
+  private long _max_nanos_per_parse = Long.MAX_VALUE;
+
+  /** The syntax errors collected during the current parse. */
+  private final ArrayList<SyntaxDiagnostic> _diagnostics = new ArrayList<>();
+
+  /* the counters of the current parse */
+  private int _tokens_discarded, _recovery_attempts;
+  private long _recovery_nanos;
+
+  /* the state of the recovery in progress */
+  private int _error_discarded;
+  private boolean _error_timed;
+  private long _error_deadline;
+  private boolean _over_budget;
+  private String _repair;
+
+  /**
+   * Set whether this parser collects its syntax errors. A collecting parser
+   * records a SyntaxDiagnostic for every error, see diagnostics(), and does
+   * not report a fatal error when it can't recover: the default
+   * unrecovered_syntax_error() just reports the error and the parse ends
+   * normally, with the diagnostics of all errors up to that point (see
+   * unrecovered_syntax_error() for what parse() returns).
+   */
+  public void setCollectErrors(boolean collect) {
+    _collect_errors = collect;
+  }
+
+  /** Does this parser collect its syntax errors. */
+  public boolean getCollectErrors() {
+    return _collect_errors;
+  }
+
+  /**
+   * Limit the work spent on recovering from syntax errors. A recovery fails
+   * once it would discard more than the given number of input tokens for one
+   * error, or for all errors of a parse together. Both are unlimited by
+   * default.
+   *
+   * @param per_error the most tokens discarded for one error.
+   * @param per_parse the most tokens discarded during one parse.
+   */
+  public void setRecoveryBudget(int per_error, int per_parse) {
+    if (per_error < 0 || per_parse < 0)
+      throw new IllegalArgumentException("Recovery budgets must not be negative");
+    _max_discarded_per_error = per_error;
+    _max_discarded_per_parse = per_parse;
+  }
+
+  /**
+   * Limit the time spent on recovering from syntax errors. A recovery fails
+   * once it has taken longer than the given time for one error, or once the
+   * recoveries of a parse have taken longer together, however few tokens it
+   * discarded. The time is checked with System.nanoTime() whenever a recovery
+   * discards a token (see discard_token()), so a recovery that never discards
+   * anything always ends normally. Both are unlimited by default.
+   *
+   * @param per_error_nanos the most nanoseconds spent on one error.
+   * @param per_parse_nanos the most nanoseconds spent during one parse.
+   */
+  public void setRecoveryTimeBudget(long per_error_nanos, long per_parse_nanos) {
+    if (per_error_nanos < 0 || per_parse_nanos < 0)
+      throw new IllegalArgumentException("Recovery budgets must not be negative");
+    _max_nanos_per_error = per_error_nanos;
+    _max_nanos_per_parse = per_parse_nanos;
+  }
+
+  /**
+   * The syntax errors of the current (or last) parse, in the order they were
+   * detected, if this parser collects its errors.
+   */
+  public List<SyntaxDiagnostic> diagnostics() {
+    return Collections.unmodifiableList(_diagnostics);
+  }
+
+  /** The number of input tokens discarded by recoveries during the current parse. */
+  public int tokens_discarded() {
+    return _tokens_discarded;
+  }
+
+  /** The number of recoveries from syntax errors during the current parse. */
+  public int recovery_attempts() {
+    return _recovery_attempts;
+  }
+
+  /** The time spent recovering from syntax errors during the current parse, in nanoseconds. */
+  public long recovery_nanos() {
+    return _recovery_nanos;
+  }
+
+  /**
+   * Count an input token discarded by the recovery in progress. Recovery
+   * strategies call this for every token they drop, and give up if it returns
+   * false.
+   *
+   * @return false if discarding the token exceeds a recovery budget.
+   */
+  public boolean discard_token() {
+    if (_error_discarded >= _max_discarded_per_error
+        || _tokens_discarded + _error_discarded >= _max_discarded_per_parse || out_of_recovery_time()) {
+      _over_budget = true;
+      return false;
+    }
+    _error_discarded++;
+    return true;
+  }
+
+  /**
+   * Has the recovery in progress used up its time budget (see
+   * setRecoveryTimeBudget())? Recovery strategies that search for a long time
+   * without discarding tokens should give up once this returns true.
+   */
+  public boolean out_of_recovery_time() {
+    if (!_error_timed || System.nanoTime() - _error_deadline < 0)
+      return false;
+    _over_budget = true;
+    return true;
+  }
+
+  /**
+   * Note that the recovery in progress repaired the input instead of
+   * discarding it in panic mode.
+   *
+   * @param description a description of the edits made.
+   */
+  public void report_repair(String description) {
+    _repair = description;
+  }
+
+  /** Forget the diagnostics and counters of the previous parse. */
+  private void clear_diagnostics() {
+    _diagnostics.clear();
+    _tokens_discarded = 0;
+    _recovery_attempts = 0;
+    _recovery_nanos = 0;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Has init_actions() been run for a previous parse of this parser. */
+  private boolean _actions_initialized = false;
+
+  /** Should the next parse keep the action object of the previous one. */
+  private boolean _reuse_actions = false;
+
+  /** The start Symbol kept for reuse by a reset parser. */
+  private Symbol _start_symbol;
+
+  /** The Symbol produced by the last reduce of the directly coded parse loop. */
+  private Symbol direct_lhs;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The factory parse() hands the Symbols it is done with back to, or null if
+   * the Symbol factory does not recycle them.
+   */
+  private SymbolFactory recycler;
+
+  /**
+   * Is this parser parsing a part of its input on speculation, for a
+   * ParallelParser? A syntax error then ends the parse at once, without
+   * reporting it or recovering, and no Symbols are recycled.
+   */
+  boolean speculative;
+
+  /**
+   * Prepare this parser for another parse of the input of the given scanner.
+   * This drops all state of the previous parse, but keeps the capacity of the
+   * parse stack, the lookahead buffer and the action object created by
+   * init_actions(), so that a reset parser can run repeated parses without
+   * allocating anything beyond the Symbols and values of the parse itself.
+   * Since the action object is kept, any state that user action code keeps in
+   * it also survives the reset; user_init() is still called before every
+   * parse.
+   *
+   * @param s the scanner to read the next input from, or null to just release
+   *          the references held by this parser.
+   * @see java_cup.runtime.ParserPool
+   */
+  public void reset(Scanner s) {
+    setScanner(s);
+    stack.removeAllElements();
+    tos = 0;
+    cur_token = null;
+    if (lookahead != null)
+      Arrays.fill(lookahead, null);
+    lookahead_first = 0;
+    lookahead_pos = 0;
+    if (value_stack != null) {
+      Arrays.fill(value_stack, null);
+      state_stack.clear();
+    }
+    _done_parsing = false;
+    direct_lhs = null;
+    _reuse_actions = _actions_initialized;
+    clear_diagnostics();
+  }
+
+  /**
+   * Initialize the action object, unless this parser was reset and can keep
+   * the one of its previous parse.
+   */
+  private void prepare_actions() throws java.lang.Exception {
+    if (!_reuse_actions) {
+      init_actions();
+      _actions_initialized = true;
+      _start_symbol = null;
+    }
+    _reuse_actions = false;
+  }
+
+  /**
+   * Get ready for a parse that is driven from outside of parse(), such as the
+   * one of an IncrementalParser: set up the tables and the action object, do
+   * the user initialization and push the start state. No lookahead is read.
+   */
+  void begin_parse() throws java.lang.Exception {
+    init_tables();
+    prepare_actions();
+    clear_diagnostics();
+    recycler = null;
+    user_init();
+    stack.removeAllElements();
+    stack.push(start_symbol());
+    tos = 0;
+    _done_parsing = false;
+  }
+
+  /**
+   * Check that a token read from the scanner has not been used by the parser
+   * before. Symbols may only be reused by handing them back to a recycling
+   * SymbolFactory, which marks them as fresh when it hands them out again.
+   */
+  static void check_fresh(Symbol token) {
+    if (token.used_by_parser)
+      throw new Error("Symbol recycling detected (fix your scanner, or recycle Symbols through the SymbolFactory).");
+  }
+
+  /**
+   * Does a parse that gives up on a syntax error end without a result? It
+   * does with a factory that recycles Symbols, since the last Symbol reduced
+   * may have been recycled by then; otherwise it returns that Symbol, as it
+   * always has.
+   */
+  boolean drops_unrecovered_result() {
+    return getSymbolFactory() != null && getSymbolFactory().recycles();
+  }
+
+  /** Get the Symbol that carries the start state at the bottom of the stack. */
+  private Symbol start_symbol() {
+    if (_start_symbol == null)
+      _start_symbol = getSymbolFactory().startSymbol("START", 0, start_state());
+    return _start_symbol;
+  }
+
   /*-----------------------------------------------------------*/
   /*--- General Methods ---------------------------------------*/
   /*-----------------------------------------------------------*/
@@ -345,6 +771,22 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * Create the Symbol for a non terminal the parser reached by skipping a chain
+   * of reductions by unit productions without action code (see
+   * <tt>-collapse_units</tt>). Like the skipped reductions would, it carries a
+   * null value and the positions of the Symbol it replaces. Generated parsers
+   * override this to create the Symbol through the symbol factory.
+   *
+   * @param lhs the index of the non terminal at the end of the chain.
+   * @param rhs the Symbol the chain started from.
+   */
+  public Symbol unit_symbol(int lhs, Symbol rhs) {
+    return new Symbol(lhs, rhs, rhs, null);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * User code for initialization inside the parser. Typically this initializes
    * the scanner. This is called before the parser requests the first Symbol. Here
@@ -372,13 +814,37 @@ public abstract class lr_parser {
    * Symbol (which is Symbol number 0). By default this method returns
    * getScanner().next_token(); this implementation can be overriden by the
    * generated parser using the code declared in the "scan with" clause. Do not
-   * recycle objects; every call to scan() should return a fresh object.
+   * recycle objects; every call to scan() should return a fresh object. The
+   * tokens of a {@link BatchScanner} are read in batches of _batch_size.
    */
   public Symbol scan() throws java.lang.Exception {
-    Symbol sym = getScanner().next_token();
+    Symbol sym;
+    if (batch == null)
+      sym = getScanner().next_token();
+    else if (batch_pos < batch_end) {
+      sym = batch[batch_pos];
+      batch[batch_pos++] = null;
+    } else
+      sym = next_batch();
     return (sym != null) ? sym : getSymbolFactory().newSymbol("END_OF_FILE", EOF_sym());
   }
 
+  /**
+   * Read the next batch of tokens from the BatchScanner.
+   *
+   * @return the first token of the batch, or null at end-of-file.
+   */
+  private Symbol next_batch() throws java.lang.Exception {
+    batch_pos = batch_end = 0;
+    int n = ((BatchScanner) _scanner).next_tokens(batch);
+    if (n <= 0)
+      return null;
+    batch_end = n;
+    Symbol sym = batch[0];
+    batch[batch_pos++] = null;
+    return sym;
+  }
+
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
@@ -479,79 +945,169 @@ public abstract class lr_parser {
   }
 
   /**
-   * Return the expected symbol during this state of state of the parser
+   * Return the terminals the parser can continue with in its current
+   * configuration, in ascending order. A terminal counts if the parser would
+   * shift it (or accept) after the reductions it triggers. The candidates are
+   * the terminals the current state has an action for, and the reductions are
+   * simulated only once for all candidates that reduce by the same production,
+   * dropping those the state reached has no action for.
    * 
-   * @return list of integer (non)temrinal ids
+   * @return list of integer terminal ids
    */
   public IntArrayStack expected_token_ids() {
-    IntArrayStack ret = new IntArrayStack();
     int parse_state = stack.peek().parse_state;
-    short[] row = action_tab[parse_state];
-    for (int i = 0; i < row.length; i += 2) {
-      if (row[i] == -1)
-        continue;
-      if (!validate_expected_symbol(row[i]))
-        continue;
-      ret.push(row[i]);
-    }
-    return ret;
-  }
-
-  private boolean validate_expected_symbol(int id) {
-    short lhs, rhs_size;
-    int act;
-    try {
-      virtual_parse_stack vstack = new virtual_parse_stack(stack);
-      /* parse until we fail or get past the lookahead input */
-      for (;;) {
-        /* look up the action from the current state (on top of stack) */
-        act = get_action(vstack.top(), id);
 
-        /* if its an error, we fail */
+    /* gather the candidates */
+    int[] cand = action_terminals(parse_state);
+    int n = cand.length;
+
+    /* follow the reductions of each group of candidates */
+    int[] found = new int[n];
+    int nfound = 0;
+    ArrayStack<expected_config> work = new ArrayStack<>();
+    work.push(new expected_config(cand, n, new int[0], 0, stack.size()));
+    while (!work.empty()) {
+      expected_config conf = work.pop();
+      int[] ids = conf.ids;
+      int top = conf.over_len > 0 ? conf.over[conf.over_len - 1] : stack.elementAt(conf.below - 1).parse_state;
+      for (int i = 0; i < conf.n; i++) {
+        if (ids[i] < 0)
+          continue;
+        int act = get_action(top, ids[i]);
+
+        /* shifts and the accepting reduce end the simulation */
+        if (act > 0 || (act < 0 && (-act) - 1 == start_production())) {
+          found[nfound++] = ids[i];
+          continue;
+        }
         if (act == 0)
-          return false;
-
-        /* > 0 encodes a shift */
-        if (act > 0) {
-          /* push the new state on the stack */
-          vstack.push(act - 1);
-
-          /* advance simulated input, if we run off the end, we are done */
-          if (!advance_lookahead())
-            return true;
+          continue;
+
+        /* take all remaining candidates reducing by the same production along */
+        int[] group = new int[conf.n - i];
+        int m = 0;
+        for (int j = i; j < conf.n; j++) {
+          if (ids[j] >= 0 && (j == i || get_action(top, ids[j]) == act)) {
+            group[m++] = ids[j];
+            ids[j] = -1;
+          }
         }
-        /* < 0 encodes a reduce */
+
+        /* pop the handle off the virtual stack and take the goto */
+        int over_len = conf.over_len, below = conf.below;
+        int handle_size = production_tab[(-act) - 1][1];
+        if (handle_size <= over_len)
+          over_len -= handle_size;
         else {
-          /* if this is a reduce with the start production we are done */
-          if ((-act) - 1 == start_production())
-            return true;
-
-          /* get the lhs Symbol and the rhs size */
-          lhs = production_tab[(-act) - 1][0];
-          rhs_size = production_tab[(-act) - 1][1];
-          /* pop handle off the stack */
-          for (int i = 0; i < rhs_size; i++)
-            vstack.pop();
-
-          vstack.push(get_reduce(vstack.top(), lhs));
+          below -= handle_size - over_len;
+          over_len = 0;
         }
+        int from = over_len > 0 ? conf.over[over_len - 1] : stack.elementAt(below - 1).parse_state;
+        int to = get_reduce(from, production_tab[(-act) - 1][0]);
+        int[] over = Arrays.copyOf(conf.over, over_len + 1);
+        over[over_len] = to;
+
+        /* only candidates the new state has an action for get any further */
+        if (expected_tab != null) {
+          short[] bits = expected_tab[to];
+          int k = 0;
+          for (int j = 0; j < m; j++)
+            if ((group[j] >> 4) < bits.length && (bits[group[j] >> 4] & (1 << (group[j] & 15))) != 0)
+              group[k++] = group[j];
+          m = k;
+        }
+        if (m > 0)
+          work.push(new expected_config(group, m, over, over_len + 1, below));
+      }
+    }
+
+    Arrays.sort(found, 0, nfound);
+    IntArrayStack ret = new IntArrayStack(Math.max(nfound, 1));
+    for (int i = 0; i < nfound; i++)
+      ret.push(found[i]);
+    return ret;
+  }
+
+  /**
+   * Collect the terminals a state has an action for. Without the bit sets of
+   * expected_tab these are the explicit entries of its action row, which miss
+   * the terminals the state reduces by default.
+   *
+   * @param state the state.
+   * @return the terminals in ascending order.
+   */
+  int[] action_terminals(int state) {
+    int[] cand = new int[16];
+    int n = 0;
+    if (expected_tab != null) {
+      short[] bits = expected_tab[state];
+      for (int w = 0; w < bits.length; w++)
+        for (int b = 0; b < 16; b++)
+          if ((bits[w] & (1 << b)) != 0) {
+            if (n == cand.length)
+              cand = Arrays.copyOf(cand, 2 * n);
+            cand[n++] = (w << 4) | b;
+          }
+    } else if (action_comb != null) {
+      for (int id = 0; id < action_comb.num_symbols(); id++) {
+        if (action_comb.get_explicit(state, id, (short) 0) == 0)
+          continue;
+        if (n == cand.length)
+          cand = Arrays.copyOf(cand, 2 * n);
+        cand[n++] = id;
+      }
+    } else {
+      short[] row = action_tab[state];
+      for (int i = 0; i < row.length; i += 2) {
+        if (row[i] == -1 || row[i + 1] == 0)
+          continue;
+        if (n == cand.length)
+          cand = Arrays.copyOf(cand, 2 * n);
+        cand[n++] = row[i];
       }
+    }
+    return Arrays.copyOf(cand, n);
+  }
 
-    } catch (Exception e) {
-      e.printStackTrace();
+  /**
+   * Candidates for expected_token_ids() together with the virtual parse stack
+   * they are simulated on: the lowest <code>below</code> Symbols of the real
+   * stack, topped by <code>over_len</code> states pushed by the simulation.
+   */
+  private static final class expected_config {
+    final int[] ids;
+    final int n;
+    final int[] over;
+    final int over_len;
+    final int below;
+
+    expected_config(int[] ids, int n, int[] over, int over_len, int below) {
+      this.ids = ids;
+      this.n = n;
+      this.over = over;
+      this.over_len = over_len;
+      this.below = below;
     }
-    return true;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
    * This method is called if it is determined that syntax error recovery has been
-   * unsuccessful. Here in the base class we report a fatal error.
+   * unsuccessful. Here in the base class we report a fatal error, unless this
+   * parser collects its errors: then the error is reported and the parse ends
+   * without an exception. If this returns normally, parse() returns null with
+   * a SymbolFactory that recycles Symbols, and otherwise the last Symbol it
+   * reduced (with <tt>-value_stack</tt>, the Symbol on top of the stack).
    *
    * @param cur_token the current lookahead Symbol.
    */
   public void unrecovered_syntax_error(Symbol cur_token) throws java.lang.Exception {
+    if (_collect_errors) {
+      report_error("Couldn't repair and continue parse", cur_token);
+      done_parsing();
+      return;
+    }
     report_fatal_error("Couldn't repair and continue parse", cur_token);
   }
 
@@ -563,12 +1119,16 @@ public abstract class lr_parser {
    * list of index, value pairs are given (as sequential entries in the table),
    * and the list is terminated by a default entry (denoted with a Symbol index of
    * -1). To find the proper entry in a row we do a linear or binary search
-   * (depending on the size of the row).
+   * (depending on the size of the row). If the parser was generated with
+   * row-displacement tables the entry is fetched directly instead.
    *
    * @param state the state index of the action being accessed.
    * @param sym   the Symbol index of the action being accessed.
    */
   protected final short get_action(int state, int sym) {
+    if (action_comb != null)
+      return action_comb.get(state, sym);
+
     short tag;
     int first, last, probe;
     short[] row = action_tab[state];
@@ -615,12 +1175,17 @@ public abstract class lr_parser {
    * one per state (rows are indexed directly by state number). Within each row, a
    * list of index, value pairs are given (as sequential entries in the table),
    * and the list is terminated by a default entry (denoted with a Symbol index of
-   * -1). To find the proper entry in a row we do a linear search.
+   * -1). To find the proper entry in a row we do a linear search. If the parser
+   * was generated with row-displacement tables the entry is fetched directly
+   * instead.
    *
    * @param state the state index of the entry being accessed.
    * @param sym   the Symbol index of the entry being accessed.
    */
   protected final short get_reduce(int state, int sym) {
+    if (reduce_comb != null)
+      return reduce_comb.get(state, sym);
+
     short tag;
     short[] row = reduce_tab[state];
 
@@ -650,8 +1215,8 @@ public abstract class lr_parser {
    * used.
    */
   public Symbol parse() throws java.lang.Exception {
-    /* the current action code */
-    int act;
+    /* the current action code and state */
+    int act, state;
 
     /* the Symbol/stack element returned by a reduce */
     Symbol lhs_sym = null;
@@ -660,35 +1225,57 @@ public abstract class lr_parser {
     short handle_size, lhs_sym_num;
 
     /* set up direct reference to tables to drive the parser */
-
-    production_tab = production_table();
-    action_tab = action_table();
-    reduce_tab = reduce_table();
+    init_tables();
 
     /* initialize the action encapsulation object */
-    init_actions();
+    prepare_actions();
+
+    /* forget the errors of the previous parse */
+    clear_diagnostics();
+
+    /* hand Symbols back for reuse if the factory wants them */
+    recycler = symbolFactory != null && symbolFactory.recycles() && !speculative ? symbolFactory : null;
 
     /* do user initialization */
     user_init();
 
-    /* get the first token */
-    cur_token = scan();
+    /* get the first token, unless we only fetch lookahead when needed */
+    cur_token = consistent_reduce == null ? scan() : null;
+
+    /* parsers generated with -value_stack take the Symbol free route */
+    if (uses_value_stack())
+      return parse_values();
 
     /* push dummy Symbol with start state to get us underway */
     stack.removeAllElements();
-    stack.push(getSymbolFactory().startSymbol("START", 0, start_state()));
+    stack.push(start_symbol());
     tos = 0;
 
+    boolean direct = uses_direct_code();
+
     /* continue until we are told to stop */
     for (_done_parsing = false; !_done_parsing;) {
-      /* Check current token for freshness. */
-      if (cur_token.used_by_parser)
-        throw new Error("Symbol recycling detected (fix your scanner).");
+      /* a directly coded loop runs up to the end or the next error */
+      if (direct && direct_parse()) {
+        lhs_sym = direct_lhs;
+        direct_lhs = null;
+        break;
+      }
 
       /* current state is always on the top of the stack */
+      state = stack.peek().parse_state;
 
-      /* look up action out of the current state with the current input */
-      act = get_action(stack.peek().parse_state, cur_token.sym);
+      /* consistent states reduce without even looking at the lookahead */
+      if (consistent_reduce == null || (act = consistent_reduce[state]) == 0) {
+        if (cur_token == null)
+          cur_token = scan();
+
+        /* Check current token for freshness. */
+        check_fresh(cur_token);
+
+        /* look up action out of the current state with the current input */
+        act = get_action(state, cur_token.sym);
+      }
 
       /* decode the action -- > 0 encodes shift */
       if (act > 0) {
@@ -698,8 +1285,8 @@ public abstract class lr_parser {
         stack.push(cur_token);
         tos++;
 
-        /* advance to the next Symbol */
-        cur_token = scan();
+        /* advance to the next Symbol (lazily if we may not need it) */
+        cur_token = consistent_reduce == null ? scan() : null;
       }
       /* if its less than zero, then it encodes a reduce action */
       else if (act < 0) {
@@ -711,14 +1298,21 @@ public abstract class lr_parser {
         handle_size = production_tab[(-act) - 1][1];
 
         /* pop the handle off the stack */
-        for (int i = 0; i < handle_size; i++) {
-          stack.pop();
-          tos--;
-        }
+        if (recycler == null)
+          for (int i = 0; i < handle_size; i++) {
+            stack.pop();
+            tos--;
+          }
+        else
+          pop_and_recycle(handle_size, lhs_sym);
 
         /* look up the state to go to from the one popped back to */
         act = get_reduce(stack.peek().parse_state, lhs_sym_num);
 
+        /* the goto may have skipped a chain of unit reductions (none on accept) */
+        if (entry_sym != null && act >= 0 && entry_sym[act] != lhs_sym_num)
+          lhs_sym = unit_symbol(entry_sym[act], lhs_sym);
+
         /* shift to that state */
         lhs_sym.parse_state = act;
         lhs_sym.used_by_parser = true;
@@ -727,6 +1321,10 @@ public abstract class lr_parser {
       }
       /* finally if the entry is zero, we have an error */
       else {
+        /* a speculative parse just gives up */
+        if (speculative)
+          throw ParallelParser.Mismatch.INSTANCE;
+
         /* call user syntax error reporting routine */
         syntax_error(cur_token);
 
@@ -737,6 +1335,10 @@ public abstract class lr_parser {
 
           /* just in case that wasn't fatal enough, end parse */
           done_parsing();
+
+          /* with a recycling factory lhs_sym may be recycled already */
+          if (drops_unrecovered_result())
+            lhs_sym = null;
         } else {
           lhs_sym = stack.peek();
         }
@@ -747,6 +1349,432 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /*-----------------------------------------------------------*/
+  /*--- Directly Coded Parsing --------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Does this parser have a directly coded parse loop (supplied by generated
+   * subclasses built with <tt>-codegen direct</tt>)? If so, parse() runs
+   * direct_parse() and only consults the tables to recover from syntax errors.
+   * The default implementation returns false.
+   */
+  public boolean uses_direct_code() {
+    return false;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Run the directly coded parse loop (supplied by generated subclasses built
+   * with <tt>-codegen direct</tt>) from the state on top of the stack. Every
+   * state is coded as a switch over the lookahead that shifts and reduces
+   * through direct_shift(), direct_reduce() and direct_goto(), in place of the
+   * table lookups of parse().
+   *
+   * @return true once parsing is done, false on a syntax error, in which case
+   *         cur_token holds the offending lookahead.
+   */
+  protected boolean direct_parse() throws java.lang.Exception {
+    throw new UnsupportedOperationException("Parser has no directly coded parse loop");
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Get the index of the lookahead for the directly coded parse loop, fetching
+   * it from the scanner first if needed.
+   */
+  protected final int direct_lookahead() throws java.lang.Exception {
+    if (cur_token == null)
+      cur_token = scan();
+
+    /* Check current token for freshness. */
+    check_fresh(cur_token);
+    return cur_token.sym;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Shift the lookahead for the directly coded parse loop.
+   *
+   * @param state the state to shift to.
+   * @return the state shifted to.
+   */
+  protected final int direct_shift(int state) throws java.lang.Exception {
+    cur_token.parse_state = state;
+    cur_token.used_by_parser = true;
+    stack.push(cur_token);
+    tos++;
+
+    /* advance to the next Symbol (lazily if we may not need it) */
+    cur_token = consistent_reduce == null ? scan() : null;
+    return state;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Reduce for the directly coded parse loop: perform the action of a
+   * production and pop its handle off the stack. The resulting Symbol is pushed
+   * by the following direct_goto().
+   *
+   * @param prod        the index of the production.
+   * @param handle_size the length of the right hand side of the production.
+   * @return the state popped back to.
+   */
+  protected final int direct_reduce(int prod, int handle_size) throws java.lang.Exception {
+    direct_lhs = do_action(prod, this, stack, tos);
+    if (recycler == null)
+      for (int i = 0; i < handle_size; i++) {
+        stack.pop();
+        tos--;
+      }
+    else
+      pop_and_recycle(handle_size, direct_lhs);
+    return stack.peek().parse_state;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Pop the handle of a reduction off the stack and hand its Symbols back to
+   * the recycling Symbol factory, all but the one the action returned and the
+   * tokens a ScannerBuffer keeps.
+   *
+   * @param handle_size the length of the right hand side of the production.
+   * @param lhs         the Symbol returned by the action.
+   */
+  private void pop_and_recycle(int handle_size, Symbol lhs) {
+    for (int i = 0; i < handle_size; i++) {
+      Symbol s = stack.pop();
+      tos--;
+      if (s != lhs && !s.retained)
+        recycler.recycle(s);
+    }
+  }
+
+  /**
+   * Copy a token for a SyntaxDiagnostic, since the token itself may be handed
+   * back to the recycling Symbol factory once it has been parsed.
+   */
+  private Symbol copy_token(Symbol token) {
+    String name = token instanceof ComplexSymbol ? ((ComplexSymbol) token).getName() : "error_token";
+    return recycler.newSymbol(name, token.sym, token, token, token.value);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Push the Symbol of the last direct_reduce() for the directly coded parse
+   * loop.
+   *
+   * @param lhs   the index of the non terminal reduced to.
+   * @param state the state to go to.
+   * @return the state gone to.
+   */
+  protected final int direct_goto(int lhs, int state) {
+    /* the goto may have skipped a chain of unit reductions (none on accept) */
+    if (entry_sym != null && state >= 0 && entry_sym[state] != lhs)
+      direct_lhs = unit_symbol(entry_sym[state], direct_lhs);
+
+    direct_lhs.parse_state = state;
+    direct_lhs.used_by_parser = true;
+    stack.push(direct_lhs);
+    tos++;
+    return state;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /*-----------------------------------------------------------*/
+  /*--- Value Stack Parsing -----------------------------------*/
+  /*-----------------------------------------------------------*/
+
+  /**
+   * Does this parser run its actions on the value stack (supplied by generated
+   * subclasses built with the <tt>-value_stack</tt> option)? If so, parse()
+   * keeps the parse states, symbol indexes, semantic values and positions in
+   * parallel arrays instead of a stack of Symbol objects, and calls
+   * do_value_action() on reduces. The default implementation returns false.
+   */
+  public boolean uses_value_stack() {
+    return false;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Perform a bit of user supplied action code on the value stack (supplied by
+   * generated subclasses built with the <tt>-value_stack</tt> option). The
+   * right hand side of the production being reduced occupies the topmost
+   * entries of the arrays.
+   *
+   * @param act_num the internal index of the action to be performed.
+   * @param parser  the parser object we are acting for.
+   * @param values  the semantic values on the parse stack.
+   * @param lefts   the left positions of the values.
+   * @param rights  the right positions of the values.
+   * @param top     the index of the top element of the parse stack.
+   * @return the value of the left hand side non terminal.
+   */
+  public Object do_value_action(int act_num, lr_parser parser, Object[] values, int[] lefts, int[] rights, int top)
+      throws java.lang.Exception {
+    throw new UnsupportedOperationException("Parser was not generated with -value_stack");
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /*
+   * The value stack is only allocated by the first parse that uses it (see
+   * ensure_value_capacity()), so parsers generated without -value_stack don't
+   * carry it around.
+   */
+
+  /** The parse states of the value stack. */
+  protected IntArrayStack state_stack;
+
+  /** The symbol indexes of the value stack, parallel to state_stack. */
+  protected int[] sym_stack;
+
+  /** The semantic values of the value stack, parallel to state_stack. */
+  protected Object[] value_stack;
+
+  /** The left positions of the value stack, parallel to state_stack. */
+  protected int[] left_stack;
+
+  /** The right positions of the value stack, parallel to state_stack. */
+  protected int[] right_stack;
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Make room for at least the given number of entries on the value stack,
+   * allocating it if this is its first use.
+   */
+  protected void ensure_value_capacity(int size) {
+    if (value_stack == null) {
+      int initial = Math.max(size, 16);
+      state_stack = new IntArrayStack(initial);
+      sym_stack = new int[initial];
+      value_stack = new Object[initial];
+      left_stack = new int[initial];
+      right_stack = new int[initial];
+      return;
+    }
+    if (size <= value_stack.length)
+      return;
+    int new_size = Math.max(size, value_stack.length * 2);
+    sym_stack = Arrays.copyOf(sym_stack, new_size);
+    value_stack = Arrays.copyOf(value_stack, new_size);
+    left_stack = Arrays.copyOf(left_stack, new_size);
+    right_stack = Arrays.copyOf(right_stack, new_size);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Carry out a value stack action on a Symbol stack. Parsers generated with
+   * <tt>-value_stack</tt> implement do_action() with this, so that error
+   * recovery and debug_parse(), which work on Symbols, can still run their
+   * actions. The Symbol stack is copied onto the value stack for this, which
+   * is only acceptable because these are not the fast paths.
+   *
+   * @param act_num the internal index of the action to be performed.
+   * @param stack   the parse stack.
+   * @param top     the index of the top element of the parse stack.
+   * @return the left hand side Symbol of the reduce.
+   */
+  protected Symbol do_action_on_values(int act_num, ArrayStack<Symbol> stack, int top) throws java.lang.Exception {
+    ensure_value_capacity(top + 1);
+    for (int i = 0; i <= top; i++) {
+      Symbol s = stack.elementAt(i);
+      value_stack[i] = s.value;
+      left_stack[i] = s.left;
+      right_stack[i] = s.right;
+    }
+    Object result = do_value_action(act_num, this, value_stack, left_stack, right_stack, top);
+    int rhs_size = production_tab[act_num][1];
+    int right = right_stack[top];
+    int left = rhs_size == 0 ? right : left_stack[top - rhs_size + 1];
+    return new Symbol(production_tab[act_num][0], left, right, result);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Rebuild the Symbol stack from the value stack, so that the Symbol based
+   * error recovery can take over.
+   *
+   * @param top the index of the top element of the value stack.
+   */
+  private void values_to_stack(int top) {
+    stack.removeAllElements();
+    stack.push(start_symbol());
+    for (int i = 1; i <= top; i++) {
+      /* made by the factory, since the recovery joins their positions with it */
+      int id = sym_stack[i];
+      Symbol s = getSymbolFactory().newSymbol(getSymbolContainer() != null ? symbl_name_from_id(id) : "#" + id, id,
+          value_stack[i]);
+      s.left = left_stack[i];
+      s.right = right_stack[i];
+      s.parse_state = state_stack.get(i);
+      s.used_by_parser = true;
+      stack.push(s);
+    }
+    tos = top;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Reload the value stack from the Symbol stack after error recovery.
+   *
+   * @return the index of the top element of the value stack.
+   */
+  private int stack_to_values() {
+    int top = stack.size() - 1;
+    ensure_value_capacity(top + 1);
+    state_stack.clear();
+    for (int i = 0; i <= top; i++) {
+      Symbol s = stack.elementAt(i);
+      state_stack.push(s.parse_state);
+      sym_stack[i] = s.sym;
+      value_stack[i] = s.value;
+      left_stack[i] = s.left;
+      right_stack[i] = s.right;
+    }
+    return top;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * The main parsing loop for parsers generated with <tt>-value_stack</tt>.
+   * It works like parse(), but shifts copy the token's value and positions onto
+   * the value stack and reduces push the value returned by do_value_action(),
+   * so no Symbol objects are created (or kept) while parsing. Since the parser
+   * does not hold on to the tokens it is safe for the scanner to recycle them.
+   * Syntax errors are handed over to the usual Symbol based error recovery.
+   */
+  protected Symbol parse_values() throws java.lang.Exception {
+    /* the current action code and state */
+    int act, state;
+
+    /* information about production being reduced with */
+    int prod, handle_size, lhs_sym_num, left, right;
+    Object result;
+
+    /* the index of the top of the value stack */
+    int top = 0;
+
+    /* start with the start state */
+    ensure_value_capacity(1);
+    IntArrayStack states = state_stack;
+    states.clear();
+    states.push(start_state());
+    sym_stack[0] = 0;
+    value_stack[0] = null;
+    left_stack[0] = right_stack[0] = 0;
+
+    /* continue until we are told to stop */
+    for (_done_parsing = false; !_done_parsing;) {
+      /* consistent states reduce without even looking at the lookahead */
+      state = states.peek();
+      if (consistent_reduce == null || (act = consistent_reduce[state]) == 0) {
+        if (cur_token == null)
+          cur_token = scan();
+
+        /* look up action out of the current state with the current input */
+        act = get_action(state, cur_token.sym);
+      }
+
+      /* decode the action -- > 0 encodes shift */
+      if (act > 0) {
+        /* shift the token's contents onto the value stack */
+        ensure_value_capacity(++top + 1);
+        states.push(act - 1);
+        sym_stack[top] = cur_token.sym;
+        value_stack[top] = cur_token.value;
+        left_stack[top] = cur_token.left;
+        right_stack[top] = cur_token.right;
+
+        /* the token itself is not kept, unless by a ScannerBuffer */
+        if (recycler != null && !cur_token.retained)
+          recycler.recycle(cur_token);
+
+        /* advance to the next Symbol (lazily if we may not need it) */
+        cur_token = consistent_reduce == null ? scan() : null;
+      }
+      /* if its less than zero, then it encodes a reduce action */
+      else if (act < 0) {
+        /* perform the action for the reduce */
+        prod = (-act) - 1;
+        result = do_value_action(prod, this, value_stack, left_stack, right_stack, top);
+
+        /* look up information about the production */
+        lhs_sym_num = production_tab[prod][0];
+        handle_size = production_tab[prod][1];
+        right = right_stack[top];
+        left = handle_size == 0 ? right : left_stack[top - handle_size + 1];
+
+        /* pop the handle off the stack */
+        for (int i = 0; i < handle_size; i++) {
+          value_stack[top--] = null;
+          states.pop();
+        }
+
+        /* look up the state to go to from the one popped back to */
+        act = get_reduce(states.peek(), lhs_sym_num);
+
+        /* the goto may have skipped a chain of unit reductions (none on accept) */
+        if (entry_sym != null && act >= 0 && entry_sym[act] != lhs_sym_num) {
+          lhs_sym_num = entry_sym[act];
+          result = null;
+        }
+
+        /* shift to that state */
+        ensure_value_capacity(++top + 1);
+        states.push(act);
+        sym_stack[top] = lhs_sym_num;
+        value_stack[top] = result;
+        left_stack[top] = left;
+        right_stack[top] = right;
+      }
+      /* finally if the entry is zero, we have an error */
+      else {
+        /* a speculative parse just gives up */
+        if (speculative)
+          throw ParallelParser.Mismatch.INSTANCE;
+
+        /* hand over to the Symbol based error recovery */
+        values_to_stack(top);
+
+        /* call user syntax error reporting routine */
+        syntax_error(cur_token);
+
+        /* try to error recover */
+        if (!error_recovery(false)) {
+          /* if that fails give up with a fatal syntax error */
+          unrecovered_syntax_error(cur_token);
+
+          /* just in case that wasn't fatal enough, end parse */
+          done_parsing();
+          tos = stack.size() - 1;
+
+          /* no Symbol was reduced, so return the top of the stack, if it is kept */
+          return drops_unrecovered_result() ? null : stack.peek();
+        }
+        top = stack_to_values();
+      }
+    }
+    tos = top;
+    return new Symbol(sym_stack[top], left_stack[top], right_stack[top], value_stack[top]);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * Write a debugging message to System.err for the debugging version of the
    * parser.
@@ -825,8 +1853,8 @@ public abstract class lr_parser {
    * messages.
    */
   public Symbol debug_parse() throws java.lang.Exception {
-    /* the current action code */
-    int act;
+    /* the current action code and state */
+    int act, state;
 
     /* the Symbol/stack element returned by a reduce */
     Symbol lhs_sym = null;
@@ -835,39 +1863,51 @@ public abstract class lr_parser {
     short handle_size, lhs_sym_num;
 
     /* set up direct reference to tables to drive the parser */
-    production_tab = production_table();
-    action_tab = action_table();
-    reduce_tab = reduce_table();
+    init_tables();
 
     debug_message("# Initializing parser");
 
     /* initialize the action encapsulation object */
-    init_actions();
+    prepare_actions();
+
+    /* forget the errors of the previous parse */
+    clear_diagnostics();
 
     /* do user initialization */
     user_init();
 
-    /* the current Symbol */
-    cur_token = scan();
-
-    debug_message("# Current Symbol is #" + cur_token.sym);
+    /* the current Symbol, unless we only fetch lookahead when needed */
+    if (consistent_reduce == null) {
+      cur_token = scan();
+      debug_message("# Current Symbol is #" + cur_token.sym);
+    } else
+      cur_token = null;
 
     /* push dummy Symbol with start state to get us underway */
     stack.removeAllElements();
-    stack.push(getSymbolFactory().startSymbol("START", 0, start_state()));
+    stack.push(start_symbol());
     tos = 0;
 
     /* continue until we are told to stop */
     for (_done_parsing = false; !_done_parsing;) {
-      /* Check current token for freshness. */
-      if (cur_token.used_by_parser)
-        throw new Error("Symbol recycling detected (fix your scanner).");
-
       /* current state is always on the top of the stack */
       // debug_stack();
+      state = stack.peek().parse_state;
 
-      /* look up action out of the current state with the current input */
-      act = get_action(stack.peek().parse_state, cur_token.sym);
+      /* consistent states reduce without even looking at the lookahead */
+      if (consistent_reduce == null || (act = consistent_reduce[state]) == 0) {
+        if (cur_token == null) {
+          cur_token = scan();
+          debug_message("# Current token is " + cur_token);
+        }
+
+        /* Check current token for freshness. */
+        check_fresh(cur_token);
+
+        /* look up action out of the current state with the current input */
+        act = get_action(state, cur_token.sym);
+      } else
+        debug_message("# Consistent state #" + state + ", reducing without lookahead");
 
       /* decode the action -- > 0 encodes shift */
       if (act > 0) {
@@ -878,9 +1918,12 @@ public abstract class lr_parser {
         stack.push(cur_token);
         tos++;
 
-        /* advance to the next Symbol */
-        cur_token = scan();
-        debug_message("# Current token is " + cur_token);
+        /* advance to the next Symbol (lazily if we may not need it) */
+        if (consistent_reduce == null) {
+          cur_token = scan();
+          debug_message("# Current token is " + cur_token);
+        } else
+          cur_token = null;
       }
       /* if its less than zero, then it encodes a reduce action */
       else if (act < 0) {
@@ -904,6 +1947,12 @@ public abstract class lr_parser {
         debug_message(
             "# Reduce rule: top state " + stack.peek().parse_state + ", lhs sym " + lhs_sym_num + " -> state " + act);
 
+        /* the goto may have skipped a chain of unit reductions (none on accept) */
+        if (entry_sym != null && act >= 0 && entry_sym[act] != lhs_sym_num) {
+          debug_message("# Skipped unit reductions to lhs sym " + entry_sym[act]);
+          lhs_sym = unit_symbol(entry_sym[act], lhs_sym);
+        }
+
         /* shift to that state */
         lhs_sym.parse_state = act;
         lhs_sym.used_by_parser = true;
@@ -924,6 +1973,10 @@ public abstract class lr_parser {
 
           /* just in case that wasn't fatal enough, end parse */
           done_parsing();
+
+          /* with a recycling factory lhs_sym may be recycled already */
+          if (drops_unrecovered_result())
+            lhs_sym = null;
         } else {
           lhs_sym = stack.peek();
         }
@@ -938,7 +1991,56 @@ public abstract class lr_parser {
 
   /**
    * Attempt to recover from a syntax error. This returns false if recovery fails,
-   * true if it succeeds. Recovery happens in 4 steps. First we pop the parse
+   * true if it succeeds. The recovery is left to the ErrorRecoveryStrategy set
+   * on this parser, and done by panic_mode_recovery() if there is none. Its
+   * work is counted, and if this parser collects its errors it is recorded
+   * together with the error.
+   *
+   * @param debug should we produce debugging messages as we parse.
+   */
+  protected boolean error_recovery(boolean debug) throws java.lang.Exception {
+    SyntaxDiagnostic diagnostic = null;
+    if (_collect_errors) {
+      IntArrayStack ids = expected_token_ids();
+      int[] expected = new int[ids.size()];
+      ids.toArray(expected);
+      diagnostic = new SyntaxDiagnostic(recycler == null ? cur_token : copy_token(cur_token), expected);
+    }
+
+    _error_discarded = 0;
+    _over_budget = false;
+    _repair = null;
+    boolean recovered;
+    long start = System.nanoTime();
+    long allowed = Math.min(_max_nanos_per_error, Math.max(0, _max_nanos_per_parse - _recovery_nanos));
+    _error_timed = allowed != Long.MAX_VALUE;
+    _error_deadline = start + allowed;
+    try {
+      if (_error_recovery_strategy != null)
+        recovered = _error_recovery_strategy.recover(this, debug);
+      else
+        recovered = panic_mode_recovery(debug);
+    } finally {
+      _recovery_nanos += System.nanoTime() - start;
+    }
+
+    /* only a recovery that ran to its end counts, a PushParser may repeat it */
+    _recovery_attempts++;
+    _tokens_discarded += _error_discarded;
+    if (diagnostic != null) {
+      int action = !recovered ? (_over_budget ? SyntaxDiagnostic.OVER_BUDGET : SyntaxDiagnostic.ABANDONED)
+          : _repair != null ? SyntaxDiagnostic.REPAIRED : SyntaxDiagnostic.RECOVERED;
+      diagnostic.recovered(action, _error_discarded, _repair);
+      _diagnostics.add(diagnostic);
+    }
+    return recovered;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Recover from a syntax error in panic mode. This returns false if recovery
+   * fails, true if it succeeds. Recovery happens in 4 steps. First we pop the parse
    * stack down to a point at which we have a shift out of the top-most state on
    * the error Symbol. This represents the initial error recovery configuration.
    * If no such configuration is found, then we fail. Next a small number of
@@ -957,7 +2059,7 @@ public abstract class lr_parser {
    *
    * @param debug should we produce debugging messages as we parse.
    */
-  protected boolean error_recovery(boolean debug) throws java.lang.Exception {
+  protected boolean panic_mode_recovery(boolean debug) throws java.lang.Exception {
     if (debug)
       debug_message("# Attempting error recovery");
 
@@ -974,17 +2076,20 @@ public abstract class lr_parser {
     /* read ahead to create lookahead we can parse multiple times */
     read_lookahead();
 
+    /* every parse ahead branches off the recovery configuration */
+    virtual_parse_stack base = recovery_stack();
+
     /* repeatedly try to parse forward until we make it the required dist */
     for (;;) {
       /* try to parse forward, if it makes it, bail out of loop */
       if (debug)
         debug_message("# Trying to parse ahead");
-      if (try_parse_ahead(debug)) {
+      if (try_parse_ahead(base, debug)) {
         break;
       }
 
       /* if we are now at EOF, we have failed */
-      if (lookahead[0].sym == EOF_sym()) {
+      if (lookahead[lookahead_first].sym == EOF_sym()) {
         if (debug)
           debug_message("# Error recovery fails at EOF");
         return false;
@@ -996,8 +2101,13 @@ public abstract class lr_parser {
       // Auckland, New Zealand.
       // It is the first token that is being consumed, not the one
       // we were up to parsing
+      if (!discard_token()) {
+        if (debug)
+          debug_message("# Error recovery exceeds its budget");
+        return false;
+      }
       if (debug)
-        debug_message("# Consuming Symbol #" + lookahead[0].sym);
+        debug_message("# Consuming Symbol #" + lookahead[lookahead_first].sym);
       restart_lookahead();
     }
 
@@ -1078,20 +2188,39 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Lookahead Symbols used for attempting error recovery "parse aheads". */
+  /**
+   * Lookahead Symbols used for attempting error recovery "parse aheads". The
+   * buffer is used round robin: restart_lookahead() puts the new Symbol in the
+   * place of the first one instead of moving all the others down, so only
+   * right after read_lookahead() is lookahead[i] the i-th Symbol of the window.
+   * Use cur_err_token() to get the Symbol at lookahead_pos.
+   */
   protected Symbol[] lookahead;
 
   /** Position in lookahead input buffer used for "parse ahead". */
   protected int lookahead_pos;
 
+  /**
+   * Index of the first Symbol of the window in the lookahead buffer, moved on
+   * by restart_lookahead().
+   */
+  private int lookahead_first;
+
+  /**
+   * Virtual stack shadowing the recovery configuration, which every "parse
+   * ahead" of a recovery forks. Reused by all recoveries on the same real stack.
+   */
+  private virtual_parse_stack parse_ahead_stack;
+
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
    * Read from input to establish our buffer of "parse ahead" lookahead Symbols.
    */
   protected void read_lookahead() throws java.lang.Exception {
-    /* create the lookahead array */
-    lookahead = new Symbol[error_sync_size()];
+    /* create the lookahead array, unless we still have a fitting one */
+    if (lookahead == null || lookahead.length != error_sync_size())
+      lookahead = new Symbol[error_sync_size()];
 
     /* fill in the array */
     for (int i = 0; i < error_sync_size(); i++) {
@@ -1100,6 +2229,19 @@ public abstract class lr_parser {
     }
 
     /* start at the beginning */
+    lookahead_first = 0;
+    lookahead_pos = 0;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Make tokens, in order, the "parse ahead" buffer (used by RepairRecovery to
+   * try a repaired stretch of input with parse_lookahead()).
+   */
+  void install_lookahead(Symbol[] tokens) {
+    lookahead = tokens;
+    lookahead_first = 0;
     lookahead_pos = 0;
   }
 
@@ -1107,21 +2249,23 @@ public abstract class lr_parser {
 
   /** Return the current lookahead in our error "parse ahead" buffer. */
   protected Symbol cur_err_token() {
-    return lookahead[lookahead_pos];
+    int i = lookahead_first + lookahead_pos;
+    return lookahead[i < lookahead.length ? i : i - lookahead.length];
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
   /**
    * Advance to next "parse ahead" input Symbol. Return true if we have input to
-   * advance to, false otherwise.
+   * advance to, false otherwise. The input is the whole lookahead array, which
+   * read_lookahead() sizes to error_sync_size() Symbols.
    */
   protected boolean advance_lookahead() {
     /* advance the input location */
     lookahead_pos++;
 
     /* return true if we didn't go off the end */
-    return lookahead_pos < error_sync_size();
+    return lookahead_pos < lookahead.length;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -1131,17 +2275,15 @@ public abstract class lr_parser {
    * recovery (this consumes one new Symbol from the real input).
    */
   protected void restart_lookahead() throws java.lang.Exception {
-    /* move all the existing input over */
-    for (int i = 1; i < error_sync_size(); i++)
-      lookahead[i - 1] = lookahead[i];
-
-    /* read a new Symbol into the last spot */
+    /* read a new Symbol into the spot of the first one, which becomes the last */
     // BUG Fix by Bruce Hutton
     // Computer Science Department, University of Auckland,
     // Auckland, New Zealand. [applied 5-sep-1999 by csa]
     // The following two lines were out of order!!
-    lookahead[error_sync_size() - 1] = cur_token;
+    lookahead[lookahead_first] = cur_token;
     cur_token = scan();
+    if (++lookahead_first == lookahead.length)
+      lookahead_first = 0;
 
     /* reset our internal position marker */
     lookahead_pos = 0;
@@ -1149,6 +2291,21 @@ public abstract class lr_parser {
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+  /**
+   * The virtual stack shadowing the current configuration of the real stack,
+   * for parse aheads to fork. This reuses the one of the last recovery if it
+   * shadows the same real stack.
+   */
+  protected virtual_parse_stack recovery_stack() throws java.lang.Exception {
+    if (parse_ahead_stack == null || parse_ahead_stack.real_stack != stack)
+      parse_ahead_stack = new virtual_parse_stack(stack);
+    else
+      parse_ahead_stack.reset();
+    return parse_ahead_stack;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /**
    * Do a simulated parse forward (a "parse ahead") from the current stack
    * configuration using stored lookahead input and a virtual parse stack. Return
@@ -1159,11 +2316,26 @@ public abstract class lr_parser {
    * @param debug should we produce debugging messages as we parse.
    */
   protected boolean try_parse_ahead(boolean debug) throws java.lang.Exception {
+    return try_parse_ahead(recovery_stack(), debug);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Do a "parse ahead" on a fork of a virtual stack. panic_mode_recovery()
+   * shadows the recovery configuration once and starts every attempt from
+   * there, so an attempt costs only the Symbols it parses, however deep the
+   * real stack and however many Symbols were discarded before.
+   *
+   * @param base  the configuration to start from, left unmodified.
+   * @param debug should we produce debugging messages as we parse.
+   */
+  protected boolean try_parse_ahead(virtual_parse_stack base, boolean debug) throws java.lang.Exception {
     int act;
     short lhs, rhs_size;
 
-    /* create a virtual stack from the real parse stack */
-    virtual_parse_stack vstack = new virtual_parse_stack(stack);
+    /* branch off the base configuration, sharing its states until we modify them */
+    virtual_parse_stack vstack = base.fork();
 
     /* parse until we fail or get past the lookahead input */
     for (;;) {
@@ -1302,6 +2474,10 @@ public abstract class lr_parser {
         /* look up the state to go to from the one popped back to */
         act = get_reduce(stack.peek().parse_state, lhs_sym_num);
 
+        /* the goto may have skipped a chain of unit reductions (none on accept) */
+        if (entry_sym != null && act >= 0 && entry_sym[act] != lhs_sym_num)
+          lhs_sym = unit_symbol(entry_sym[act], lhs_sym);
+
         /* shift to that state */
         lhs_sym.parse_state = act;
         lhs_sym.used_by_parser = true;
@@ -12,6 +12,12 @@ package java_cup.runtime;
  * been modified). Since parse ahead does not execute actions, only parse state
  * is maintained on the virtual stack, not full Symbol objects.
  *
+ * <p>The virtual portion is copied on write: fork() branches off another
+ * virtual stack in constant time, sharing the real stack and the virtual
+ * portion until one of them is modified, so many speculative parses can start
+ * from the same configuration. reset() returns to the top of the real stack,
+ * so one virtual stack can serve any number of parse aheads.</p>
+ *
  * @see java_cup.runtime.lr_parser
  * @version last updated: 7/3/96
  * @author Frank Flannery
@@ -37,6 +43,17 @@ public class virtual_parse_stack {
     get_from_real();
   }
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Constructor for fork(), sharing the virtual portion of another stack. */
+  private virtual_parse_stack(virtual_parse_stack other) {
+    real_stack = other.real_stack;
+    real_next = other.real_next;
+    vstack = other.vstack;
+    shared = true;
+    other.shared = true;
+  }
+
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
@@ -67,6 +84,14 @@ public class virtual_parse_stack {
    */
   protected IntArrayStack vstack;
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Is vstack shared with a fork of this stack (or the stack this one was
+   * forked from)? It is then copied before it is modified.
+   */
+  private boolean shared;
+
   /*-----------------------------------------------------------*/
   /*--- General Methods ---------------------------------------*/
   /*-----------------------------------------------------------*/
@@ -78,6 +103,9 @@ public class virtual_parse_stack {
   protected void get_from_real() {
     Symbol stack_sym;
 
+    /* make the virtual portion our own */
+    unshare();
+
     /* don't transfer if the real stack is empty */
     if (real_next >= real_stack.size())
       return;
@@ -121,6 +149,7 @@ public class virtual_parse_stack {
       throw new Exception("Internal parser error: pop from empty virtual stack");
 
     /* pop it */
+    unshare();
     vstack.pop();
 
     /* if we are now empty transfer an element (if there is one) */
@@ -132,9 +161,48 @@ public class virtual_parse_stack {
 
   /** Push a state number onto the stack. */
   public void push(int state_num) {
+    unshare();
     vstack.push(state_num);
   }
 
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Branch off a virtual stack holding the same states as this one. This
+   * takes constant time; the virtual portion is only copied once one of the
+   * two stacks modifies it.
+   */
+  public virtual_parse_stack fork() {
+    return new virtual_parse_stack(this);
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Shadow the top of the real stack again, dropping everything done on the
+   * virtual portion since.
+   */
+  public void reset() {
+    if (shared) {
+      vstack = new IntArrayStack();
+      shared = false;
+    } else {
+      vstack.clear();
+    }
+    real_next = 0;
+    get_from_real();
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /** Copy the virtual portion if it is shared with another stack. */
+  private void unshare() {
+    if (shared) {
+      vstack = new IntArrayStack(vstack);
+      shared = false;
+    }
+  }
+
   /*-----------------------------------------------------------*/
 
 }
\ No newline at end of file
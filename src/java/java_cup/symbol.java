@@ -22,10 +22,13 @@ public abstract class symbol {
   /**
    * Full constructor.
    * 
-   * @param nm the name of the symbol.
-   * @param tp a string with the type name.
+   * @param context the context the symbol is declared in.
+   * @param nm      the name of the symbol.
+   * @param tp      a string with the type name.
    */
-  public symbol(String nm, String tp) {
+  public symbol(GeneratorContext context, String nm, String tp) {
+    _context = context;
+
     /* sanity check */
     if (nm == null)
       nm = "";
@@ -43,16 +46,27 @@ public abstract class symbol {
   /**
    * Constructor with default type.
    * 
-   * @param nm the name of the symbol.
+   * @param context the context the symbol is declared in.
+   * @param nm      the name of the symbol.
    */
-  public symbol(String nm) {
-    this(nm, null);
+  public symbol(GeneratorContext context, String nm) {
+    this(context, nm, null);
   }
 
   /*-----------------------------------------------------------*/
   /*--- (Access to) Instance Variables ------------------------*/
   /*-----------------------------------------------------------*/
 
+  /** The context the symbol is declared in. */
+  protected final GeneratorContext _context;
+
+  /** The context the symbol is declared in. */
+  public GeneratorContext context() {
+    return _context;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
   /** String for the human readable name of the symbol. */
   protected String _name;
 
@@ -1,8 +1,5 @@
 package java_cup;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * This class represents a terminal symbol in the grammar. Each terminal has a
  * textual name, an index, and a string which indicates the type of object it
@@ -21,15 +18,16 @@ public class terminal extends symbol {
   /**
    * Full constructor.
    * 
-   * @param nm the name of the terminal.
-   * @param tp the type of the terminal.
+   * @param context the context the terminal is declared in.
+   * @param nm      the name of the terminal.
+   * @param tp      the type of the terminal.
    */
-  public terminal(String nm, String tp, int precedence_side, int precedence_num) {
+  public terminal(GeneratorContext context, String nm, String tp, int precedence_side, int precedence_num) {
     /* superclass does most of the work */
-    super(nm, tp);
+    super(context, nm, tp);
 
     /* add to set of all terminals and check for duplicates */
-    Object conflict = _all.put(nm, this);
+    Object conflict = context._terminals.put(nm, this);
     if (conflict != null)
       // can't throw an execption here because this is used in static
       // initializers, so we do a crash instead
@@ -38,14 +36,14 @@ public class terminal extends symbol {
       (new internal_error("Duplicate terminal (" + nm + ") created")).crash();
 
     /* assign a unique index */
-    _index = next_index++;
+    _index = context._next_terminal++;
 
     /* set the precedence */
     _precedence_num = precedence_num;
     _precedence_side = precedence_side;
 
     /* add to by_index set */
-    _all_by_index.put(_index, this);
+    context._terminals_by_index.put(_index, this);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -54,8 +52,8 @@ public class terminal extends symbol {
    * Constructor for non-precedented terminal
    */
 
-  public terminal(String nm, String tp) {
-    this(nm, tp, assoc.no_prec, -1);
+  public terminal(GeneratorContext context, String nm, String tp) {
+    this(context, nm, tp, assoc.no_prec, -1);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -63,10 +61,11 @@ public class terminal extends symbol {
   /**
    * Constructor with default type.
    * 
-   * @param nm the name of the terminal.
+   * @param context the context the terminal is declared in.
+   * @param nm      the name of the terminal.
    */
-  public terminal(String nm) {
-    this(nm, null);
+  public terminal(GeneratorContext context, String nm) {
+    this(context, nm, null);
   }
 
   /*-----------------------------------------------------------*/
@@ -77,68 +76,36 @@ public class terminal extends symbol {
   private int _precedence_side;
 
   /*-----------------------------------------------------------*/
-  /*--- (Access to) Static (Class) Variables ------------------*/
+  /*--- Static Methods ----------------------------------------*/
   /*-----------------------------------------------------------*/
 
-  /**
-   * Table of all terminals. Elements are stored using name strings as the key
-   */
-  protected static Map<String,terminal> _all = new HashMap<>();
-
-  // Hm Added clear to clear all static fields
-  public static void clear() {
-    _all.clear();
-    _all_by_index.clear();
-    next_index = 0;
-    EOF = new terminal("EOF");
-    error = new terminal("error");
-  }
-
-  /** Access to all terminals. */
-  public static Iterable<terminal> all() {
-    return _all.values();
+  /** Access to all terminals of a context. */
+  public static Iterable<terminal> all(GeneratorContext context) {
+    return context._terminals.values();
   }
 
-  /** Lookup a terminal by name string. */
-  public static terminal find(String with_name) {
+  /** Lookup a terminal of a context by name string. */
+  public static terminal find(GeneratorContext context, String with_name) {
     if (with_name == null)
       return null;
     else
-      return _all.get(with_name);
+      return context._terminals.get(with_name);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Table of all terminals indexed by their index number. */
-  protected static MonotonicIntObjectArrayMap<terminal> _all_by_index = new MonotonicIntObjectArrayMap<>();
-
-  /** Lookup a terminal by index. */
-  public static terminal find(int indx) {
-    return _all_by_index.get(indx);
+  /** Lookup a terminal of a context by index. */
+  public static terminal find(GeneratorContext context, int indx) {
+    return context._terminals_by_index.get(indx);
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
-  /** Total number of terminals. */
-  public static int number() {
-    return _all.size();
+  /** Total number of terminals of a context. */
+  public static int number(GeneratorContext context) {
+    return context._terminals.size();
   }
 
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** Static counter to assign unique index. */
-  protected static int next_index = 0;
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** Special terminal for end of input. */
-  public static terminal EOF = new terminal("EOF");
-
-  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
-
-  /** special terminal used for error recovery */
-  public static terminal error = new terminal("error");
-
   /*-----------------------------------------------------------*/
   /*--- General Methods ---------------------------------------*/
   /*-----------------------------------------------------------*/
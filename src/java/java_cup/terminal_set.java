@@ -17,8 +17,7 @@ public class terminal_set {
 
   /** Constructor for an empty set. */
   public terminal_set() {
-    /* allocate the bitset at what is probably the right size */
-    _elements = new BitSet(terminal.number());
+    _elements = new BitSet();
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -170,14 +169,41 @@ public class terminal_set {
   public boolean add(terminal_set other) throws internal_error {
     not_null(other);
 
-    /* make a copy */
-    BitSet copy = (BitSet) _elements.clone();
-
     /* or in the other set */
+    int before = _elements.cardinality();
     _elements.or(other._elements);
 
-    /* changed if we are not the same as the copy */
-    return !_elements.equals(copy);
+    /* changed if we have more elements than before */
+    return _elements.cardinality() != before;
+  }
+
+  /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
+
+  /**
+   * Add (union) in a complete set, collecting the terminals that are new to this
+   * set.
+   * 
+   * @param other the set being added.
+   * @param added the set to add the new terminals to, or null.
+   * @return added with the new terminals, a new set of them if added was null, or
+   *         added itself if nothing is new.
+   */
+  public terminal_set add_new(terminal_set other, terminal_set added) throws internal_error {
+    not_null(other);
+
+    /* the ones we don't have yet */
+    BitSet fresh = (BitSet) other._elements.clone();
+    fresh.andNot(_elements);
+    if (fresh.isEmpty())
+      return added;
+
+    _elements.or(fresh);
+    if (added == null) {
+      added = new terminal_set();
+      added._elements = fresh;
+    } else
+      added._elements.or(fresh);
+    return added;
   }
 
   /* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
@@ -220,27 +246,13 @@ public class terminal_set {
     return _elements.hashCode();
   }
 
-  /** Convert to string. */
+  /**
+   * Convert to string. A set only knows the indexes of its terminals, not the
+   * context they are declared in, so it lists the indexes.
+   */
   @Override
   public String toString() {
-    StringBuilder result;
-    boolean comma_flag;
-
-    result = new StringBuilder("{");
-    comma_flag = false;
-    for (int t = 0; t < terminal.number(); t++) {
-      if (_elements.get(t)) {
-        if (comma_flag)
-          result.append(", ");
-        else
-          comma_flag = true;
-
-        result.append(terminal.find(t).name());
-      }
-    }
-    result.append('}');
-
-    return result.toString();
+    return _elements.toString();
   }
 
   /*-----------------------------------------------------------*/
@@ -0,0 +1,10 @@
+# Times the parser of expr.cup generated with each way of coding the parse
+# tables and the parse loop; pass a cup jar to time another build.
+CUP=${1:-../../target/dist/java-cup-11b.jar}
+for o in "" "-comb_tables" "-codegen direct" "-collapse_units -lazy_lookahead" "-codegen direct -collapse_units -lazy_lookahead"; do
+  rm -f *.class Parser.java sym.java
+  java -jar $CUP -nosummary -interface -parser Parser $o expr.cup
+  javac -cp $CUP:. *.java
+  java -cp $CUP:. Bench $o
+done
+rm -f *.class Parser.java sym.java
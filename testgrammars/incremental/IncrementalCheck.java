@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java_cup.runtime.*;
+
+/**
+ * Checks that IncrementalParser parses and reparses the statement lists of
+ * doc.cup exactly like parse() on the whole input, reporting the
+ * same syntax errors and recovering the same way, on correct and broken
+ * inputs and random edits of them, see makeIncremental.sh.
+ */
+@SuppressWarnings("deprecation")
+public class IncrementalCheck {
+    static final String[] TOKENS = { "1", "23", "+", "*", "(", ")", ";" };
+
+    public static void main(String[] argv) throws Exception {
+        Random rnd = new Random(1);
+        int parses = 0, broken = 0, mismatches = 0;
+        long reused = 0;
+        for (int round = 0; round < 300; round++) {
+            List<String> doc = document(rnd, round % 2 == 1);
+            IncrementalParser<Parser> inc = new IncrementalParser<>(parser());
+            String got = outcome(inc.parser(), inc.parse(new Tokens(doc)));
+            for (int edit = 0; ; edit++) {
+                String want = outcome(doc);
+                parses++;
+                if (want.contains("Syntax error"))
+                    broken++;
+                if (!got.equals(want)) {
+                    if (mismatches++ < 5)
+                        System.out.println("MISMATCH " + round + "/" + edit + " " + String.join(" ", doc) + "\n  "
+                                + got + "\n  " + want);
+                }
+                if (edit == 10)
+                    break;
+
+                /* replace a random range of tokens by random tokens */
+                int first = rnd.nextInt(doc.size() + 1);
+                int end = first + rnd.nextInt(Math.min(4, doc.size() - first) + 1);
+                List<String> repl = new ArrayList<>();
+                for (int i = rnd.nextInt(4); i > 0; i--)
+                    repl.add(TOKENS[rnd.nextInt(TOKENS.length)]);
+                doc.subList(first, end).clear();
+                doc.addAll(first, repl);
+                got = outcome(inc.parser(), inc.reparse(first, end, new Tokens(repl)));
+                reused += inc.reused_tokens();
+            }
+        }
+        System.out.println(String.join(" ", argv) + " parses " + parses + " with errors " + broken + " reused tokens "
+                + reused + " mismatches " + mismatches);
+    }
+
+    /** A list of statements, with some tokens replaced if it is broken. */
+    static List<String> document(Random rnd, boolean broken) {
+        List<String> doc = new ArrayList<>();
+        for (int i = 5 + rnd.nextInt(30); i > 0; i--) {
+            if (rnd.nextInt(3) == 0) {
+                doc.add("+");
+                factor(rnd, doc, 3);
+            } else
+                expr(rnd, doc, 3);
+            doc.add(";");
+        }
+        if (broken)
+            for (int i = 1 + rnd.nextInt(3); i > 0; i--)
+                doc.set(rnd.nextInt(doc.size()), TOKENS[rnd.nextInt(TOKENS.length)]);
+        return doc;
+    }
+
+    static void expr(Random rnd, List<String> doc, int depth) {
+        for (int i = rnd.nextInt(3); i >= 0; i--) {
+            factor(rnd, doc, depth);
+            if (i > 0)
+                doc.add(rnd.nextBoolean() ? "+" : "*");
+        }
+    }
+
+    static void factor(Random rnd, List<String> doc, int depth) {
+        if (depth > 0 && rnd.nextInt(4) == 0) {
+            doc.add("(");
+            expr(rnd, doc, depth - 1);
+            doc.add(")");
+        } else
+            doc.add(TOKENS[rnd.nextInt(2)]);
+    }
+
+    /** A parser that collects its syntax errors without printing them. */
+    static Parser parser() {
+        Parser p = new Parser(null, new DefaultSymbolFactory()) {
+            public void report_error(String message, Object info) {
+            }
+
+            protected void report_expected_token_ids() {
+            }
+        };
+        p.setCollectErrors(true);
+        return p;
+    }
+
+    /** The outcome of parsing a whole input from scratch. */
+    static String outcome(List<String> doc) throws Exception {
+        Parser p = parser();
+        p.setScanner(new Tokens(doc));
+        return outcome(p, p.parse());
+    }
+
+    static String outcome(lr_parser p, Symbol result) {
+        return (result == null ? "-" : String.valueOf(result.value)) + " " + p.diagnostics();
+    }
+
+    /** A scanner for a list of tokens. */
+    static class Tokens implements Scanner {
+        private final Iterator<String> tokens;
+        private final SymbolFactory sf = new DefaultSymbolFactory();
+
+        Tokens(List<String> tokens) {
+            this.tokens = new ArrayList<>(tokens).iterator();
+        }
+
+        public Symbol next_token() {
+            if (!tokens.hasNext())
+                return sf.newSymbol("EOF", sym.EOF);
+            String t = tokens.next();
+            switch (t) {
+            case ";": return sf.newSymbol("SEMI", sym.SEMI);
+            case "+": return sf.newSymbol("PLUS", sym.PLUS);
+            case "*": return sf.newSymbol("TIMES", sym.TIMES);
+            case "(": return sf.newSymbol("LPAREN", sym.LPAREN);
+            case ")": return sf.newSymbol("RPAREN", sym.RPAREN);
+            }
+            return sf.newSymbol("NUMBER", sym.NUMBER, Integer.valueOf(t));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+# Checks that IncrementalParser parses and reparses like parse() with each
+# way of building the parse tables; pass a cup jar to check another build.
+CUP=${1:-../../target/dist/java-cup-11b.jar}
+for o in "" "-lazy_lookahead" "-collapse_units -lazy_lookahead"; do
+  rm -f *.class Parser.java sym.java
+  java -jar $CUP -nosummary -interface -parser Parser $o doc.cup
+  javac -cp $CUP:. *.java
+  java -cp $CUP:. IncrementalCheck $o
+done
+rm -f *.class Parser.java sym.java